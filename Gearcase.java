@@ -6,12 +6,11 @@
  *
  * 2017, v11.06
  */
-import com.opencsv.CSVReader;
 import java.io.*;
 import star.common.*;
 import macroutils.*;
+import sweeputils.*;
 import java.util.*;
-import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
 import org.apache.poi.hssf.usermodel.*;
 import org.apache.poi.ss.usermodel.*;
 import star.base.neo.DoubleVector;
@@ -47,8 +46,8 @@ public class Gearcase extends StarMacro {
     };
 
     // Simulation parameters
-    TODO
-    : fill out run matrix from TR wiki
+    // TODO: fill out run matrix from TR wiki
+    // {speed (mph), trim (deg), height (in), rpm}
     double runMatrix[][] = {
         {40, 3.5, 8, 0},
         {50, 3.5, 8, 0}
@@ -56,12 +55,20 @@ public class Gearcase extends StarMacro {
     double meshSize = 0.1; // smallest mesh size on gearcase surface
     double runPoints = 18; // # total rows in run matrix
     double mfr = .6; // exhaust mass flow rate (kg/s)
-    TODO
-    : check trim point with john
+    // TODO: check trim point with john
     double trimPoint_z = 36.37; // z distance from trim point to GC center (in)
     double trimPoint_x = 8.07; // x distance from trim point to GC center (in)
     double xProp = 19;
     int numGcReports = 6; // number of gc reports being exported to csv
+    // cases that keep a .sim: "every", "every <n>" or "last <k>" (see
+    // SavePolicy), every case is on a new mesh here
+    String savePolicy = "every";
+    String localSaveDir = ""; // local disk saved to first, "" saves to simPath
+    // mesh quality limits checked after every remesh: min cell quality, max
+    // skewness angle (deg), min volume change, negative volume cells, bad
+    // cells; NaN is unchecked
+    double[] qualityLimits = {1e-5, 85., 1e-4, 0., Double.NaN};
+    boolean skipBadMeshes = true; // false only flags their cases in the log
 
     //--------------------------------------------------------------------------
     // -- END USER INPUTS --
@@ -69,25 +76,62 @@ public class Gearcase extends StarMacro {
     public void execute() {
         try {
             initMacro();
+            saves = SavePolicy.parse(savePolicy, localSaveDir);
+            timer = new PhaseTimer(ud.simPath + slash + versionFileHeader
+                    + "_timing.jsonl");
+            initGate();
             for (int i = 0; i < runPoints; i++) {
-                setSpeed(runMatrix[i][0]);
-                setHeight(runMatrix[i][2]);
-                setTrim(runMatrix[i][1]);
-                setCsys(runMatrix[i][2], runMatrix[i][1]);
-                TODO: update vars with runMatrix like above
+                timer.startCase("run point " + i);
+                double speed = runMatrix[i][0];
+                double trim = runMatrix[i][1];
+                double height = runMatrix[i][2];
+                double rpm = runMatrix[i][3];
+                setSpeed(speed);
+                setHeight(height);
+                long t = timer.begin();
+                setTrim(trim);
+                setCsys(height, trim);
+                timer.end("remesh", t);
+                checkMesh();
                 ud.simTitle = versionFileHeader + "_"
                         + speed + "mph_"
                         + trim + "deg_"
                         + height + "in_"
                         + rpm + "rpm";
                 fileName = ud.simPath + slash + ud.simTitle;
+                gate.record(ud.simTitle);
+                if (gate.isSkipped()) {
+                    mu.io.say.msg("Bad mesh, skipping " + ud.simTitle, vo);
+                    timer.endCase();
+                    continue;
+                }
                 run(speed, height, trim, rpm);
+                t = timer.begin();
                 exportScene();
+                timer.end("scene export", t);
+                t = timer.begin();
                 CreateResultSS(speed, height, trim, rpm);
-
+                timer.end("results", t);
+                timer.endCase();
             }
         } catch (Exception ex) {
             mu.getSimulation().println(ex);
+        } finally {
+            try {
+                if (saves != null) {
+                    saves.close();
+                    mu.io.say.msg(saves.summary(), vo);
+                }
+            } catch (Exception ex) {
+                mu.getSimulation().println(ex);
+            }
+            if (timer != null) {
+                timer.close();
+                mu.io.say.msg("Phase timings:\n" + timer.summary(), vo);
+            }
+            if (gate != null) {
+                mu.io.say.msg(gate.summary(), vo);
+            }
         }
     }
 
@@ -142,6 +186,26 @@ public class Gearcase extends StarMacro {
 
     }
 
+    void initGate() {
+        gate = new QualityGate(ud.simPath + slash + versionFileHeader
+                + "_meshQuality.csv");
+        gate.setLimits(qualityLimits[0], qualityLimits[1], qualityLimits[2],
+                qualityLimits[3], qualityLimits[4]);
+        gate.setSkip(skipBadMeshes);
+    }
+
+    void checkMesh() {
+        // a bad trim meshes without complaint and only diverges hours into
+        // the solve, so the new mesh is checked before any solver time
+        long t = timer.begin();
+        if (!gate.check(QualityGateReports.measure(
+                mu.getSimulation(), mu.get.regions.all(false)))) {
+            mu.io.say.msg("Mesh quality check failed: " + gate.getReasons(),
+                    vo);
+        }
+        timer.end("quality gate", t);
+    }
+
     void setTrim(double trim) {
         // set trim angle in parts rotate operation
         tpo = (TransformPartsOperation) mu.getSimulation()
@@ -190,7 +254,8 @@ public class Gearcase extends StarMacro {
 
     }
 
-    void run(double speed, double height, double trim, double rpm) {
+    void run(double speed, double height, double trim, double rpm)
+            throws Exception {
         // set volume mesh repr for all displayers
         for (Displayer d : mu.get.scenes.allDisplayers(vo)) {
             d.setRepresentation(mu.get.mesh.fvr());
@@ -201,13 +266,27 @@ public class Gearcase extends StarMacro {
                 .getAutoSave().getStarUpdate().setEnabled(false);
 
         // run
+        long t = timer.begin();
         mu.step(numSteps);
+        timer.end("solve", t);
 
         // output csv data
+        t = timer.begin();
         MonitorPlot gcPlot = (MonitorPlot) mu.get.plots.byREGEX("Gearcase", vo);
         gcPlot.export(fileName + "_gc.csv", ",");
-
-        mu.saveSim();
+        timer.end("csv export", t);
+
+        // the save policy decides which cases keep a sim, a local save is
+        // copied to simPath while the next case meshes
+        if (saves.isDue(true)) {
+            t = timer.begin();
+            File target = saves.target(fileName + ".sim");
+            String simPath = ud.simPath;
+            mu.getSimulation().saveState(target.getPath());
+            ud.simPath = simPath;
+            saves.saved(target, fileName + ".sim");
+            timer.end("save", t);
+        }
     }
 
     void exportScene() {
@@ -245,21 +324,16 @@ public class Gearcase extends StarMacro {
         row.createCell(4).setCellValue(rpm);
 
         // read in gearcase data
-        reader = new CSVReader(new FileReader(fileName + "_gc.csv"));
-        data = reader.readAll();
+        table = MonitorTable.readLast(fileName + "_gc.csv", ud.numToAve);
 
         // Compute mean and standard deviation of gc data
-        int reportIterator = 1;
-        stats = new SummaryStatistics();
+        stats.reset(numGcReports);
+        stats.addTable(table, 1);
+        int reportIterator = 0;
         for (columnIterator = 5;
                 columnIterator < 5 + numGcReports; columnIterator++) {
-            for (rowIterator = data.size() - 1;
-                    rowIterator >= data.size() - ud.numToAve; rowIterator--) {
-                String[] array = data.get(rowIterator);
-                stats.addValue(Double.parseDouble(array[reportIterator]));
-            }
-            row.createCell(columnIterator).setCellValue(stats.getMean());
-            stats = new SummaryStatistics();
+            row.createCell(columnIterator)
+                    .setCellValue(stats.getMean(reportIterator));
             reportIterator++;
         }
 
@@ -291,16 +365,17 @@ public class Gearcase extends StarMacro {
 
     int numSteps;
     int columnIterator;
-    int rowIterator;
     int meshCount;
 
+    SavePolicy saves;
+    PhaseTimer timer;
+    QualityGate gate;
     FileOutputStream fileOut;
     Workbook wb;
     Sheet sheet;
     Row row;
-    CSVReader reader;
-    List<String[]> data;
-    SummaryStatistics stats;
+    MonitorTable table;
+    ColumnStats stats = new ColumnStats(numGcReports);
     VofWaveModel vwm;
     FlatVofWave fvw;
     TransformPartsOperation tpo;
@@ -6,7 +6,9 @@
  *
  * 2017, v12.02
  */
+import java.io.*;
 import macroutils.*;
+import sweeputils.*;
 import star.common.*;
 import star.flow.*;
 import star.motion.*;
@@ -21,12 +23,44 @@ public class Itc_Props extends StarMacro {
     double degPerTstep = 1;
     double revs = 10;
     boolean rightHanded = true;
+    // rpms that save the sim: "every", "geometry" (the meshed sim only),
+    // "every <n>" or "last <k>" (see SavePolicy)
+    String savePolicy = "every";
+    String localSaveDir = ""; // local disk saved to first, "" saves to simPath
 
     public void execute() {
-        varyRPM();
+        try {
+            saves = SavePolicy.parse(savePolicy, localSaveDir);
+            varyRPM();
+        } catch (Exception ex) {
+            getSimulation().println(ex);
+        } finally {
+            try {
+                if (saves != null) {
+                    saves.close();
+                    getSimulation().println(saves.summary());
+                }
+            } catch (Exception ex) {
+                getSimulation().println(ex);
+            }
+        }
+    }
+
+    void save(boolean meshed) throws Exception {
+        // the save policy decides which rpms keep a sim, a local save is
+        // copied to simPath while the next rpm runs
+        if (!saves.isDue(meshed)) {
+            return;
+        }
+        String simFile = ud.simPath + "/" + ud.simTitle + ".sim";
+        File target = saves.target(simFile);
+        String simPath = ud.simPath;
+        mu.getSimulation().saveState(target.getPath());
+        ud.simPath = simPath;
+        saves.saved(target, simFile);
     }
 
-    void varyRPM() {
+    void varyRPM() throws Exception {
         mu = new MacroUtils(getSimulation());
         ud = mu.userDeclarations;
 
@@ -39,7 +73,7 @@ public class Itc_Props extends StarMacro {
         for (Displayer d : mu.get.scenes.allDisplayers(vo)) {
             d.setRepresentation(mu.get.mesh.fvr());
         }
-        mu.saveSim();
+        save(true);
 
         // set inflow speed
         mu.get.boundaries.byREGEX("Inlet", vo)
@@ -88,13 +122,14 @@ public class Itc_Props extends StarMacro {
             gcPlot.export(ud.simPath + "/" + rpm + "rpm_gc.csv", ",");
 
             //ud.simTitle = rpm + "rpm";
-            mu.saveSim();
+            save(false);
         }
     }
 
     MacroUtils mu;
     UserDeclarations ud;
     RotatingMotion rm;
+    SavePolicy saves;
     double mfr;
     double tStep;
     boolean vo = true;
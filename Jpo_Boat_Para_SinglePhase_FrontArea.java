@@ -9,11 +9,11 @@
 import java.io.*;
 import java.util.*;
 import macroutils.*;
+import sweeputils.*;
 import star.common.*;
 import org.apache.commons.math3.stat.descriptive.*;
 import org.apache.poi.ss.usermodel.*;
 import com.opencsv.CSVReader;
-import org.apache.poi.hssf.usermodel.HSSFWorkbook;
 import star.base.neo.DoubleVector;
 import star.flow.VelocityMagnitudeProfile;
 import star.meshing.*;
@@ -31,46 +31,118 @@ public class Jpo_Boat_Para_SinglePhase_FrontArea extends StarMacro {
     double[] yaws = {0., 22.5, 45, 67.5, 90., 112.5, 135., 157.5, 180.};
     double[] speedsForward = {.25, .5, 1, 2, 3, 5, 10}; // fps
     double[] speedsAngle = {.25, .5, 1, 2}; // fps
-    double[] speeds;
+    String matrixFile = "Jpo_Boat_Para_SinglePhase_FrontArea.matrix";
+    int shard = 0; // this macro's share of the cases when split over
+    int numShards = 1; // several sessions, each with its own workbook
+    boolean mergeShards = false; // once every shard is done, merge them
 
     double roll = 0.;
     int iterations = 500;
     int resx = 1200;
     int resy = 700;
+    int ssRowWindow = 100; // rows kept in memory by the xlsx writer
 
     public void execute() {
         
         sim = getSimulation();
         simPath = sim.getSessionDir();
+        if (mergeShards) {
+            mergeShards();
+            return;
+        }
+        try {
+            results = new XlsxResultsSink(resultsFile(shard), "data",
+                    headers, ssRowWindow);
+        } catch (Exception ex) {
+            sim.println(ex);
+            return;
+        }
 
-        for (double sink : sinks) {
-
-            for (double pitch : pitches) {
-
-                for (double yaw : yaws) {
-                    if (yaw == 0.) {
-                        speeds = speedsForward;
-                    } else {
-                        speeds = speedsAngle;
-                    }
-
-                    for (double speed : speeds) {
-                        simTitle = title
-                                + "_sink" + sink
-                                + "_roll" + roll
-                                + "_pitch" + pitch
-                                + "_yaw" + yaw
-                                + "_speed" + speed;
-                        initMacro();
-                        try {
-                            post(sink, pitch, yaw, speed);
-                        } catch (Exception ex) {
-                            mu.getSimulation().println(ex);
-                        }
-                    }
+        try {
+            RunMatrix matrix;
+            try {
+                matrix = loadMatrix();
+            } catch (Exception ex) {
+                sim.println(ex);
+                return;
+            }
+            sim.println(matrix.summary());
+
+            for (RunMatrix.Case c : matrix) {
+                double sink = c.get("sink");
+                double pitch = c.get("pitch");
+                double yaw = c.get("yaw");
+                double speed = c.get("speed");
+                simTitle = title
+                        + "_sink" + sink
+                        + "_roll" + roll
+                        + "_pitch" + pitch
+                        + "_yaw" + yaw
+                        + "_speed" + speed;
+                initMacro();
+                try {
+                    post(sink, pitch, yaw, speed, c.getIndex());
+                } catch (Exception ex) {
+                    mu.getSimulation().println(ex);
                 }
             }
+        } finally {
+            // rows already recorded reach the workbook even after an error
+            try {
+                results.close();
+            } catch (Exception ex) {
+                sim.println(ex);
+            }
+        }
+    }
+
+    String resultsFile(int k) {
+        // shards never share a workbook or journal, mergeShards joins them
+        String suffix = numShards > 1 ? "_shard" + k + "of" + numShards : "";
+        return simPath + "/Frontal_Area" + suffix + ".xlsx";
+    }
+
+    void mergeShards() {
+        String[] journals = new String[numShards];
+        for (int k = 0; k < numShards; k++) {
+            journals[k] = resultsFile(k) + ".journal";
+        }
+        // the merged workbook is rebuilt, not appended to
+        String merged = simPath + "/Frontal_Area.xlsx";
+        new File(merged).delete();
+        new File(merged + ".journal").delete();
+        try {
+            results = new XlsxResultsSink(merged, "data", headers,
+                    ssRowWindow);
+            try {
+                int rows = ResultsJournal.merge(journals, results);
+                sim.println("Merged " + rows + " rows from " + numShards
+                        + " shards");
+            } finally {
+                results.close();
+            }
+        } catch (Exception ex) {
+            sim.println(ex);
+        }
+    }
+
+    RunMatrix loadMatrix() throws IOException {
+        // a matrix file in the session dir replaces the arrays above
+        RunMatrix matrix;
+        File file = new File(simPath + File.separator + matrixFile);
+        if (file.exists()) {
+            matrix = RunMatrix.read(file.getPath());
+        } else {
+            matrix = new RunMatrix();
+            matrix.addAxis("sink", sinks);
+            matrix.addAxis("pitch", pitches);
+            matrix.addAxis("yaw", yaws);
+            matrix.addAxis("speed", speedsAngle);
+            matrix.addOverride(new RunMatrix.Condition[]{
+                matrix.condition("yaw", 0.)}, "speed", speedsForward);
         }
+        matrix.setShard(shard, numShards);
+        return matrix;
     }
 
     void initMacro() {
@@ -87,38 +159,19 @@ public class Jpo_Boat_Para_SinglePhase_FrontArea extends StarMacro {
                         new double[]{1., 0., 0.}));
     }
 
-    void post(double sink, double pitch, double yaw, double speed) throws Exception {
-        // update excel with numerical results
-        String ssTitle = ud.simPath + "/Frontal_Area.xls";
-
-        if (!new File(ssTitle).exists()) {
-            wb = new HSSFWorkbook();
-            sheet = wb.createSheet("data");
-            row = sheet.createRow(0);
-            row.createCell(0).setCellValue("Sink");
-            row.createCell(1).setCellValue("Pitch");
-            row.createCell(2).setCellValue("Yaw");
-            row.createCell(3).setCellValue("Speed");
-            row.createCell(4).setCellValue("Frontal Area");
-            out = new FileOutputStream(ssTitle);
-            wb.write(out);
-            out.close();
-        }
-        // open existing wb
-        wb = WorkbookFactory.create(new File(ssTitle));
-        sheet = wb.getSheet("data");
-        int currentRow = sheet.getLastRowNum() + 1;
-        row = sheet.createRow(currentRow);
+    void post(double sink, double pitch, double yaw, double speed,
+            long index) throws Exception {
+        // update streaming xlsx with numerical results, shards number rows
+        // by case position so the merge keeps the matrix order
+        row = numShards > 1 ? results.createRow((int) index + 1)
+                : results.createRow();
         // write row data
         row.createCell(0).setCellValue(sink);
         row.createCell(1).setCellValue(pitch);
         row.createCell(2).setCellValue(yaw);
         row.createCell(3).setCellValue(speed);
         row.createCell(4).setCellValue(ud.rep.getReportMonitorValue());
-
-        out = new FileOutputStream(ssTitle);
-        wb.write(out);
-        out.close();
+        results.endRow();
     }
 
     MacroUtils mu;
@@ -130,16 +183,15 @@ public class Jpo_Boat_Para_SinglePhase_FrontArea extends StarMacro {
 
     Double yaw;
     List<String[]> data;
-    Workbook wb;
-    Sheet sheet;
+    ResultsSink results;
     Row row;
     CSVReader reader;
     SummaryStatistics stats;
-    FileOutputStream out;
     AutoSave as;
     int resultsCol;
     double tStep;
     String[] reports = {"Fx", "Fy", "Fz", "Mx", "My", "Mz", "Lift", "Drag"};
+    String[] headers = {"Sink", "Pitch", "Yaw", "Speed", "Frontal Area"};
 
     VofWaveModel vwm;
     FlatVofWave fvw;
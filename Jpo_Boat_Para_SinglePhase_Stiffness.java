@@ -9,11 +9,11 @@
 import java.io.*;
 import java.util.*;
 import macroutils.*;
+import sweeputils.*;
 import star.common.*;
 import org.apache.commons.math3.stat.descriptive.*;
 import org.apache.poi.ss.usermodel.*;
 import com.opencsv.CSVReader;
-import org.apache.poi.hssf.usermodel.HSSFWorkbook;
 import star.base.neo.DoubleVector;
 import star.flow.VelocityMagnitudeProfile;
 import star.meshing.*;
@@ -29,18 +29,44 @@ public class Jpo_Boat_Para_SinglePhase_Stiffness extends StarMacro {
     double[] staticPitches = {-2, -1, 0, 1, 2}; // deg
     double[] yaws = {0, 45, 90, 135, 180}; // deg
 
-    int iterations = 1000;
+    int iterations = 1000; // hard cap
+    int sampleIterations = 10; // iterations between report samples
+    int samplesPerBatch = 10; // samples per convergence batch
+    int convBatches = 3; // batch means used for the steady state test
+    double convTol = .002; // relative force/moment tolerance
+    String[] watchReports = {"Fz", "My", "Drag"};
     int resx = 1200;
     int resy = 700;
+    // mesh quality limits checked after every remesh: min cell quality, max
+    // skewness angle (deg), min volume change, negative volume cells, bad
+    // cells; NaN is unchecked
+    double[] qualityLimits = {1e-5, 85., 1e-4, 0., Double.NaN};
+    boolean skipBadMeshes = true; // false only flags their cases in the log
 
     public void execute() {
 
         initMacro();
+        try {
+            String[] headers = new String[reports.length + 1];
+            headers[0] = "Run";
+            System.arraycopy(reports, 0, headers, 1, reports.length);
+            results = new XlsResultsSink(ud.simPath + "/results.xls", "data",
+                    headers, 1);
+        } catch (Exception ex) {
+            mu.getSimulation().println(ex);
+            return;
+        }
         for (double sink : sinks) {
             staticRollStability(sink);
             staticPitchStability(sink);
             rollResistance(sink);
         }
+        try {
+            results.close();
+        } catch (Exception ex) {
+            mu.getSimulation().println(ex);
+        }
+        mu.io.say.msg(gate.summary(), vo);
 
     }
 
@@ -76,20 +102,40 @@ public class Jpo_Boat_Para_SinglePhase_Stiffness extends StarMacro {
                 + "_yaw" + yaw
                 + "_speed" + speed;
         pre(sink, roll, pitch, yaw, speed);
-        solve();
+        if (meshRejected()) {
+            return;
+        }
         try {
+            solve();
             post();
         } catch (Exception ex) {
             mu.getSimulation().println(ex);
         }
     }
 
+    boolean meshRejected() {
+        // every case is recorded with the verdict of the mesh it runs on
+        try {
+            gate.record(ud.simTitle);
+        } catch (IOException ex) {
+            mu.getSimulation().println(ex);
+        }
+        if (gate.isSkipped()) {
+            mu.io.say.msg("Bad mesh, skipping " + ud.simTitle, vo);
+        }
+        return gate.isSkipped();
+    }
+
     void initMacro() {
         mu = new MacroUtils(getActiveSimulation());
         ud = mu.userDeclarations;
         ud.defUnitLength = ud.unit_in;
         ud.defColormap = mu.get.objects.colormap(
                 StaticDeclarations.Colormaps.BLUE_RED);
+        gate = new QualityGate(ud.simPath + "/meshQuality.csv");
+        gate.setLimits(qualityLimits[0], qualityLimits[1], qualityLimits[2],
+                qualityLimits[3], qualityLimits[4]);
+        gate.setSkip(skipBadMeshes);
     }
 
     void pre(double sink, double roll, double pitch, double yaw, double speed) {
@@ -146,13 +192,42 @@ public class Jpo_Boat_Para_SinglePhase_Stiffness extends StarMacro {
         }));
 
         mu.update.volumeMesh();
+        checkMesh();
+    }
+
+    void checkMesh() {
+        // a roll or pitch the mesher cannot follow fails here instead of
+        // in the solver
+        if (!gate.check(QualityGateReports.measure(
+                mu.getSimulation(), mu.get.regions.all(false)))) {
+            mu.io.say.msg("Mesh quality check failed: " + gate.getReasons(),
+                    vo);
+        }
     }
 
-    void solve() {
+    void solve() throws Exception {
         if (mu.check.has.solution()) {
             return;
         }
-        mu.step(iterations);
+        // sample the watched reports until they settle or the cap is hit
+        convergence.reset();
+        int stepped = 0;
+        boolean converged = false;
+        while (stepped < iterations && !converged) {
+            int batch = Math.min(sampleIterations, iterations - stepped);
+            mu.step(batch);
+            stepped += batch;
+            for (i = 0; i < watchReports.length; i++) {
+                ud.rep = mu.get.reports.byREGEX(watchReports[i], vo);
+                watchValues[i] = ud.rep.getReportMonitorValue();
+            }
+            convergence.add(watchValues);
+            converged = convergence.isConverged();
+        }
+        mu.io.say.msg(ud.simTitle + ": " + stepped + " iterations, "
+                + convergence.getReason(), vo);
+        convergence.log(ud.simPath + "/convergence.csv", ud.simTitle,
+                converged);
         for (Displayer d : mu.get.scenes.allDisplayers(vo)) {
             d.setRepresentation(mu.get.mesh.fvr());
         }
@@ -168,24 +243,8 @@ public class Jpo_Boat_Para_SinglePhase_Stiffness extends StarMacro {
         ud.scene = mu.get.scenes.byREGEX("Velocity Scene", vo);
         mu.io.write.picture(ud.scene, ud.simTitle, resx, resy, vo);
 
-        // update excel with numerical results
-        String ssTitle = ud.simPath + "/results.xls";
-        if (!new File(ssTitle).exists()) {
-            wb = new HSSFWorkbook();
-            sheet = wb.createSheet("data");
-            row = sheet.createRow(0);
-            row.createCell(0).setCellValue("Run");
-            for (i = 0; i < reports.length; i++) {
-                row.createCell(i + 1).setCellValue(reports[i]);
-                out = new FileOutputStream(ssTitle);
-                wb.write(out);
-                out.close();
-            }
-        }
-        wb = WorkbookFactory.create(new File(ssTitle));
-        sheet = wb.getSheet("data");
-        int currentRow = sheet.getLastRowNum() + 1;
-        row = sheet.createRow(currentRow);
+        // update excel with numerical results (journaled, written atomically)
+        row = results.createRow();
         row.createCell(0).setCellValue(ud.simTitle);
         resultsCol = 1;
         for (String rep : reports) {
@@ -194,9 +253,7 @@ public class Jpo_Boat_Para_SinglePhase_Stiffness extends StarMacro {
                     ud.rep.getReportMonitorValue());
             resultsCol++;
         }
-        out = new FileOutputStream(ssTitle);
-        wb.write(out);
-        out.close();
+        results.endRow();
 
         mu.clear.solution();
         mu.clear.meshes();
@@ -208,17 +265,19 @@ public class Jpo_Boat_Para_SinglePhase_Stiffness extends StarMacro {
 
     String title;
     List<String[]> data;
-    Workbook wb;
-    Sheet sheet;
+    ResultsSink results;
     Row row;
     CSVReader reader;
     SummaryStatistics stats;
-    FileOutputStream out;
     AutoSave as;
     int i;
     int resultsCol;
     double tStep;
+    QualityGate gate;
     String[] reports = {"Fx", "Fy", "Fz", "Mx", "My", "Mz", "Lift", "Drag"};
+    double[] watchValues = new double[watchReports.length];
+    ConvergenceMonitor convergence = new ConvergenceMonitor(
+            watchReports.length, samplesPerBatch, convBatches, convTol);
 
     VofWaveModel vwm;
     FlatVofWave fvw;
@@ -9,11 +9,13 @@
 import java.io.*;
 import java.util.*;
 import macroutils.*;
+import sweeputils.*;
 import star.common.*;
 import org.apache.commons.math3.stat.descriptive.*;
 import org.apache.poi.ss.usermodel.*;
 import com.opencsv.CSVReader;
 import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import star.base.neo.DoubleVector;
 import star.meshing.*;
 import star.vis.*;
 import star.vof.*;
@@ -37,6 +39,11 @@ public class Jpo_Boat_Para_freeSurf extends StarMacro {
     double runTime = 100;
     int resx = 1200;
     int resy = 700;
+    // mesh quality limits checked after every remesh: min cell quality, max
+    // skewness angle (deg), min volume change, negative volume cells, bad
+    // cells; NaN is unchecked
+    double[] qualityLimits = {1e-5, 85., 1e-4, 0., Double.NaN};
+    boolean skipBadMeshes = true; // false only flags their cases in the log
 
     public void execute() {
 
@@ -48,6 +55,7 @@ public class Jpo_Boat_Para_freeSurf extends StarMacro {
 //        aftMotion();
 //        swayMotion();
 //        obliqueMotion();
+        mu.io.say.msg(gate.summary(), vo);
 
     }
 
@@ -109,6 +117,9 @@ public class Jpo_Boat_Para_freeSurf extends StarMacro {
                 + "_yaw" + yaw
                 + "_speed" + speed;
         pre(roll, pitch, yaw, speed);
+        if (meshRejected()) {
+            return;
+        }
         solve();
         try {
             post();
@@ -117,10 +128,27 @@ public class Jpo_Boat_Para_freeSurf extends StarMacro {
         }
     }
 
+    boolean meshRejected() {
+        // every case is recorded with the verdict of the mesh it runs on
+        try {
+            gate.record(ud.simTitle);
+        } catch (IOException ex) {
+            mu.getSimulation().println(ex);
+        }
+        if (gate.isSkipped()) {
+            mu.io.say.msg("Bad mesh, skipping " + ud.simTitle, vo);
+        }
+        return gate.isSkipped();
+    }
+
     void initMacro() {
         mu = new MacroUtils(getActiveSimulation());
         ud = mu.userDeclarations;
         ud.defUnitLength = ud.unit_in;
+        gate = new QualityGate(ud.simPath + "/meshQuality.csv");
+        gate.setLimits(qualityLimits[0], qualityLimits[1], qualityLimits[2],
+                qualityLimits[3], qualityLimits[4]);
+        gate.setSkip(skipBadMeshes);
     }
 
     void pre(double roll, double pitch, double yaw, double speed) {
@@ -154,6 +182,17 @@ public class Jpo_Boat_Para_freeSurf extends StarMacro {
         rcYaw.getAngle().setValue(yaw);
 
         mu.update.volumeMesh();
+        checkMesh();
+    }
+
+    void checkMesh() {
+        // a roll or pitch the mesher cannot follow fails here instead of
+        // in the solver
+        if (!gate.check(QualityGateReports.measure(
+                mu.getSimulation(), mu.get.regions.all(false)))) {
+            mu.io.say.msg("Mesh quality check failed: " + gate.getReasons(),
+                    vo);
+        }
     }
 
     void solve() {
@@ -243,6 +282,7 @@ public class Jpo_Boat_Para_freeSurf extends StarMacro {
     int i;
     int resultsCol;
     double tStep;
+    QualityGate gate;
     String[] reports = {"Fx", "Fy", "Fz", "Mx", "My", "Mz"};
 
     VofWaveModel vwm;
@@ -6,13 +6,11 @@
  *
  * 2017, v11.06
  */
-import com.opencsv.CSVReader;
 import java.io.*;
 import star.common.*;
 import macroutils.*;
+import sweeputils.*;
 import java.util.*;
-import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
-import org.apache.poi.hssf.usermodel.*;
 import org.apache.poi.ss.usermodel.*;
 import star.base.neo.DoubleVector;
 import star.flow.*;
@@ -129,53 +127,246 @@ public class Props extends StarMacro {
     double[] rpms = {3135, 3265.5, 3396, 3526.5, 3657};
     double mfr = .4; // exhaust mass flow rate (kg/s)
     double stepSize = 1.; // degrees per timestep 
-    double revs_init = 4; // number of prop revolutions for initial rpm setting
-    double revs = 2; // number of prop revolutions for subsequent rpms
+    double revs_init = 4; // max number of prop revolutions from a cold start
+    double revs = 2; // max number of prop revolutions from a solved neighbour
+    double revs_warm = 1; // prop revolutions from a solved neighbour at the same point
+    double convTol = .005; // relative thrust/torque tolerance to stop an rpm early
+    int convBatchesPerRev = 4; // steady state batches per revolution, e.g. one per blade passage
+    int convBatches = 4; // batch means used for the steady state test, at least 4
     double trimPoint_z = 43.19; // z distance from trim point to GC center (in)
     double trimPoint_x = 11.1; // x distance from trim point to GC center (in)
     int numPropReports = 10; // number of reports being exported to csv file
     int numTitleCol = 5; // number of columns containing run condition info (speed, trim, etc)
     int numPropCol = numPropReports + numTitleCol + 4;
     int numGcReports = 6; // number of gc reports being exported to csv
+    int numPhaseBins = 36; // rotor phase bins for blade statistics
+    int ssFlushEvery = 6; // cases between results workbook writes
+    String meshCacheDir = "mesh_cache"; // meshed sims by height/trim, "" is off
+    long meshCacheMB = 50000; // least recently used meshes deleted above this
+    String meshCacheTag = ""; // change when mesh settings change
+    // warm start weights per mph, in., deg, rpm; infinite is same mesh only
+    double[] warmWeights = {.1, Double.POSITIVE_INFINITY,
+        Double.POSITIVE_INFINITY, .001};
+    double warmRadius = 1.; // weighted distance from which a start is cold
+    // cases that keep a .sim: "every", "geometry" (first case per mesh),
+    // "every <n>" or "last <k>" (see SavePolicy)
+    String savePolicy = "every";
+    String localSaveDir = ""; // local disk saved to first, "" saves to simPath
+    int[] bladeColumns = {8, 10}; // blade thrust, blade torque csv columns
+    // extra rpms over the whole sweep, placed where KT/KQ bend between the
+    // rpms above; 0 runs just the rpms above
+    int refineBudget = 0;
+    double refineTol = .005; // KT/KQ interpolation error relative to range
+    double refineMinRpm = 25.; // smallest rpm step worth running
+    // mesh quality limits checked after every remesh: min cell quality, max
+    // skewness angle (deg), min volume change, negative volume cells, bad
+    // cells; NaN is unchecked
+    double[] qualityLimits = {1e-5, 85., 1e-4, 0., Double.NaN};
+    boolean skipBadMeshes = true; // false only flags their cases in the log
 
     public void execute() {
         try {
             initMacro();
-            for (double speed : speeds) {
-                setSpeed(speed);
-
-                for (double height : heights) {
+            timer = new PhaseTimer(ud.simPath + slash + versionFileHeader
+                    + "_timing.jsonl");
+            initGate();
+            initConvergence();
+            initMeshCache();
+            initSolutions();
+            saves = SavePolicy.parse(savePolicy, localSaveDir);
+            openResults();
+            RunMatrix matrix = new RunMatrix();
+            matrix.addAxis("speed", speeds);
+            matrix.addAxis("height", heights);
+            matrix.addAxis("trim", trims);
+            matrix.addAxis("rpm", rpms);
+            matrix.setSteps(Math.round(revs * 360 / stepSize));
+            matrix.setFirstSteps("rpm", Math.round(revs_init * 360 / stepSize));
+            // cases grouped by mesh so each trim/height is meshed once
+            // instead of once per speed, cases finished by an earlier run
+            // are left out
+            manifest = new SweepManifest(ud.simPath + slash
+                    + versionFileHeader + ".manifest");
+            mu.io.say.msg(manifest.summary(), vo);
+            MeshScheduler schedule = new MeshScheduler(matrix,
+                    new MeshScheduler.Filter() {
+                public boolean accept(RunMatrix.Case c) {
+                    // a finished curve with refined rpms left over from a
+                    // crash keeps its last rpm, to get the mesh back
+                    return !manifest.isDone(caseTitle(c.get("speed"),
+                            c.get("trim"), c.get("height"), c.get("rpm")))
+                            || c.get("rpm") == rpms[rpms.length - 1]
+                            && !refinedLeft(c.get("speed"), c.get("height"),
+                                    c.get("trim")).isEmpty();
+                }
+            });
+            mu.io.say.msg(schedule.summary(), vo);
+
+            // every speed/trim/height is one KT/KQ curve, refined once its
+            // rpms are done while its mesh is still live
+            List<RunMatrix.Case> cases = new ArrayList<RunMatrix.Case>();
+            int curvesLeft = 0;
+            for (RunMatrix.Case c : schedule) {
+                cases.add(c);
+                if (c.changed(CURVE)) {
+                    curvesLeft++;
+                }
+            }
+            int budgetLeft = refineBudget;
+            for (int i = 0; i < cases.size(); i++) {
+                RunMatrix.Case c = cases.get(i);
+                double speed = c.get("speed");
+                double height = c.get("height");
+                double trim = c.get("trim");
+                double rpm = c.get("rpm");
+                double[] point = {speed, height, trim, rpm};
+                // the title stays in a local, opening a neighbour or cached
+                // mesh replaces ud with the opened sim's declarations
+                String title = caseTitle(speed, trim, height, rpm);
+                ud.simTitle = title;
+                fileName = ud.simPath + slash + title;
+                timer.startCase(title);
+                if (c.changed("speed")) {
+                    setSpeed(speed);
+                }
+                if (c.changed("height")) {
                     setHeight(height);
-
-                    for (double trim : trims) {
+                }
+                if (schedule.isRemesh(c)) {
+                    long t = timer.begin();
+                    remeshed = true;
+                    manifest.setState(title,
+                            SweepManifest.State.MESHING);
+                    livePoint = null; // the live solution is on the old mesh
+                    if (openNeighbour(point) || restoreMesh(height, trim)) {
+                        // a solved case or cached mesh brings the mesh along
+                        // with the settings it was saved with, put back
+                        // this case's
+                        setSpeed(speed);
+                    } else {
                         setTrim(trim);
-                        setCsys(height, trim);
-
-                        for (double rpm : rpms) {
-                            setRpm(rpm);
-                            ud.simTitle = versionFileHeader + "_"
-                                    + speed + "mph_"
-                                    + trim + "deg_"
-                                    + height + "in_"
-                                    + rpm + "rpm";
-                            fileName = ud.simPath + slash + ud.simTitle;
-                            run(speed, height, trim, rpm);
-                            exportScene();
-                            CreateResultSS(speed, height, trim, rpm);
+                        cacheMesh(height, trim);
+                    }
+                    // the mesh count is the trim position whatever order
+                    // the trims are meshed in
+                    meshCount = 0;
+                    while (meshCount < trims.length - 1
+                            && trims[meshCount] != trim) {
+                        meshCount++;
+                    }
+                    setCsys(height, trim);
+                    timer.end("remesh", t);
+                    checkMesh();
+                }
+                if (c.changed(CURVE)) {
+                    curve = new AdaptiveSampler(2, refineMinRpm, refineTol);
+                }
+                gate.record(title);
+                if (gate.isSkipped()) {
+                    // no rpm of a rejected mesh is solved, so its curve
+                    // has nothing to refine either
+                    mu.io.say.msg("Bad mesh, skipping " + title, vo);
+                    timer.endCase();
+                } else {
+                    solveCase(speed, height, trim, rpm);
+                }
+                if (i + 1 == cases.size() || cases.get(i + 1).changed(CURVE)) {
+                    // refined rpms an earlier run did not finish come first
+                    for (double refined : refinedLeft(speed, height, trim)) {
+                        if (!gate.isSkipped()) {
+                            solveRefined(speed, height, trim, refined);
                         }
                     }
+                    // unused budget of a smooth curve goes to the next ones
+                    curve.setBudget(budgetLeft / curvesLeft--);
+                    double x;
+                    while (!Double.isNaN(x = curve.next())) {
+                        budgetLeft--;
+                        solveRefined(speed, height, trim,
+                                Math.round(x * 2) / 2.);
+                    }
+                    if (refineBudget > 0) {
+                        mu.io.say.msg(curve.summary(), vo);
+                    }
                 }
             }
         } catch (Exception ex) {
             mu.getSimulation().println(ex);
+        } finally {
+            closeResults();
         }
     }
 
+    void solveRefined(double speed, double height, double trim, double rpm)
+            throws Exception {
+        String title = caseTitle(speed, trim, height, rpm);
+        ud.simTitle = title;
+        fileName = ud.simPath + slash + title;
+        mu.io.say.value("Refined RPM", rpm, vo);
+        // not in the run matrix, a re-run only knows it from the manifest
+        manifest.addCase(title, speed, height, trim, rpm);
+        timer.startCase(title);
+        gate.record(title);
+        solveCase(speed, height, trim, rpm);
+    }
+
+    List<Double> refinedLeft(double speed, double height, double trim) {
+        // rpms added to this curve by refinement and not finished
+        List<Double> left = new ArrayList<Double>();
+        for (Map.Entry<String, double[]> e
+                : manifest.getAdded().entrySet()) {
+            double[] p = e.getValue();
+            if (p[0] == speed && p[1] == height && p[2] == trim
+                    && !manifest.isDone(e.getKey())) {
+                left.add(p[3]);
+            }
+        }
+        return left;
+    }
+
+    void solveCase(double speed, double height, double trim, double rpm)
+            throws Exception {
+        double[] point = {speed, height, trim, rpm};
+        // warmStart() may open a neighbour sim, which brings its own ud
+        String title = caseTitle(speed, trim, height, rpm);
+        long t = timer.begin();
+        double revolutions = warmStart(point, speed);
+        setRpm(rpm, revolutions);
+        timer.end("warm start", t);
+        // a case cut short by a crash restarts from the closest
+        // saved sim, its own if it got as far as saving
+        manifest.setState(title, SweepManifest.State.SOLVING);
+        run(speed, height, trim, rpm);
+        solved(point);
+        if (saved) {
+            manifest.setSim(title, fileName + ".sim");
+        }
+        manifest.setState(title, SweepManifest.State.POST);
+        t = timer.begin();
+        exportScene();
+        timer.end("scene export", t);
+        t = timer.begin();
+        CreateResultSS(speed, height, trim, rpm);
+        writeBladePhase("_prop", rpm);
+        timer.end("results", t);
+        manifest.done(title,
+                fileName + "_prop.csv",
+                fileName + "_gc.csv",
+                fileName + ".sce",
+                fileName + "_prop_blade_phase.csv");
+        timer.endCase();
+    }
+
+    String caseTitle(double speed, double trim, double height, double rpm) {
+        return versionFileHeader + "_"
+                + speed + "mph_"
+                + trim + "deg_"
+                + height + "in_"
+                + rpm + "rpm";
+    }
+
     void initMacro() {
-        mu = new MacroUtils(getActiveSimulation(), intrusive);
-        ud = mu.userDeclarations;
-        ud.defColormap = mu.get.objects.colormap(
-                StaticDeclarations.Colormaps.BLUE_RED);
+        initMacroUtils(getActiveSimulation());
         if (linux) {
             slash = "/";
         } else {
@@ -195,6 +386,13 @@ public class Props extends StarMacro {
         mu.io.say.value("Prop X Coord.", xProp, vo);
     }
 
+    void initMacroUtils(Simulation sim) {
+        mu = new MacroUtils(sim, intrusive);
+        ud = mu.userDeclarations;
+        ud.defColormap = mu.get.objects.colormap(
+                StaticDeclarations.Colormaps.BLUE_RED);
+    }
+
     void setSpeed(double speed) {
         // set wave speed
         ud.physCont = mu.get.objects.physicsContinua(".*", vo);
@@ -211,9 +409,6 @@ public class Props extends StarMacro {
         pcf = (PressureCoefficientFunction) ud.ff;
         pcf.getReferenceVelocity().setValue(speed);
 
-        // initialize number of meshes generated
-        meshCount = -1;
-
     }
 
     void setHeight(double height) {
@@ -250,9 +445,178 @@ public class Props extends StarMacro {
 
         // Clear solution history and fields
         mu.clear.solution();
-        // Execute all mesh operations and update mesh count
+        // Execute all mesh operations
         mu.update.volumeMesh();
-        meshCount++;
+    }
+
+    void initConvergence() {
+        // batches shorter than a revolution, so the confidence interval has
+        // enough batch means to close well inside the revs cap; with only two
+        // (t = 12.7) it would almost never pass
+        int stepsPerRev = (int) Math.round(360 / stepSize);
+        stepsPerBatch = Math.max(1,
+                stepsPerRev / Math.max(1, convBatchesPerRev));
+        int batches = Math.max(4, convBatches);
+        if (batches * stepsPerBatch >= revs * stepsPerRev) {
+            mu.io.say.msg(batches + " batches of " + stepsPerBatch
+                    + " steps do not fit in revs = " + revs
+                    + ", rpms will run to the cap", vo);
+        }
+        convergence = new ConvergenceMonitor(2, stepsPerBatch, batches,
+                convTol);
+    }
+
+    void initGate() {
+        gate = new QualityGate(ud.simPath + slash + versionFileHeader
+                + "_meshQuality.csv");
+        gate.setLimits(qualityLimits[0], qualityLimits[1], qualityLimits[2],
+                qualityLimits[3], qualityLimits[4]);
+        gate.setSkip(skipBadMeshes);
+    }
+
+    void checkMesh() {
+        // a bad trim meshes without complaint and only diverges hours into
+        // the solve, so the new mesh is checked before any solver time
+        long t = timer.begin();
+        if (!gate.check(QualityGateReports.measure(
+                mu.getSimulation(), mu.get.regions.all(false)))) {
+            mu.io.say.msg("Mesh quality check failed: " + gate.getReasons(),
+                    vo);
+        }
+        timer.end("quality gate", t);
+    }
+
+    void initMeshCache() throws IOException {
+        if (meshCacheDir.isEmpty()) {
+            return;
+        }
+        String dir = meshCacheDir;
+        if (!new File(dir).isAbsolute()) {
+            dir = ud.simPath + slash + dir;
+        }
+        meshCache = new MeshCache(dir, meshCacheMB << 20);
+        // everything but height and trim that shapes the mesh
+        List<String> geometry = new ArrayList<String>();
+        geometry.add(meshCacheTag);
+        geometry.add(versionFileHeader + " v" + version);
+        geometry.add(String.valueOf(xProp));
+        geometry.add(trimPoint_x + " " + trimPoint_z);
+        for (GeometryPart gp : mu.getSimulation()
+                .get(SimulationPartManager.class).getLeafParts()) {
+            geometry.add(gp.getPresentationName() + " "
+                    + gp.getPartSurfaces().size());
+        }
+        geometryHash = MeshCache.hash(
+                geometry.toArray(new String[geometry.size()]));
+        mu.io.say.msg(meshCache.summary(), vo);
+    }
+
+    String meshKey(double height, double trim) {
+        return MeshCache.key(geometryHash, new String[]{"height", "trim"},
+                new double[]{height, trim});
+    }
+
+    boolean restoreMesh(double height, double trim) throws IOException {
+        if (meshCache == null) {
+            return false;
+        }
+        File cached = meshCache.lookup(meshKey(height, trim));
+        if (cached == null) {
+            return false;
+        }
+        openSim(cached);
+        mu.io.say.msg("Mesh restored from " + cached.getName(), vo);
+        return true;
+    }
+
+    void openSim(File file) {
+        // reopen a saved sim in place of the live one, results keep going
+        // to the original sim path under the title of the case being run
+        String simPath = ud.simPath;
+        mu.getSimulation().kill();
+        String simTitle = ud.simTitle;
+        initMacroUtils(new Simulation(file.getPath()));
+        ud.simPath = simPath;
+        ud.simTitle = simTitle;
+    }
+
+    void initSolutions() throws IOException {
+        solutions = new SolutionIndex(ud.simPath + slash + "solutions.csv",
+                new String[]{"speed", "height", "trim", "rpm"}, warmWeights);
+    }
+
+    double liveDistance(double[] point) {
+        return livePoint == null ? Double.POSITIVE_INFINITY
+                : solutions.distance(point, livePoint);
+    }
+
+    boolean openNeighbour(double[] point) {
+        // reopen the closest saved case if it is closer than the live field,
+        // only fields on the same mesh (height, trim) can be reused
+        SolutionIndex.Neighbour n = solutions.nearest(point);
+        if (n == null || n.distance >= liveDistance(point)
+                || n.params[1] != point[1] || n.params[2] != point[2]) {
+            return false;
+        }
+        openSim(new File(n.file));
+        livePoint = n.params;
+        mu.io.say.msg("Warm start from " + n.file, vo);
+        return true;
+    }
+
+    double warmStart(double[] point, double speed) {
+        // start from the closest solved state and cut the revolutions by
+        // how close it is
+        if (openNeighbour(point)) {
+            setSpeed(speed);
+        }
+        // a start from any solved state gets at most the baseline revs, only
+        // a cold start gets revs_init
+        double distance = liveDistance(point);
+        double budget = SolutionIndex.revolutions(distance, warmRadius,
+                revs_warm, revs_init);
+        return Double.isInfinite(distance) ? budget : Math.min(budget, revs);
+    }
+
+    void solved(double[] point) throws IOException {
+        // warm starts can only come from cases run() saved to fileName.sim
+        if (saved) {
+            solutions.add(point, fileName + ".sim");
+        }
+        livePoint = point;
+    }
+
+    boolean saveCase() throws Exception {
+        // the save policy decides which cases keep a sim, a local save is
+        // copied to simPath while the next case solves
+        boolean due = saves.isDue(remeshed);
+        remeshed = false;
+        if (!due) {
+            return false;
+        }
+        File target = saves.target(fileName + ".sim");
+        String simPath = ud.simPath;
+        mu.getSimulation().saveState(target.getPath());
+        ud.simPath = simPath;
+        saves.saved(target, fileName + ".sim");
+        return true;
+    }
+
+    void cacheMesh(double height, double trim) {
+        if (meshCache == null) {
+            return;
+        }
+        // saved where the case sim goes, so the session path stays valid,
+        // and copied into the cache from there
+        File sim = new File(fileName + ".sim");
+        String simPath = ud.simPath;
+        try {
+            mu.getSimulation().saveState(sim.getPath());
+            meshCache.store(meshKey(height, trim), sim);
+        } catch (Exception ex) {
+            mu.getSimulation().println(ex);
+        }
+        ud.simPath = simPath;
     }
 
     void setCsys(double height, double trim) {
@@ -282,7 +646,7 @@ public class Props extends StarMacro {
                 new DoubleVector(new double[]{xProp, 0.0, 0.0}));
     }
 
-    void setRpm(double rpm) {
+    void setRpm(double rpm, double revolutions) {
         // set time step
         tStep = 1 / (rpm / 60 * 360 / stepSize);
         mu.set.solver.timestep(tStep);
@@ -300,14 +664,11 @@ public class Props extends StarMacro {
         rm.getRotationRate().setValue(rpm);
 
         // set number of timesteps
-        if (rpm == rpms[0]) {
-            numSteps = (int) Math.round(revs_init * 360 / stepSize);
-        } else {
-            numSteps = (int) Math.round(revs * 360 / stepSize);
-        }
+        numSteps = (int) Math.round(revolutions * 360 / stepSize);
     }
 
-    void run(double speed, double height, double trim, double rpm) {
+    void run(double speed, double height, double trim, double rpm)
+            throws Exception {
         // set volume mesh repr for all displayers
         for (Displayer d : mu.get.scenes.allDisplayers(vo)) {
             d.setRepresentation(mu.get.mesh.fvr());
@@ -317,16 +678,46 @@ public class Props extends StarMacro {
         mu.getSimulation().getSimulationIterator()
                 .getAutoSave().getStarUpdate().setEnabled(false);
 
-        // run
-        mu.step(numSteps);
+        // run until prop thrust and torque are steady
+        long t = timer.begin();
+        stepToSteadyState("Prop", "_prop.csv", new int[]{3, 9}, rpm);
+        timer.end("solve", t);
 
         // output csv data
+        t = timer.begin();
         MonitorPlot propPlot = (MonitorPlot) mu.get.plots.byREGEX("Prop", vo);
         propPlot.export(fileName + "_prop.csv", ",");
         MonitorPlot gcPlot = (MonitorPlot) mu.get.plots.byREGEX("Gearcase", vo);
         gcPlot.export(fileName + "_gc.csv", ",");
+        timer.end("csv export", t);
 
-        mu.saveSim();
+        t = timer.begin();
+        saved = saveCase();
+        timer.end("save", t);
+    }
+
+    void stepToSteadyState(String plot, String csv, int[] columns,
+            double rpm) throws Exception {
+        // step one convergence batch at a time until the watched reports
+        // settle, numSteps is the hard cap and becomes the number of steps run
+        convergence.reset();
+        int stepped = 0;
+        boolean converged = false;
+        while (stepped < numSteps && !converged) {
+            int batch = Math.min(stepsPerBatch, numSteps - stepped);
+            mu.step(batch);
+            stepped += batch;
+            ud.monPlot = (MonitorPlot) mu.get.plots.byREGEX(plot, vo);
+            ud.monPlot.export(fileName + csv, ",");
+            convergence.addTable(
+                    MonitorTable.readLast(fileName + csv, batch), columns);
+            converged = convergence.isConverged();
+        }
+        numSteps = stepped;
+        mu.io.say.msg(ud.simTitle + ": " + stepped + " steps, "
+                + convergence.getReason(), vo);
+        convergence.log(ud.simPath + slash + "convergence.csv",
+                ud.simTitle + "_rpm" + (int) rpm, converged);
     }
 
     void exportScene() {
@@ -347,18 +738,9 @@ public class Props extends StarMacro {
     void CreateResultSS(double speed, double height, double trim, double rpm)
             throws Exception {
 
-        // create results spreadsheet if not already created
-        ssTitle = ud.simPath + slash + versionFileHeader + "_results.xls";
-        if (!new File(ssTitle).exists()) {
-            initSpreadsheet();
-        }
-
-        // open existing results spreadsheet and create new row
+        // new row in the results workbook, which stays open for the sweep
         ud.numToAve = (int) (360 / stepSize);
-        wb = WorkbookFactory.create(new File(ssTitle));
-        sheet = wb.getSheet("Data");
-        int currentRow = sheet.getLastRowNum() + 1;
-        row = sheet.createRow(currentRow);
+        row = results.createRow();
         row.createCell(0).setCellValue(versionFileHeader);
         row.createCell(1).setCellValue(speed);
         row.createCell(2).setCellValue(trim);
@@ -367,39 +749,38 @@ public class Props extends StarMacro {
 
         // read in prop data
         fileName = ud.simPath + slash + ud.simTitle;
-        reader = new CSVReader(new FileReader(fileName + "_prop.csv"));
-        data = reader.readAll();
+        table = MonitorTable.readLast(fileName + "_prop.csv", ud.numToAve);
 
-        // compute mean and blade max/min of prop data
-        stats = new SummaryStatistics();
-        int reportIterator = 1;
+        // compute mean and blade max/min of prop data in one pass
+        stats.reset(numPropReports);
+        stats.addTable(table, 1);
+        int reportIterator = 0;
         for (columnIterator = 5;
                 columnIterator < numPropCol; columnIterator++) {
-            for (rowIterator = data.size() - 1;
-                    rowIterator >= data.size() - ud.numToAve; rowIterator--) {
-                String[] array = data.get(rowIterator);
-                stats.addValue(Double.parseDouble(array[reportIterator]));
-            }
             // write data to row
             if (columnIterator == 12 || columnIterator == 16) {
-                row.createCell(columnIterator).setCellValue(stats.getMean());
-                row.createCell(columnIterator + 1).setCellValue(stats.getMax());
-                row.createCell(columnIterator + 2).setCellValue(stats.getMin());
+                row.createCell(columnIterator)
+                        .setCellValue(stats.getMean(reportIterator));
+                row.createCell(columnIterator + 1)
+                        .setCellValue(stats.getMax(reportIterator));
+                row.createCell(columnIterator + 2)
+                        .setCellValue(stats.getMin(reportIterator));
                 columnIterator += 2;
             } else {
-                row.createCell(columnIterator).setCellValue(stats.getMean());
+                row.createCell(columnIterator)
+                        .setCellValue(stats.getMean(reportIterator));
             }
-            stats = new SummaryStatistics();
             reportIterator++;
         }
         // Compute prop parameters of interest
-        double SHP = rpm * 2 * Math.PI / 60
-                * row.getCell(15).getNumericCellValue() / 550;
+        double thrust = stats.getMean(2); // prop thrust net
+        double torque = stats.getMean(8); // prop torque
+        double SHP = rpm * 2 * Math.PI / 60 * torque / 550;
         double J = speed * 1.467 / (rpm / 60 * dProp / 12);
-        double KT = row.getCell(7).getNumericCellValue()
+        double KT = thrust
                 / (Math.pow(rpm / 60, 2) * Math.pow(dProp / 12, 4) * 1.94);
         double KT_norm = KT / subAreaRatio[meshCount];
-        double KQ = row.getCell(15).getNumericCellValue()
+        double KQ = torque
                 / (Math.pow(rpm / 60, 2) * Math.pow(dProp / 12, 5) * 1.94);
         double KQ_norm = KQ / subAreaRatio[meshCount];
         double eta = J / 2 / Math.PI * KT_norm / KQ_norm;
@@ -410,46 +791,86 @@ public class Props extends StarMacro {
         row.createCell(columnIterator + 2).setCellValue(KT_norm);
         row.createCell(columnIterator + 3).setCellValue(KQ_norm);
         row.createCell(columnIterator + 4).setCellValue(eta);
+        curve.add(rpm, J, KT_norm, KQ_norm);
         int gcColStart = columnIterator + 5;
 
         // read in gearcase data
-        reader = new CSVReader(new FileReader(fileName + "_gc.csv"));
-        data = reader.readAll();
+        table = MonitorTable.readLast(fileName + "_gc.csv", ud.numToAve);
 
         // Compute mean and standard deviation of gc data
-        reportIterator = 1;
-        stats = new SummaryStatistics();
+        stats.reset(numGcReports);
+        stats.addTable(table, 1);
+        reportIterator = 0;
         for (columnIterator = gcColStart;
                 columnIterator < gcColStart + numGcReports; columnIterator++) {
-            for (rowIterator = data.size() - 1;
-                    rowIterator >= data.size() - ud.numToAve; rowIterator--) {
-                String[] array = data.get(rowIterator);
-                stats.addValue(Double.parseDouble(array[reportIterator]));
-            }
-            row.createCell(columnIterator).setCellValue(stats.getMean());
-            stats = new SummaryStatistics();
+            row.createCell(columnIterator)
+                    .setCellValue(stats.getMean(reportIterator));
             reportIterator++;
         }
 
-        // save spreadsheet
-        fileOut = new FileOutputStream(ssTitle);
-        wb.write(fileOut);
-        fileOut.close();
+        // record row, the workbook is written on the flush cadence
+        results.endRow();
 
     }
 
-    void initSpreadsheet() throws Exception {
-        // Create prop excel workbook with headers
-        wb = new HSSFWorkbook();
-        row = wb.createSheet("Data").createRow(0);
-        for (int i = 0; i < headers.length; i++) {
-            row.createCell(i).setCellValue(headers[i]);
+    void writeBladePhase(String prop, double rpm) throws Exception {
+        // phase-lock blade thrust/torque over every revolution of this rpm
+        table = MonitorTable.readLast(fileName + prop + ".csv", numSteps);
+        phaseStats.reset();
+        phaseStats.addTable(table, bladeColumns, stepSize);
+        phaseStats.write(fileName + prop + "_blade_phase.csv", bladeChannels);
+        for (int i = 0; i < bladeChannels.length; i++) {
+            mu.io.say.value(bladeChannels[i] + " Ripple",
+                    phaseStats.getRipple(i), vo);
+            mu.io.say.value(bladeChannels[i] + " Rev. Drift",
+                    phaseStats.getRevolutionDrift(i), vo);
         }
-        fileOut = new FileOutputStream(ssTitle);
-        wb.write(fileOut);
-        fileOut.close();
     }
 
+    void openResults() throws Exception {
+        // open the results workbook once for the whole sweep
+        results = new XlsResultsSink(
+                ud.simPath + slash + versionFileHeader + "_results.xls",
+                "Data", headers, ssFlushEvery);
+    }
+
+    void closeResults() {
+        // flush rows still in memory, also when the sweep stopped on an error
+        try {
+            if (results != null) {
+                results.close();
+            }
+        } catch (Exception ex) {
+            mu.getSimulation().println(ex);
+        }
+        closeSaves();
+        closeTimer();
+        if (gate != null) {
+            mu.io.say.msg(gate.summary(), vo);
+        }
+    }
+
+    void closeTimer() {
+        if (timer != null) {
+            timer.close();
+            mu.io.say.msg("Phase timings:\n" + timer.summary(), vo);
+        }
+    }
+
+    void closeSaves() {
+        // sims still being copied to simPath finish before the macro ends
+        try {
+            if (saves != null) {
+                saves.close();
+                mu.io.say.msg(saves.summary(), vo);
+            }
+        } catch (Exception ex) {
+            mu.getSimulation().println(ex);
+        }
+    }
+
+    static final String[] CURVE = {"speed", "height", "trim"};
+
     MacroUtils mu;
     UserDeclarations ud;
     boolean vo = true;
@@ -457,16 +878,16 @@ public class Props extends StarMacro {
 
     int numSteps;
     int columnIterator;
-    int rowIterator;
     int meshCount;
 
-    FileOutputStream fileOut;
-    Workbook wb;
-    Sheet sheet;
+    ResultsSink results;
     Row row;
-    CSVReader reader;
-    List<String[]> data;
-    SummaryStatistics stats;
+    MonitorTable table;
+    ColumnStats stats = new ColumnStats(numPropReports);
+    PhaseStats phaseStats = new PhaseStats(2, numPhaseBins);
+    String[] bladeChannels = {"Blade Thrust", "Blade Torque"};
+    ConvergenceMonitor convergence;
+    int stepsPerBatch;
     VofWaveModel vwm;
     FlatVofWave fvw;
     TransformPartsOperation tpo;
@@ -479,7 +900,17 @@ public class Props extends StarMacro {
     RotatingMotion rm;
     String fileName;
     String slash;
-    String ssTitle;
+    MeshCache meshCache;
+    String geometryHash;
+    SolutionIndex solutions;
+    double[] livePoint;
+    SavePolicy saves;
+    PhaseTimer timer;
+    QualityGate gate;
+    boolean remeshed;
+    boolean saved;
+    SweepManifest manifest;
+    AdaptiveSampler curve;
     double tStep;
     double xProp;
     double dProp;
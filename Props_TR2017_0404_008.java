@@ -6,13 +6,11 @@
  *
  * 2017, v11.06
  */
-import com.opencsv.CSVReader;
 import java.io.*;
 import star.common.*;
 import macroutils.*;
+import sweeputils.*;
 import java.util.*;
-import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
-import org.apache.poi.hssf.usermodel.*;
 import org.apache.poi.ss.usermodel.*;
 import star.base.neo.DoubleVector;
 import star.flow.*;
@@ -122,83 +120,199 @@ public class Props_TR2017_0404_008 extends StarMacro {
     double[] trims = {-7., 3.5, 8.5}; // deg, positive is trim out
     double[] heights = {8.}; // // level trim propshaft depth below water (in.)
     double[] rpms = {2000., 2400., 2800.};
+    // run matrix in simPath, overrides the arrays above (see RunMatrix)
+    String matrixFile = "Props_TR2017_0404_008.matrix";
     double mfr = .6; // exhaust mass flow rate (kg/s)
     double stepSize = 1.; // degrees per timestep 
-    double revs_init = 4; // number of prop revolutions for initial rpm setting
-    double revs = 2; // number of prop revolutions for subsequent rpms
+    double revs_init = 4; // max number of prop revolutions from a cold start
+    double revs = 2; // max number of prop revolutions from a solved neighbour
+    double revs_warm = 1; // prop revolutions from a solved neighbour at the same point
+    double convTol = .005; // relative thrust/torque tolerance to stop an rpm early
+    int convBatchesPerRev = 4; // steady state batches per revolution, e.g. one per blade passage
+    int convBatches = 4; // batch means used for the steady state test, at least 4
     double trimPoint_z = 44.37; // z distance from trim point to GC center (in)
     double trimPoint_x = 8.07; // x distance from trim point to GC center (in)
     int numPropReports = 10; // number of reports being exported to csv file
     int numTitleCol = 5; // number of columns containing run condition info (speed, trim, etc)
     int numPropCol = numPropReports + numTitleCol + 4;
     int numGcReports = 6; // number of gc reports being exported to csv
+    int numPhaseBins = 36; // rotor phase bins for blade statistics
+    int ssFlushEvery = 6; // cases between results workbook writes
+    String meshCacheDir = "mesh_cache"; // meshed sims by height/trim, "" is off
+    long meshCacheMB = 50000; // least recently used meshes deleted above this
+    String meshCacheTag = ""; // change when mesh settings change
+    // warm start weights per mph, in., deg, rpm; infinite is same mesh only
+    double[] warmWeights = {.1, Double.POSITIVE_INFINITY,
+        Double.POSITIVE_INFINITY, .001};
+    double warmRadius = 1.; // weighted distance from which a start is cold
+    // cases that keep a .sim: "every", "geometry" (first case per mesh),
+    // "every <n>" or "last <k>" (see SavePolicy)
+    String savePolicy = "every";
+    String localSaveDir = ""; // local disk saved to first, "" saves to simPath
+    int postQueue = 2; // finished cases allowed to wait for post-processing
+    int cores = 32; // solver cores of this run, scales the learned timings
+    int[] estimateCores = {16, 32, 64, 128}; // core counts in the estimate
+    int[] bladeColumns = {8, 10}; // blade thrust, blade torque csv columns
+    // mesh quality limits checked after every remesh: min cell quality, max
+    // skewness angle (deg), min volume change, negative volume cells, bad
+    // cells; NaN is unchecked
+    double[] qualityLimits = {1e-5, 85., 1e-4, 0., Double.NaN};
+    boolean skipBadMeshes = true; // false only flags their cases in the log
+    // cores of each worker process, more than one splits the sweep across
+    // batch servers with their own licence and port (see CaseDispatcher)
+    int[] workerCores = {};
+    String[] workerCommand = {"starccm+", "-batch",
+        "Props_TR2017_0404_008.java", "-np", "{cores}", "-port", "{port}",
+        "{sim}"};
 
     public void execute() {
         try {
             initMacro();
-
-            // -- SET SPEED --
-            for (double speed : speeds) {
-                setSpeed(speed);
-                meshCount = -1;
-
+            initWorker();
+            timer = new PhaseTimer(ud.simPath + slash + versionFileHeader
+                    + workerTag + "_timing.jsonl");
+            initGate();
+            initConvergence();
+            initMeshCache();
+            initSolutions();
+            saves = SavePolicy.parse(savePolicy, localSaveDir);
+
+            // cases grouped by mesh so each trim/height is meshed once,
+            // cases finished by an earlier run are left out
+            manifest = new SweepManifest(ud.simPath + slash
+                    + versionFileHeader + workerTag + ".manifest");
+            mu.io.say.msg(manifest.summary(), vo);
+            final List<SweepManifest> finished = finishedManifests();
+            RunMatrix matrix = loadMatrix();
+            MeshScheduler schedule = new MeshScheduler(matrix,
+                    new MeshScheduler.Filter() {
+                public boolean accept(RunMatrix.Case c) {
+                    String title = caseTitle(c.get("speed"), c.get("trim"),
+                            c.get("height"), c.get("rpm"));
+                    for (SweepManifest m : finished) {
+                        if (m.isDone(title)) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }
+            });
+            mu.io.say.msg(schedule.summary(), vo);
+            initEstimator(schedule);
+            if (queue == null && workerCores.length > 1) {
+                dispatch(schedule, matrix);
+                return;
+            }
+            openResults();
+
+            // a worker runs whatever it takes from the queue, in that order
+            Iterable<RunMatrix.Case> cases = queue == null ? schedule
+                    : queue.cases(matrix);
+            for (RunMatrix.Case c : cases) {
+                double speed = c.get("speed");
+                double height = c.get("height");
+                double trim = c.get("trim");
+                double rpm = c.get("rpm");
+                double[] point = {speed, height, trim, rpm};
+                // the title stays in a local, opening a neighbour or cached
+                // mesh replaces ud with the opened sim's declarations
+                String title = caseTitle(speed, trim, height, rpm);
+                ud.simTitle = title;
+                fileName = ud.simPath + slash + title;
+                timer.startCase(title);
+
+                // -- SET SPEED --
+                if (c.changed("speed")) {
+                    setSpeed(speed);
+                }
                 // -- SET HEIGHT --
-                for (double height : heights) {
+                if (c.changed("height")) {
                     setHeight(height);
-
-                    // -- SET TRIM --
-                    //for (double trim : trims) {
-                    double trim = 0.;
-                    if (speed == 15.) {
-                        trim = -7.;
-                    } else if (speed == 40.) {
-                        trim = 3.5;
-                    } else if (speed == 60.) {
-                        trim = 8.5;
+                }
+                // -- SET TRIM --
+                if (schedule.isRemesh(c)) {
+                    long meshStart = System.currentTimeMillis();
+                    long t = timer.begin();
+                    remeshed = true;
+                    manifest.setState(title,
+                            SweepManifest.State.MESHING);
+                    livePoint = null; // the live solution is on the old mesh
+                    if (openNeighbour(point) || restoreMesh(height, trim)) {
+                        // a solved case or cached mesh brings the mesh along
+                        // with the settings it was saved with, put back
+                        // this case's
+                        setSpeed(speed);
                     } else {
-                        mu.getSimulation().println("*ERROR: CHECK TRIM INPUT");
+                        setTrim(trim);
+                        cacheMesh(height, trim);
+                    }
+                    if (c.changed("speed")) {
+                        meshCount = -1;
                     }
-                    setTrim(trim);
                     meshCount++; // increment number of meshes created
-
                     setCsys(height, trim);
-                    // -- SET RPM --
-                    if (speed == 15.) {
-                        rpms = new double[]{1600., 2000., 2800.};
-                    } else if (speed == 40.) {
-                        rpms = new double[]{1300., 1500., 2000., 2200.};
-                    } else if (speed == 60.) {
-                        rpms = new double[]{2200., 2400., 2600., 2800., 3000., 3200.};
-                    }
-                    for (double rpm : rpms) {
-                        setRpm(rpm);
-                        ud.simTitle = versionFileHeader + "_"
-                                + speed + "mph_"
-                                + trim + "deg_"
-                                + height + "in_"
-                                + rpm + "rpm";
-                        fileName = ud.simPath + slash + ud.simTitle;
-                        run(speed, height, trim, rpm);
-                        exportScene();
-                        ud.numToAve = (int) (360 / stepSize);
-                        CreateFrontPropSS(speed, height, trim, rpm);
-                        CreateRearPropSS(speed, height, trim, rpm);
-                        CreateCombinedPropSS(speed, height, trim, rpm);
-                        CreateGcSS(speed, height, trim, rpm);
+                    timer.end("remesh", t);
+                    double meshSeconds = seconds(meshStart);
+                    checkMesh();
+                    cells = gate.getStats()[QualityGate.CELLS];
+                    estimator.addMesh(meshSeconds, cells);
+                    meshesLeft--;
+                }
+                gate.record(title);
+                if (gate.isSkipped()) {
+                    // a rejected mesh is not solved, its cases stay pending
+                    // in the manifest for a run with fixed mesh settings
+                    mu.io.say.msg("Bad mesh, skipping " + title, vo);
+                    if (queue != null) {
+                        queue.failed(queue.getCurrent());
                     }
-                    //}
+                    stepsLeft -= c.getSteps();
+                    casesLeft--;
+                    timer.endCase();
+                    continue;
+                }
+                // -- WARM START --
+                long t = timer.begin();
+                double revolutions = warmStart(point, speed);
+                // -- SET RPM --
+                setRpm(rpm, revolutions);
+                timer.end("warm start", t);
+                long planned = numSteps;
+                // a case cut short by a crash restarts from the closest
+                // saved sim, its own if it got as far as saving
+                manifest.setState(title, SweepManifest.State.SOLVING);
+                run(speed, height, trim, rpm);
+                estimator.addSolve(solveSeconds, numSteps, planned, cells);
+                solved(point);
+                if (saved) {
+                    manifest.setSim(title, fileName + ".sim");
                 }
+                manifest.setState(title, SweepManifest.State.POST);
+                t = timer.begin();
+                exportScene();
+                timer.end("scene export", t);
+                ud.numToAve = (int) (360 / stepSize);
+                // csv reduction and workbooks run while the next rpm solves,
+                // the claim is finished by the task once its rows are in
+                writer.submit(new CaseResults(speed, height, trim,
+                        rpm, title, fileName, meshCount, numSteps,
+                        ud.numToAve, queue == null ? null : queue.handOff()));
+                sayResults();
+                estimator.addPost(seconds(postStart));
+                stepsLeft -= c.getSteps();
+                casesLeft--;
+                printEta();
+                timer.endCase();
             }
         } catch (Exception ex) {
             mu.getSimulation().println(ex);
+        } finally {
+            closeResults();
         }
     }
 
     void initMacro() {
-        mu = new MacroUtils(getActiveSimulation(), intrusive);
-        ud = mu.userDeclarations;
-        ud.defColormap = mu.get.objects.colormap(
-                StaticDeclarations.Colormaps.BLUE_RED);
+        initMacroUtils(getActiveSimulation());
         if (linux) {
             slash = "/";
         } else {
@@ -224,6 +338,105 @@ public class Props_TR2017_0404_008 extends StarMacro {
         mu.io.say.value("XPROP", Arrays.toString(xProp), ud.unit_in, vo);
     }
 
+    void initWorker() {
+        // started by a CaseDispatcher, results and manifest go to files of
+        // this worker and are merged by the dispatching macro
+        String dir = System.getenv(CaseDispatcher.QUEUE_ENV);
+        if (dir != null) {
+            int worker = Integer.parseInt(System.getenv(
+                    CaseDispatcher.WORKER_ENV));
+            queue = new CaseQueue(dir, worker);
+            workerTag = ".w" + worker;
+            mu.io.say.msg("Worker " + worker + " of " + dir, vo);
+        }
+    }
+
+    void initEstimator(MeshScheduler schedule) throws IOException {
+        // timings learned by earlier sweeps of this model give an estimate
+        // before the first case, a worker runs on the cores it was given
+        String workerCores = System.getenv(CaseDispatcher.CORES_ENV);
+        if (workerCores != null) {
+            cores = Integer.parseInt(workerCores);
+        }
+        estimator = new SweepEstimator(ud.simPath + slash + versionFileHeader
+                + workerTag + ".cost", cores);
+        stepsLeft = schedule.getEstimatedSteps();
+        meshesLeft = schedule.getMeshCount();
+        casesLeft = schedule.getCaseCount();
+        mu.io.say.msg(estimator.summary(), vo);
+        printEta();
+    }
+
+    void printEta() throws IOException {
+        // a worker only knows its own cases, the dispatcher has the totals
+        if (queue != null) {
+            return;
+        }
+        mu.io.say.msg(estimator.eta(stepsLeft, meshesLeft, casesLeft,
+                Double.NaN), vo);
+        estimator.export(ud.simPath + slash + versionFileHeader
+                + "_estimate.csv", stepsLeft, meshesLeft, casesLeft,
+                Double.NaN, estimateCores);
+    }
+
+    double seconds(long start) {
+        return (System.currentTimeMillis() - start) / 1000.;
+    }
+
+    List<SweepManifest> finishedManifests() throws IOException {
+        // cases done by workers of an earlier dispatch count as done too
+        List<SweepManifest> manifests = new ArrayList<SweepManifest>();
+        manifests.add(manifest);
+        for (int k = 0; queue == null && k < workerCores.length; k++) {
+            File f = new File(ud.simPath + slash + versionFileHeader + ".w"
+                    + k + ".manifest");
+            if (f.exists()) {
+                manifests.add(new SweepManifest(f.getPath()));
+            }
+        }
+        return manifests;
+    }
+
+    void dispatch(MeshScheduler schedule, RunMatrix matrix)
+            throws Exception {
+        // cases go to worker processes through a queue next to the sim,
+        // each worker journals its own workbooks, merged here afterwards
+        String ssBase = ud.simPath + slash + versionFileHeader;
+        String dir = ssBase + "_queue";
+        for (int k = 0; k < workerCores.length; k++) {
+            for (String suffix : resultsFiles) {
+                new File(ssBase + ".w" + k + suffix).delete();
+                new File(ssBase + ".w" + k + suffix + ".journal").delete();
+            }
+        }
+        CaseQueue.create(dir, schedule, matrix.getAxes(), workerCores.length);
+        CaseDispatcher dispatcher = new CaseDispatcher(dir,
+                Arrays.asList(workerCommand), workerCores);
+        dispatcher.set("sim", getActiveSimulation().getSessionPath());
+        int failed = dispatcher.run();
+        openResults();
+        ResultsSink[] sinks = {frontSink, rearSink, combinedSink, gcSink};
+        for (int i = 0; i < sinks.length; i++) {
+            int rows = ResultsJournal.merge(CaseDispatcher.workerJournals(
+                    ssBase, resultsFiles[i], workerCores.length), sinks[i]);
+            mu.io.say.msg("Merged " + rows + " rows into " + resultsFiles[i], vo);
+        }
+        mu.io.say.msg(failed + " case(s) failed, see the worker logs in "
+                + dir, vo);
+    }
+
+    Row newRow(ResultsSink sink, int resultsRow) {
+        // workers number rows by case position so the merge keeps the order
+        return resultsRow < 0 ? sink.createRow() : sink.createRow(resultsRow);
+    }
+
+    void initMacroUtils(Simulation sim) {
+        mu = new MacroUtils(sim, intrusive);
+        ud = mu.userDeclarations;
+        ud.defColormap = mu.get.objects.colormap(
+                StaticDeclarations.Colormaps.BLUE_RED);
+    }
+
     void setSpeed(double speed) {
         // set wave speed
         ud.physCont = mu.get.objects.physicsContinua(".*", vo);
@@ -252,6 +465,43 @@ public class Props_TR2017_0404_008 extends StarMacro {
 
     }
 
+    void initConvergence() {
+        // batches shorter than a revolution, so the confidence interval has
+        // enough batch means to close well inside the revs cap; with only two
+        // (t = 12.7) it would almost never pass
+        int stepsPerRev = (int) Math.round(360 / stepSize);
+        stepsPerBatch = Math.max(1,
+                stepsPerRev / Math.max(1, convBatchesPerRev));
+        int batches = Math.max(4, convBatches);
+        if (batches * stepsPerBatch >= revs * stepsPerRev) {
+            mu.io.say.msg(batches + " batches of " + stepsPerBatch
+                    + " steps do not fit in revs = " + revs
+                    + ", rpms will run to the cap", vo);
+        }
+        convergence = new ConvergenceMonitor(2, stepsPerBatch, batches,
+                convTol);
+    }
+
+    void initGate() {
+        gate = new QualityGate(ud.simPath + slash + versionFileHeader
+                + workerTag + "_meshQuality.csv");
+        gate.setLimits(qualityLimits[0], qualityLimits[1], qualityLimits[2],
+                qualityLimits[3], qualityLimits[4]);
+        gate.setSkip(skipBadMeshes);
+    }
+
+    void checkMesh() {
+        // a bad trim meshes without complaint and only diverges hours into
+        // the solve, so the new mesh is checked before any solver time
+        long t = timer.begin();
+        if (!gate.check(QualityGateReports.measure(
+                mu.getSimulation(), mu.get.regions.all(false)))) {
+            mu.io.say.msg("Mesh quality check failed: " + gate.getReasons(),
+                    vo);
+        }
+        timer.end("quality gate", t);
+    }
+
     void setTrim(double trim) {
         // set trim angle in parts rotate operation
         tpo = (TransformPartsOperation) mu.getSimulation()
@@ -276,6 +526,139 @@ public class Props_TR2017_0404_008 extends StarMacro {
         mu.update.volumeMesh();
     }
 
+    void initMeshCache() throws IOException {
+        if (meshCacheDir.isEmpty()) {
+            return;
+        }
+        String dir = meshCacheDir;
+        if (!new File(dir).isAbsolute()) {
+            dir = ud.simPath + slash + dir;
+        }
+        meshCache = new MeshCache(dir, meshCacheMB << 20);
+        // everything but height and trim that shapes the mesh
+        List<String> geometry = new ArrayList<String>();
+        geometry.add(meshCacheTag);
+        geometry.add(versionFileHeader + " v" + version);
+        geometry.add(Arrays.toString(xProp));
+        geometry.add(trimPoint_x + " " + trimPoint_z);
+        for (GeometryPart gp : mu.getSimulation()
+                .get(SimulationPartManager.class).getLeafParts()) {
+            geometry.add(gp.getPresentationName() + " "
+                    + gp.getPartSurfaces().size());
+        }
+        geometryHash = MeshCache.hash(
+                geometry.toArray(new String[geometry.size()]));
+        mu.io.say.msg(meshCache.summary(), vo);
+    }
+
+    String meshKey(double height, double trim) {
+        return MeshCache.key(geometryHash, new String[]{"height", "trim"},
+                new double[]{height, trim});
+    }
+
+    boolean restoreMesh(double height, double trim) throws IOException {
+        if (meshCache == null) {
+            return false;
+        }
+        File cached = meshCache.lookup(meshKey(height, trim));
+        if (cached == null) {
+            return false;
+        }
+        openSim(cached);
+        mu.io.say.msg("Mesh restored from " + cached.getName(), vo);
+        return true;
+    }
+
+    void openSim(File file) {
+        // reopen a saved sim in place of the live one, results keep going
+        // to the original sim path under the title of the case being run
+        String simPath = ud.simPath;
+        mu.getSimulation().kill();
+        String simTitle = ud.simTitle;
+        initMacroUtils(new Simulation(file.getPath()));
+        ud.simPath = simPath;
+        ud.simTitle = simTitle;
+    }
+
+    void initSolutions() throws IOException {
+        solutions = new SolutionIndex(ud.simPath + slash + "solutions.csv",
+                new String[]{"speed", "height", "trim", "rpm"}, warmWeights);
+    }
+
+    double liveDistance(double[] point) {
+        return livePoint == null ? Double.POSITIVE_INFINITY
+                : solutions.distance(point, livePoint);
+    }
+
+    boolean openNeighbour(double[] point) {
+        // reopen the closest saved case if it is closer than the live field,
+        // only fields on the same mesh (height, trim) can be reused
+        SolutionIndex.Neighbour n = solutions.nearest(point);
+        if (n == null || n.distance >= liveDistance(point)
+                || n.params[1] != point[1] || n.params[2] != point[2]) {
+            return false;
+        }
+        openSim(new File(n.file));
+        livePoint = n.params;
+        mu.io.say.msg("Warm start from " + n.file, vo);
+        return true;
+    }
+
+    double warmStart(double[] point, double speed) {
+        // start from the closest solved state and cut the revolutions by
+        // how close it is
+        if (openNeighbour(point)) {
+            setSpeed(speed);
+        }
+        // a start from any solved state gets at most the baseline revs, only
+        // a cold start gets revs_init
+        double distance = liveDistance(point);
+        double budget = SolutionIndex.revolutions(distance, warmRadius,
+                revs_warm, revs_init);
+        return Double.isInfinite(distance) ? budget : Math.min(budget, revs);
+    }
+
+    void solved(double[] point) throws IOException {
+        // warm starts can only come from cases run() saved to fileName.sim
+        if (saved) {
+            solutions.add(point, fileName + ".sim");
+        }
+        livePoint = point;
+    }
+
+    boolean saveCase() throws Exception {
+        // the save policy decides which cases keep a sim, a local save is
+        // copied to simPath while the next case solves
+        boolean due = saves.isDue(remeshed);
+        remeshed = false;
+        if (!due) {
+            return false;
+        }
+        File target = saves.target(fileName + ".sim");
+        String simPath = ud.simPath;
+        mu.getSimulation().saveState(target.getPath());
+        ud.simPath = simPath;
+        saves.saved(target, fileName + ".sim");
+        return true;
+    }
+
+    void cacheMesh(double height, double trim) {
+        if (meshCache == null) {
+            return;
+        }
+        // saved where the case sim goes, so the session path stays valid,
+        // and copied into the cache from there
+        File sim = new File(fileName + ".sim");
+        String simPath = ud.simPath;
+        try {
+            mu.getSimulation().saveState(sim.getPath());
+            meshCache.store(meshKey(height, trim), sim);
+        } catch (Exception ex) {
+            mu.getSimulation().println(ex);
+        }
+        ud.simPath = simPath;
+    }
+
     void setCsys(double height, double trim) {
 
         // -- Trim Center --
@@ -309,7 +692,34 @@ public class Props_TR2017_0404_008 extends StarMacro {
                 new DoubleVector(new double[]{xProp[1], 0.0, 0.0}));
     }
 
-    void setRpm(double rpm) {
+    String caseTitle(double speed, double trim, double height, double rpm) {
+        return versionFileHeader + "_"
+                + speed + "mph_"
+                + trim + "deg_"
+                + height + "in_"
+                + rpm + "rpm";
+    }
+
+    RunMatrix loadMatrix() throws IOException {
+        // the matrix file replaces the speeds/heights/trims/rpms loops, fall
+        // back to their full product when there is none
+        RunMatrix matrix;
+        File file = new File(ud.simPath + slash + matrixFile);
+        if (file.exists()) {
+            matrix = RunMatrix.read(file.getPath());
+        } else {
+            matrix = new RunMatrix();
+            matrix.addAxis("speed", speeds);
+            matrix.addAxis("height", heights);
+            matrix.addAxis("trim", trims);
+            matrix.addAxis("rpm", rpms);
+        }
+        matrix.setSteps(Math.round(revs * 360 / stepSize));
+        matrix.setFirstSteps("rpm", Math.round(revs_init * 360 / stepSize));
+        return matrix;
+    }
+
+    void setRpm(double rpm, double revolutions) {
         // set time step
         tStep = 1 / (rpm / 60 * 360 / stepSize);
         mu.set.solver.timestep(tStep);
@@ -330,14 +740,11 @@ public class Props_TR2017_0404_008 extends StarMacro {
         rm.getRotationRate().setValue(rpm);
 
         // set number of timesteps
-        if (rpm == rpms[0]) {
-            numSteps = (int) Math.round(revs_init * 360 / stepSize);
-        } else {
-            numSteps = (int) Math.round(revs * 360 / stepSize);
-        }
+        numSteps = (int) Math.round(revolutions * 360 / stepSize);
     }
 
-    void run(double speed, double height, double trim, double rpm) {
+    void run(double speed, double height, double trim, double rpm)
+            throws Exception {
         // set volume mesh repr for all displayers
         for (Displayer d : mu.get.scenes.allDisplayers(vo)) {
             d.setRepresentation(mu.get.mesh.fvr());
@@ -347,8 +754,15 @@ public class Props_TR2017_0404_008 extends StarMacro {
         mu.getSimulation().getSimulationIterator()
                 .getAutoSave().getStarUpdate().setEnabled(false);
 
-        // run
-        mu.step(numSteps);
+        // run until combined thrust and torque are steady
+        long solveStart = System.currentTimeMillis();
+        long t = timer.begin();
+        stepToSteadyState("Combined Prop", "_combined_prop.csv",
+                new int[]{1, 2}, rpm);
+        timer.end("solve", t);
+        solveSeconds = seconds(solveStart);
+        postStart = System.currentTimeMillis();
+        t = timer.begin();
 
         // output csv data
         mu.io.say.action("Exporting CSV Data", vo);
@@ -366,8 +780,35 @@ public class Props_TR2017_0404_008 extends StarMacro {
         ud.monPlot.export(fileName + "_gc.csv", ",");
 
         mu.io.say.ok(vo);
+        timer.end("csv export", t);
 
-        mu.saveSim();
+        t = timer.begin();
+        saved = saveCase();
+        timer.end("save", t);
+    }
+
+    void stepToSteadyState(String plot, String csv, int[] columns,
+            double rpm) throws Exception {
+        // step one convergence batch at a time until the watched reports
+        // settle, numSteps is the hard cap and becomes the number of steps run
+        convergence.reset();
+        int stepped = 0;
+        boolean converged = false;
+        while (stepped < numSteps && !converged) {
+            int batch = Math.min(stepsPerBatch, numSteps - stepped);
+            mu.step(batch);
+            stepped += batch;
+            ud.monPlot = (MonitorPlot) mu.get.plots.byREGEX(plot, vo);
+            ud.monPlot.export(fileName + csv, ",");
+            convergence.addTable(
+                    MonitorTable.readLast(fileName + csv, batch), columns);
+            converged = convergence.isConverged();
+        }
+        numSteps = stepped;
+        mu.io.say.msg(ud.simTitle + ": " + stepped + " steps, "
+                + convergence.getReason(), vo);
+        convergence.log(ud.simPath + slash + "convergence.csv",
+                ud.simTitle + "_rpm" + (int) rpm, converged);
     }
 
     void exportScene() {
@@ -399,20 +840,12 @@ public class Props_TR2017_0404_008 extends StarMacro {
         mu.clear.solutionHistory();
     }
 
-    void CreateFrontPropSS(double speed, double height, double trim, double rpm)
+    void CreateFrontPropSS(double speed, double height, double trim, double rpm,
+            String fileName, int meshCount, int numToAve, int resultsRow)
             throws Exception {
 
-        // create results spreadsheet if not already created
-        ssTitle = ud.simPath + slash + versionFileHeader + "_Front_Prop.xls";
-        if (!new File(ssTitle).exists()) {
-            initSpreadsheet("prop");
-        }
-
-        // open existing results spreadsheet and create new row
-        wb = WorkbookFactory.create(new File(ssTitle));
-        sheet = wb.getSheet("Data");
-        int currentRow = sheet.getLastRowNum() + 1;
-        row = sheet.createRow(currentRow);
+        // new row in the front prop results, workbook stays open
+        Row row = newRow(frontSink, resultsRow);
         row.createCell(0).setCellValue(versionFileHeader);
         row.createCell(1).setCellValue(speed);
         row.createCell(2).setCellValue(trim);
@@ -420,42 +853,41 @@ public class Props_TR2017_0404_008 extends StarMacro {
         row.createCell(4).setCellValue(rpm);
 
         // read in prop data
-        fileName = ud.simPath + slash + ud.simTitle;
-        reader = new CSVReader(new FileReader(fileName + "_front_prop.csv"));
-        data = reader.readAll();
-
-        // compute mean and blade max/min of prop data
-        stats = new SummaryStatistics();
-        int reportIterator = 1;
+        MonitorTable table = MonitorTable.readLast(
+                fileName + "_front_prop.csv", numToAve);
+
+        // compute mean and blade max/min of prop data in one pass
+        ColumnStats stats = columnStats;
+        stats.reset(numPropReports);
+        stats.addTable(table, 1);
+        int reportIterator = 0;
+        int columnIterator;
         for (columnIterator = 5;
                 columnIterator < numPropCol; columnIterator++) {
-            for (rowIterator = data.size() - 1;
-                    rowIterator >= data.size() - ud.numToAve; rowIterator--) {
-                String[] array = data.get(rowIterator);
-                stats.addValue(Double.parseDouble(array[reportIterator]));
-            }
             // write data to row
             if (columnIterator == 12 || columnIterator == 16) {
-                row.createCell(columnIterator).setCellValue(stats.getMean());
-                row.createCell(columnIterator + 1).setCellValue(stats.getMax());
-                row.createCell(columnIterator + 2).setCellValue(stats.getMin());
+                row.createCell(columnIterator)
+                        .setCellValue(stats.getMean(reportIterator));
+                row.createCell(columnIterator + 1)
+                        .setCellValue(stats.getMax(reportIterator));
+                row.createCell(columnIterator + 2)
+                        .setCellValue(stats.getMin(reportIterator));
                 columnIterator += 2;
             } else {
-                row.createCell(columnIterator).setCellValue(stats.getMean());
+                row.createCell(columnIterator)
+                        .setCellValue(stats.getMean(reportIterator));
             }
-            stats = new SummaryStatistics();
             reportIterator++;
         }
         // Compute prop parameters of interest
-        double torque = row.getCell(15).getNumericCellValue();
-        double thrust = row.getCell(7).getNumericCellValue();
-        double SHP = rpm * 2 * Math.PI / 60
-                * row.getCell(15).getNumericCellValue() / 550;
+        double thrust = stats.getMean(2); // prop thrust net
+        double torque = stats.getMean(8); // prop torque
+        double SHP = rpm * 2 * Math.PI / 60 * torque / 550;
         double J = speed * 1.467 / (rpm / 60 * dProp[0] / 12);
-        double KT = row.getCell(7).getNumericCellValue()
+        double KT = thrust
                 / (Math.pow(rpm / 60, 2) * Math.pow(dProp[0] / 12, 4) * 1.94);
         double KT_norm = KT / subAreaRatio[meshCount];
-        double KQ = row.getCell(15).getNumericCellValue()
+        double KQ = torque
                 / (Math.pow(rpm / 60, 2) * Math.pow(dProp[0] / 12, 5) * 1.94);
         double KQ_norm = KQ / subAreaRatio[meshCount];
         double eta = J / 2 / Math.PI * KT_norm / KQ_norm;
@@ -467,29 +899,18 @@ public class Props_TR2017_0404_008 extends StarMacro {
         row.createCell(columnIterator + 3).setCellValue(KQ_norm);
         row.createCell(columnIterator + 4).setCellValue(eta);
 
-        // save spreadsheet
-        mu.io.say.action("Updating Front Prop Results SS", vo);
-        fileOut = new FileOutputStream(ssTitle);
-        wb.write(fileOut);
-        fileOut.close();
-        mu.io.say.ok(vo);
+        // record row, the workbook is written on the flush cadence
+        frontSink.endRow();
+        writer.report("Updated Front Prop Results SS");
 
     }
 
-    void CreateRearPropSS(double speed, double height, double trim, double rpm)
+    void CreateRearPropSS(double speed, double height, double trim, double rpm,
+            String fileName, int meshCount, int numToAve, int resultsRow)
             throws Exception {
 
-        // create results spreadsheet if not already created
-        ssTitle = ud.simPath + slash + versionFileHeader + "_Rear_Prop.xls";
-        if (!new File(ssTitle).exists()) {
-            initSpreadsheet("prop");
-        }
-
-        // open existing results spreadsheet and create new row
-        wb = WorkbookFactory.create(new File(ssTitle));
-        sheet = wb.getSheet("Data");
-        int currentRow = sheet.getLastRowNum() + 1;
-        row = sheet.createRow(currentRow);
+        // new row in the rear prop results, workbook stays open
+        Row row = newRow(rearSink, resultsRow);
         row.createCell(0).setCellValue(versionFileHeader);
         row.createCell(1).setCellValue(speed);
         row.createCell(2).setCellValue(trim);
@@ -497,42 +918,41 @@ public class Props_TR2017_0404_008 extends StarMacro {
         row.createCell(4).setCellValue(rpm);
 
         // read in prop data
-        fileName = ud.simPath + slash + ud.simTitle;
-        reader = new CSVReader(new FileReader(fileName + "_rear_prop.csv"));
-        data = reader.readAll();
-
-        // compute mean and blade max/min of prop data
-        stats = new SummaryStatistics();
-        int reportIterator = 1;
+        MonitorTable table = MonitorTable.readLast(
+                fileName + "_rear_prop.csv", numToAve);
+
+        // compute mean and blade max/min of prop data in one pass
+        ColumnStats stats = columnStats;
+        stats.reset(numPropReports);
+        stats.addTable(table, 1);
+        int reportIterator = 0;
+        int columnIterator;
         for (columnIterator = 5;
                 columnIterator < numPropCol; columnIterator++) {
-            for (rowIterator = data.size() - 1;
-                    rowIterator >= data.size() - ud.numToAve; rowIterator--) {
-                String[] array = data.get(rowIterator);
-                stats.addValue(Double.parseDouble(array[reportIterator]));
-            }
             // write data to row
             if (columnIterator == 12 || columnIterator == 16) {
-                row.createCell(columnIterator).setCellValue(stats.getMean());
-                row.createCell(columnIterator + 1).setCellValue(stats.getMax());
-                row.createCell(columnIterator + 2).setCellValue(stats.getMin());
+                row.createCell(columnIterator)
+                        .setCellValue(stats.getMean(reportIterator));
+                row.createCell(columnIterator + 1)
+                        .setCellValue(stats.getMax(reportIterator));
+                row.createCell(columnIterator + 2)
+                        .setCellValue(stats.getMin(reportIterator));
                 columnIterator += 2;
             } else {
-                row.createCell(columnIterator).setCellValue(stats.getMean());
+                row.createCell(columnIterator)
+                        .setCellValue(stats.getMean(reportIterator));
             }
-            stats = new SummaryStatistics();
             reportIterator++;
         }
         // Compute prop parameters of interest
-        double torque = row.getCell(15).getNumericCellValue();
-        double thrust = row.getCell(7).getNumericCellValue();
-        double SHP = rpm * 2 * Math.PI / 60
-                * row.getCell(15).getNumericCellValue() / 550;
+        double thrust = stats.getMean(2); // prop thrust net
+        double torque = stats.getMean(8); // prop torque
+        double SHP = rpm * 2 * Math.PI / 60 * torque / 550;
         double J = speed * 1.467 / (rpm / 60 * dProp[1] / 12);
-        double KT = row.getCell(7).getNumericCellValue()
+        double KT = thrust
                 / (Math.pow(rpm / 60, 2) * Math.pow(dProp[1] / 12, 4) * 1.94);
         double KT_norm = KT / subAreaRatio[meshCount + 3];
-        double KQ = row.getCell(15).getNumericCellValue()
+        double KQ = torque
                 / (Math.pow(rpm / 60, 2) * Math.pow(dProp[1] / 12, 5) * 1.94);
         double KQ_norm = KQ / subAreaRatio[meshCount + 3];
         double eta = J / 2 / Math.PI * KT_norm / KQ_norm;
@@ -544,29 +964,18 @@ public class Props_TR2017_0404_008 extends StarMacro {
         row.createCell(columnIterator + 3).setCellValue(KQ_norm);
         row.createCell(columnIterator + 4).setCellValue(eta);
 
-        // save spreadsheet
-        mu.io.say.action("Updating Rear Prop Results SS", vo);
-        fileOut = new FileOutputStream(ssTitle);
-        wb.write(fileOut);
-        fileOut.close();
-        mu.io.say.ok(vo);
+        // record row, the workbook is written on the flush cadence
+        rearSink.endRow();
+        writer.report("Updated Rear Prop Results SS");
 
     }
 
-    void CreateCombinedPropSS(double speed, double height, double trim, double rpm)
+    void CreateCombinedPropSS(double speed, double height, double trim, double rpm,
+            String fileName, int meshCount, int numToAve, int resultsRow)
             throws Exception {
 
-        // create results spreadsheet if not already created
-        ssTitle = ud.simPath + slash + versionFileHeader + "_Combined_Prop.xls";
-        if (!new File(ssTitle).exists()) {
-            initSpreadsheet("combined");
-        }
-
-        // open existing results spreadsheet and create new row
-        wb = WorkbookFactory.create(new File(ssTitle));
-        sheet = wb.getSheet("Data");
-        int currentRow = sheet.getLastRowNum() + 1;
-        row = sheet.createRow(currentRow);
+        // new row in the combined prop results, workbook stays open
+        Row row = newRow(combinedSink, resultsRow);
         row.createCell(0).setCellValue(versionFileHeader);
         row.createCell(1).setCellValue(speed);
         row.createCell(2).setCellValue(trim);
@@ -574,32 +983,30 @@ public class Props_TR2017_0404_008 extends StarMacro {
         row.createCell(4).setCellValue(rpm);
 
         // read in prop data
-        fileName = ud.simPath + slash + ud.simTitle;
-        reader = new CSVReader(new FileReader(fileName + "_combined_prop.csv"));
-        data = reader.readAll();
+        MonitorTable table = MonitorTable.readLast(
+                fileName + "_combined_prop.csv", numToAve);
 
         // compute mean of 1 prop revolution
-        stats = new SummaryStatistics();
-        int reportIterator = 1;
+        ColumnStats stats = columnStats;
+        stats.reset(2);
+        stats.addTable(table, 1);
+        int reportIterator = 0;
+        int columnIterator;
         for (columnIterator = 5;
                 columnIterator < numTitleCol + 2; columnIterator++) {
-            for (rowIterator = data.size() - 1;
-                    rowIterator >= data.size() - ud.numToAve; rowIterator--) {
-                String[] array = data.get(rowIterator);
-                stats.addValue(Double.parseDouble(array[reportIterator]));
-            }
             // write data to row
-            row.createCell(columnIterator).setCellValue(stats.getMean());
-            stats = new SummaryStatistics();
+            row.createCell(columnIterator)
+                    .setCellValue(stats.getMean(reportIterator));
             reportIterator++;
         }
         // Compute prop parameters of interest
-        double SHP = rpm * 2 * Math.PI / 60
-                * row.getCell(6).getNumericCellValue() / 550;
+        double thrust = stats.getMean(0); // prop thrust net
+        double torque = stats.getMean(1); // prop torque
+        double SHP = rpm * 2 * Math.PI / 60 * torque / 550;
         double J = speed * 1.467 / (rpm / 60 * dProp[0] / 12);
-        double KT = row.getCell(5).getNumericCellValue()
+        double KT = thrust
                 / (Math.pow(rpm / 60, 2) * Math.pow(dProp[0] / 12, 4) * 1.94);
-        double KQ = row.getCell(6).getNumericCellValue()
+        double KQ = torque
                 / (Math.pow(rpm / 60, 2) * Math.pow(dProp[0] / 12, 5) * 1.94);
         double eta = J / 2 / Math.PI * KT / KQ;
 
@@ -610,28 +1017,18 @@ public class Props_TR2017_0404_008 extends StarMacro {
         row.createCell(columnIterator + 3).setCellValue(KQ);
         row.createCell(columnIterator + 4).setCellValue(eta);
 
-        // save spreadsheet
-        mu.io.say.action("Updating Combined Prop Results SS", vo);
-        fileOut = new FileOutputStream(ssTitle);
-        wb.write(fileOut);
-        fileOut.close();
-        mu.io.say.ok(vo);
+        // record row, the workbook is written on the flush cadence
+        combinedSink.endRow();
+        writer.report("Updated Combined Prop Results SS");
 
     }
 
-    void CreateGcSS(double speed, double height, double trim, double rpm)
+    void CreateGcSS(double speed, double height, double trim, double rpm,
+            String fileName, int meshCount, int numToAve, int resultsRow)
             throws Exception {
 
-        // create results spreadsheet if not already created
-        ssTitle = ud.simPath + slash + versionFileHeader + "_Gearcase.xls";
-        if (!new File(ssTitle).exists()) {
-            initSpreadsheet("gc");
-        }
-        // open existing results spreadsheet and create new row
-        wb = WorkbookFactory.create(new File(ssTitle));
-        sheet = wb.getSheet("Data");
-        int currentRow = sheet.getLastRowNum() + 1;
-        row = sheet.createRow(currentRow);
+        // new row in the gearcase results, workbook stays open
+        Row row = newRow(gcSink, resultsRow);
         row.createCell(0).setCellValue(versionFileHeader);
         row.createCell(1).setCellValue(speed);
         row.createCell(2).setCellValue(trim);
@@ -639,53 +1036,179 @@ public class Props_TR2017_0404_008 extends StarMacro {
         row.createCell(4).setCellValue(rpm);
 
         // read in gearcase data
-        reader = new CSVReader(new FileReader(fileName + "_gc.csv"));
-        data = reader.readAll();
+        MonitorTable table = MonitorTable.readLast(fileName + "_gc.csv",
+                numToAve);
 
         // Compute mean and standard deviation of gc data
-        int reportIterator = 1;
-        stats = new SummaryStatistics();
+        ColumnStats stats = columnStats;
+        stats.reset(numGcReports);
+        stats.addTable(table, 1);
+        int reportIterator = 0;
+        int columnIterator;
         for (columnIterator = 5;
                 columnIterator < 5 + numGcReports; columnIterator++) {
-            for (rowIterator = data.size() - 1;
-                    rowIterator >= data.size() - ud.numToAve; rowIterator--) {
-                String[] array = data.get(rowIterator);
-                stats.addValue(Double.parseDouble(array[reportIterator]));
-            }
-            row.createCell(columnIterator).setCellValue(stats.getMean());
-            stats = new SummaryStatistics();
+            row.createCell(columnIterator)
+                    .setCellValue(stats.getMean(reportIterator));
             reportIterator++;
         }
 
-        // save spreadsheet
-        mu.io.say.action("Updating Gearcase Results SS", vo);
-        fileOut = new FileOutputStream(ssTitle);
-        wb.write(fileOut);
-        fileOut.close();
-        mu.io.say.ok(vo);
+        // record row, the workbook is written on the flush cadence
+        gcSink.endRow();
+        writer.report("Updated Gearcase Results SS");
 
     }
 
-    void initSpreadsheet(String type) throws Exception {
-        // Create prop excel workbook with headers
-        wb = new HSSFWorkbook();
-        row = wb.createSheet("Data").createRow(0);
-        if ("prop".equals(type)) {
-            for (int i = 0; i < propHeaders.length; i++) {
-                row.createCell(i).setCellValue(propHeaders[i]);
+    void writeBladePhase(String prop, double rpm, String fileName,
+            int numSteps) throws Exception {
+        // phase-lock blade thrust/torque over every revolution of this rpm
+        MonitorTable table = MonitorTable.readLast(fileName + prop + ".csv",
+                numSteps);
+        PhaseStats phaseStats = new PhaseStats(2, numPhaseBins);
+        phaseStats.addTable(table, bladeColumns, stepSize);
+        phaseStats.write(fileName + prop + "_blade_phase.csv", bladeChannels);
+        for (int i = 0; i < bladeChannels.length; i++) {
+            writer.report(bladeChannels[i] + " Ripple: "
+                    + phaseStats.getRipple(i));
+            writer.report(bladeChannels[i] + " Rev. Drift: "
+                    + phaseStats.getRevolutionDrift(i));
+        }
+    }
+
+    /*
+     * Post-processing of one finished case, run on the results writer thread.
+     * Everything it reads that changes from case to case is captured here
+     * because the macro thread has moved on to the next rpm, or to a new sim
+     * with new declarations, by the time it runs.
+     */
+    class CaseResults implements ResultsWriter.Task {
+
+        CaseResults(double speed, double height, double trim, double rpm,
+                String simTitle, String fileName, int meshCount,
+                int numSteps, int numToAve, CaseQueue.Claim claim) {
+            this.speed = speed;
+            this.height = height;
+            this.trim = trim;
+            this.rpm = rpm;
+            this.simTitle = simTitle;
+            this.fileName = fileName;
+            this.meshCount = meshCount;
+            this.numSteps = numSteps;
+            this.numToAve = numToAve;
+            this.claim = claim;
+            resultsRow = claim == null ? -1 : claim.seq + 1;
+        }
+
+        public void write() throws Exception {
+            long t = timer.begin();
+            CreateFrontPropSS(speed, height, trim, rpm, fileName, meshCount,
+                    numToAve, resultsRow);
+            CreateRearPropSS(speed, height, trim, rpm, fileName, meshCount,
+                    numToAve, resultsRow);
+            CreateCombinedPropSS(speed, height, trim, rpm, fileName,
+                    meshCount, numToAve, resultsRow);
+            CreateGcSS(speed, height, trim, rpm, fileName, meshCount,
+                    numToAve, resultsRow);
+            writeBladePhase("_front_prop", rpm, fileName, numSteps);
+            writeBladePhase("_rear_prop", rpm, fileName, numSteps);
+            manifest.done(simTitle,
+                    fileName + "_front_prop.csv",
+                    fileName + "_rear_prop.csv",
+                    fileName + "_combined_prop.csv",
+                    fileName + "_gc.csv",
+                    fileName + ".sce",
+                    fileName + "_front_prop_blade_phase.csv",
+                    fileName + "_rear_prop_blade_phase.csv");
+            if (claim != null) {
+                queue.done(claim);
             }
-        } else if ("gc".equals(type)) {
-            for (int i = 0; i < gcHeaders.length; i++) {
-                row.createCell(i).setCellValue(gcHeaders[i]);
+            timer.end("results", t);
+        }
+
+        double speed;
+        double height;
+        double trim;
+        double rpm;
+        String simTitle;
+        String fileName;
+        int meshCount;
+        int numSteps;
+        int numToAve;
+        int resultsRow;
+        CaseQueue.Claim claim;
+    }
+
+    void openResults() throws Exception {
+        // open every results workbook once for the whole sweep
+        String ssBase = ud.simPath + slash + versionFileHeader + workerTag;
+        frontSink = new XlsResultsSink(ssBase + resultsFiles[0], "Data",
+                propHeaders, ssFlushEvery);
+        rearSink = new XlsResultsSink(ssBase + resultsFiles[1], "Data",
+                propHeaders, ssFlushEvery);
+        combinedSink = new XlsResultsSink(ssBase + resultsFiles[2],
+                "Data", combinedPropHeaders, ssFlushEvery);
+        gcSink = new XlsResultsSink(ssBase + resultsFiles[3], "Data",
+                gcHeaders, ssFlushEvery);
+        writer = new ResultsWriter(postQueue);
+    }
+
+    void closeResults() {
+        // finish queued cases, then flush rows still in memory, also when
+        // the sweep stopped on an error
+        try {
+            if (writer != null) {
+                writer.close();
             }
-        } else if ("combined".equals(type)) {
-            for (int i = 0; i < combinedPropHeaders.length; i++) {
-                row.createCell(i).setCellValue(combinedPropHeaders[i]);
+        } catch (Exception ex) {
+            mu.getSimulation().println(ex);
+        } finally {
+            sayResults();
+        }
+        for (ResultsSink sink : new ResultsSink[]{
+            frontSink, rearSink, combinedSink, gcSink}) {
+            try {
+                if (sink != null) {
+                    sink.close();
+                }
+            } catch (Exception ex) {
+                mu.getSimulation().println(ex);
+            }
+        }
+        closeSaves();
+        closeTimer();
+        if (gate != null) {
+            mu.io.say.msg(gate.summary(), vo);
+        }
+    }
+
+    void sayResults() {
+        // the writer thread never prints, its status lines are shown here
+        if (writer == null) {
+            return;
+        }
+        String message;
+        while ((message = writer.poll()) != null) {
+            mu.io.say.msg(message, vo);
+        }
+    }
+
+    void closeTimer() {
+        // timings of the writer thread are in once it has been closed
+        if (timer != null) {
+            timer.close();
+            mu.io.say.msg("Phase timings:\n" + timer.summary(), vo);
+        }
+    }
+
+    void closeSaves() {
+        // sims still being copied to simPath finish before the macro ends
+        try {
+            if (saves != null) {
+                saves.close();
+                mu.io.say.msg(saves.summary(), vo);
             }
+        } catch (Exception ex) {
+            mu.getSimulation().println(ex);
         }
-        fileOut = new FileOutputStream(ssTitle);
-        wb.write(fileOut);
-        fileOut.close();
     }
 
     MacroUtils mu;
@@ -694,17 +1217,20 @@ public class Props_TR2017_0404_008 extends StarMacro {
     boolean intrusive = true;
 
     int numSteps;
-    int columnIterator;
-    int rowIterator;
     int meshCount;
 
-    FileOutputStream fileOut;
-    Workbook wb;
-    Sheet sheet;
-    Row row;
-    CSVReader reader;
-    List<String[]> data;
-    SummaryStatistics stats;
+    ResultsSink frontSink;
+    ResultsSink rearSink;
+    ResultsSink combinedSink;
+    ResultsSink gcSink;
+    ResultsWriter writer;
+    // used by the writer thread only, reset for every table
+    ColumnStats columnStats = new ColumnStats(numPropReports);
+    String[] resultsFiles = {"_Front_Prop.xls", "_Rear_Prop.xls",
+        "_Combined_Prop.xls", "_Gearcase.xls"};
+    String[] bladeChannels = {"Blade Thrust", "Blade Torque"};
+    ConvergenceMonitor convergence;
+    int stepsPerBatch;
     VofWaveModel vwm;
     FlatVofWave fvw;
     TransformPartsOperation tpo;
@@ -717,7 +1243,25 @@ public class Props_TR2017_0404_008 extends StarMacro {
     RotatingMotion rm;
     String fileName;
     String slash;
-    String ssTitle;
+    MeshCache meshCache;
+    String geometryHash;
+    SolutionIndex solutions;
+    double[] livePoint;
+    SavePolicy saves;
+    SweepEstimator estimator;
+    PhaseTimer timer;
+    QualityGate gate;
+    long stepsLeft;
+    int meshesLeft;
+    int casesLeft;
+    double cells = Double.NaN;
+    double solveSeconds;
+    long postStart;
+    boolean remeshed;
+    boolean saved;
+    SweepManifest manifest;
+    CaseQueue queue;
+    String workerTag = "";
     double tStep;
     double[] xProp;
     double[] dProp;
@@ -10,12 +10,10 @@
 import java.io.*;
 import java.util.*;
 import macroutils.*;
+import sweeputils.*;
 import star.common.*;
 import star.vis.*;
-import org.apache.commons.math3.stat.descriptive.*;
 import org.apache.poi.ss.usermodel.*;
-import com.opencsv.CSVReader;
-import org.apache.poi.hssf.usermodel.HSSFWorkbook;
 import star.base.neo.DoubleVector;
 
 public class SS_Internal_Para extends StarMacro {
@@ -28,40 +26,98 @@ public class SS_Internal_Para extends StarMacro {
 
     int resx = 1200;
     int resy = 300;
+    int maxIterations = 2000; // hard cap
+    int checkIterations = 100; // iterations per convergence batch
+    int convBatches = 3; // batch means used for the steady state test
+    double convTol = .002; // relative total p / mass flow tolerance
+    // checkpoints that keep a .sim: "every" (meshed, solved, post),
+    // "geometry" (meshed only), "every <n>" or "last <k>" (see SavePolicy)
+    String savePolicy = "every";
+    String localSaveDir = ""; // local disk saved to first, "" saves to simPath
 
     public void execute() {
 
         initMacro();
+        try {
+            results = new XlsResultsSink(ud.simPath + "\\results.xls", "data",
+                    headers, 1);
+            manifest = new SweepManifest(ud.simPath + "\\sweep.manifest");
+            saves = SavePolicy.parse(savePolicy, localSaveDir);
+            timer = new PhaseTimer(ud.simPath + "\\timing.jsonl");
+            mu.io.say.msg(manifest.summary(), vo);
+        } catch (Exception ex) {
+            mu.getSimulation().println(ex);
+            return;
+        }
 
         for (String version : versions) {
             for (String flowRate : flowRates) {
                 try {
 
                     setup(version, flowRate);
+                    if (manifest.isDone(ud.simTitle)) {
+                        continue;
+                    }
+                    timer.startCase(ud.simTitle);
+                    resume();
 
                     if (!mu.check.has.volumeMesh()) {
+                        manifest.setState(ud.simTitle,
+                                SweepManifest.State.MESHING);
+                        long t = timer.begin();
                         physics();
                         mesh(version);
+                        timer.end("mesh", t);
+                        if (save(true)) {
+                            manifest.setSim(ud.simTitle, simFile());
+                        }
                     }
 
                     if (!mu.check.has.solution()) {
+                        manifest.setState(ud.simTitle,
+                                SweepManifest.State.SOLVING);
+                        long t = timer.begin();
                         monitors();
                         solve();
+                        timer.end("solve", t);
+                        if (save(false)) {
+                            manifest.setSim(ud.simTitle, simFile());
+                        }
                     }
 
                     //if (!mu.getSimulation().isParallel()) {
+                    manifest.setState(ud.simTitle, SweepManifest.State.POST);
+                    outputs.clear();
+                    long t = timer.begin();
                     post();
+                    timer.end("post", t);
+                    t = timer.begin();
                     output();
+                    timer.end("output", t);
                     //}
 
-                    mu.saveSim();
+                    if (save(false)) {
+                        manifest.setSim(ud.simTitle, simFile());
+                    }
+                    manifest.done(ud.simTitle,
+                            outputs.toArray(new String[outputs.size()]));
                     clearAll();
+                    timer.endCase();
 
                 } catch (Exception ex) {
                     mu.getSimulation().println(ex);
                 }
             }
         }
+        try {
+            results.close();
+            saves.close();
+            mu.io.say.msg(saves.summary(), vo);
+            timer.close();
+            mu.io.say.msg("Phase timings:\n" + timer.summary(), vo);
+        } catch (Exception ex) {
+            mu.getSimulation().println(ex);
+        }
     }
 
     void initMacro() {
@@ -69,6 +125,44 @@ public class SS_Internal_Para extends StarMacro {
         ud = mu.userDeclarations;
     }
 
+    String simFile() {
+        return ud.simPath + "\\" + ud.simTitle + ".sim";
+    }
+
+    boolean save(boolean meshed) throws Exception {
+        // the save policy decides which checkpoints keep a sim, a local
+        // save is copied to simPath while the macro goes on
+        if (!saves.isDue(meshed)) {
+            return false;
+        }
+        long t = timer.begin();
+        File target = saves.target(simFile());
+        String simPath = ud.simPath;
+        mu.getSimulation().saveState(target.getPath());
+        ud.simPath = simPath;
+        saves.saved(target, simFile());
+        timer.end("save", t);
+        return true;
+    }
+
+    void resume() {
+        // a case cut short by a crash continues from its last saved sim,
+        // the mesh and solution checks then skip what it already has
+        String sim = manifest.getSim(ud.simTitle);
+        if (sim == null) {
+            return;
+        }
+        String simPath = ud.simPath;
+        String simTitle = ud.simTitle;
+        mu.getSimulation().kill();
+        mu = new MacroUtils(new Simulation(sim));
+        ud = mu.userDeclarations;
+        ud.simPath = simPath;
+        ud.simTitle = simTitle;
+        as = mu.getSimulation().getSimulationIterator().getAutoSave();
+        mu.io.say.msg("Resuming " + simTitle + " from " + sim, vo);
+    }
+
     void setup(String version, String flowRate) {
         ud.simTitle = version + "_" + flowRate;
         as = mu.getSimulation().getSimulationIterator().getAutoSave();
@@ -122,7 +216,6 @@ public class SS_Internal_Para extends StarMacro {
         as.setAutoSaveMesh(false);
         mu.update.volumeMesh();
         ud.scene = mu.add.scene.mesh();
-        mu.saveSim();
     }
 
     void monitors() {
@@ -150,11 +243,48 @@ public class SS_Internal_Para extends StarMacro {
         }
     }
 
-    void solve() {
+    void solve() throws Exception {
         //mu.set.solver.aggressiveSettings();
         as.setAutoSaveBatch(false);
-        mu.step(2000);
-        mu.saveSim();
+        // watch every total p and mass flow monitor between batches
+        ud.Parts = mu.get.parts.allByREGEX("(?i).*(plane|flow).*", vo);
+        if (ud.Parts.isEmpty()) {
+            // nothing to watch, run the fixed iteration count
+            mu.io.say.msg(ud.simTitle + ": no monitored parts, running "
+                    + maxIterations + " iterations", vo);
+            mu.step(maxIterations);
+            return;
+        }
+        convergence = new ConvergenceMonitor(ud.Parts.size(),
+                checkIterations, convBatches, convTol);
+        MonitorTable[] channels = new MonitorTable[ud.Parts.size()];
+        double[] values = new double[ud.Parts.size()];
+        int iterations = 0;
+        boolean converged = false;
+        while (iterations < maxIterations && !converged) {
+            int batch = Math.min(checkIterations, maxIterations - iterations);
+            mu.step(batch);
+            iterations += batch;
+            for (i = 0; i < ud.Parts.size(); i++) {
+                ud.mon = mu.get.monitors.byREGEX(
+                        ud.Parts.get(i).getPresentationName(), vo);
+                String fileName = ud.simPath + "\\" + ud.simTitle
+                        + ud.Parts.get(i).getPresentationName() + ".csv";
+                ud.mon.export(fileName);
+                channels[i] = MonitorTable.readLast(fileName, batch);
+            }
+            for (int r = 0; r < channels[0].getRowCount(); r++) {
+                for (i = 0; i < values.length; i++) {
+                    values[i] = channels[i].get(r, 1);
+                }
+                convergence.add(values);
+            }
+            converged = convergence.isConverged();
+        }
+        mu.io.say.msg(ud.simTitle + ": " + iterations + " iterations, "
+                + convergence.getReason(), vo);
+        convergence.log(ud.simPath + "\\convergence.csv", ud.simTitle,
+                converged);
     }
 
     void post() {
@@ -224,23 +354,8 @@ public class SS_Internal_Para extends StarMacro {
                     resx, resy, vo);
         }
 
-        // create or update results spreadsheet
-        String ssTitle = ud.simPath + "\\results.xls";
-        if (!new File(ssTitle).exists()) {
-            wb = new HSSFWorkbook();
-            sheet = wb.createSheet("data");
-            row = sheet.createRow(0);
-            for (i = 0; i < headers.length; i++) {
-                row.createCell(i).setCellValue(headers[i]);
-                out = new FileOutputStream(ssTitle);
-                wb.write(out);
-                out.close();
-            }
-        }
-        wb = WorkbookFactory.create(new File(ssTitle));
-        sheet = wb.getSheet("data");
-        int currentRow = sheet.getLastRowNum() + 1;
-        row = sheet.createRow(currentRow);
+        // new row in the results spreadsheet (journaled, written atomically)
+        row = results.createRow();
 
         // write pressure drop data
         j = 0;
@@ -251,19 +366,16 @@ public class SS_Internal_Para extends StarMacro {
             String fileName = ud.simPath + "\\" + ud.simTitle
                     + prt.getPresentationName() + ".csv";
             ud.mon.export(fileName);
-            reader = new CSVReader(new FileReader(fileName));
-            data = reader.readAll();
-            stats = new SummaryStatistics();
-            for (i = data.size() - 1; i >= data.size() - ud.numToAve; i--) {
-                String[] rowData = data.get(i);
-                stats.addValue(Double.parseDouble(rowData[1]));
-            }
+            outputs.add(fileName);
+            table = MonitorTable.readLast(fileName, ud.numToAve);
+            stats.reset(1);
+            stats.addTable(table, 1);
             if (j != 0) {
-                row.createCell(j).setCellValue(mean - stats.getMean());
+                row.createCell(j).setCellValue(mean - stats.getMean(0));
             } else {
                 row.createCell(0).setCellValue(ud.simTitle);
             }
-            mean = stats.getMean();
+            mean = stats.getMean(0);
             j++;
         }
 
@@ -275,20 +387,15 @@ public class SS_Internal_Para extends StarMacro {
             String fileName = ud.simPath + "\\" + ud.simTitle
                     + prt.getPresentationName() + ".csv";
             ud.mon.export(fileName);
-            reader = new CSVReader(new FileReader(fileName));
-            data = reader.readAll();
-            stats = new SummaryStatistics();
-            for (i = data.size() - 1; i >= data.size() - ud.numToAve; i--) {
-                String[] rowData = data.get(i);
-                stats.addValue(Double.parseDouble(rowData[1]));
-            }
-            row.createCell(j).setCellValue(stats.getMean());
+            outputs.add(fileName);
+            table = MonitorTable.readLast(fileName, ud.numToAve);
+            stats.reset(1);
+            stats.addTable(table, 1);
+            row.createCell(j).setCellValue(stats.getMean(0));
             j++;
         }
 
-        out = new FileOutputStream(ssTitle);
-        wb.write(out);
-        out.close();
+        results.endRow();
 
     }
 
@@ -302,13 +409,15 @@ public class SS_Internal_Para extends StarMacro {
     private UserDeclarations ud;
     boolean vo = true;
 
-    List<String[]> data;
-    Workbook wb;
-    Sheet sheet;
+    MonitorTable table;
+    ResultsSink results;
+    SweepManifest manifest;
+    SavePolicy saves;
+    PhaseTimer timer;
+    List<String> outputs = new ArrayList<String>();
     Row row;
-    CSVReader reader;
-    SummaryStatistics stats;
-    FileOutputStream out;
+    ColumnStats stats = new ColumnStats(1);
+    ConvergenceMonitor convergence;
     AutoSave as;
 
     double mfr;
@@ -6,10 +6,10 @@ import java.io.*;
 import java.util.*;
 import org.apache.poi.hslf.usermodel.*;
 import org.apache.poi.hssf.usermodel.*;
-import org.apache.poi.poifs.filesystem.NPOIFSFileSystem;
+import org.apache.poi.ss.usermodel.Row;
 import org.apache.commons.math3.stat.descriptive.*;
-import com.opencsv.*;
 import star.common.*;
+import sweeputils.*;
 import star.vis.*;
 import star.base.neo.*;
 import star.flow.*;
@@ -80,6 +80,8 @@ public class excel extends StarMacro {
         int numToAve = (int) (360 / stepSize); // number of iterations or timesteps to average for monitor data
         int numPropCol = 19; // number of columns in prop excel ss before calculation data is added
         int numGcReports = 6; // number of GC reports
+        int ssFlushEvery = 5; // cases between excel file writes
+        boolean resume = false; // keep the workbooks of an interrupted run, false starts them over
         double[] subAreaRatio = {
             0.9950,
             0.9663,
@@ -101,6 +103,8 @@ public class excel extends StarMacro {
         double height;
         double rpm;
         double timestep;
+        double thrust;
+        double torque;
         double SHP;
         double J;
         double KT;
@@ -123,13 +127,10 @@ public class excel extends StarMacro {
 
         FileOutputStream fileOut;
         HSLFSlideShow ppt;
-        HSSFWorkbook propWB;
-        HSSFWorkbook gcWB;
-        HSSFSheet sheet;
-        HSSFRow row;
-        NPOIFSFileSystem fs;
-        CSVReader reader;
-        List<String[]> data;
+        ResultsSink propSink = null;
+        ResultsSink gcSink = null;
+        Row row;
+        MonitorTable table;
         SummaryStatistics stats;
         HSLFSlide slide;
         HSLFTextParagraph tp;
@@ -142,27 +143,17 @@ public class excel extends StarMacro {
 
             // Set working directory to sim file location
             String workingDir = sim.getSessionDir() + "\\";
-            // Create prop excel workbook with headers
-            propWB = new HSSFWorkbook();
-            sheet = propWB.createSheet("prop data");
-            row = sheet.createRow(0);
-            for (i = 0; i < propHeaders.length; i++) {
-                row.createCell(i).setCellValue(propHeaders[i]);
+            // Rows are written by position, so a fresh run must not keep or
+            // replay rows of an earlier one
+            if (!resume) {
+                WorkbookSink.discard(workingDir + propExcelFileName);
+                WorkbookSink.discard(workingDir + gcExcelFileName);
             }
-            fileOut = new FileOutputStream(workingDir + propExcelFileName);
-            propWB.write(fileOut);
-            fileOut.close();
-
-            // Create gc excel workbook with headers
-            gcWB = new HSSFWorkbook();
-            sheet = gcWB.createSheet("gc data");
-            row = sheet.createRow(0);
-            for (i = 0; i < gcHeaders.length; i++) {
-                row.createCell(i).setCellValue(gcHeaders[i]);
-            }
-            fileOut = new FileOutputStream(workingDir + gcExcelFileName);
-            gcWB.write(fileOut);
-            fileOut.close();
+            // Open prop and gc excel workbooks once for the whole sweep
+            propSink = new XlsResultsSink(workingDir + propExcelFileName,
+                    "prop data", propHeaders, ssFlushEvery);
+            gcSink = new XlsResultsSink(workingDir + gcExcelFileName,
+                    "gc data", gcHeaders, ssFlushEvery);
 
             // Initialize spreadsheet row count (start at 1 to skip header row)
             ssCount = 1;
@@ -203,14 +194,10 @@ public class excel extends StarMacro {
                             // Prop
                             //---------------
                             // Read prop monitor plot files
-                            reader = new CSVReader(new FileReader(filename + "_prop.csv"));
-                            data = reader.readAll();
+                            table = MonitorTable.readLast(filename + "_prop.csv", numToAve);
 
-                            // Open prop excel workbook
-                            fs = new NPOIFSFileSystem(new File(propExcelFileName));
-                            propWB = new HSSFWorkbook(fs.getRoot(), true);
-                            sheet = propWB.getSheet("prop data");
-                            row = sheet.createRow(ssCount);
+                            // New row in the open prop workbook
+                            row = propSink.createRow(ssCount);
                             row.createCell(0).setCellValue(simTitle);
                             row.createCell(1).setCellValue(speed);
                             row.createCell(2).setCellValue(trim);
@@ -221,10 +208,9 @@ public class excel extends StarMacro {
                             stats = new SummaryStatistics();
                             reportIterator = 1;
                             for (columnIterator = 5; columnIterator < numPropCol; columnIterator++) {
-                                for (rowIterator = data.size() - 1; rowIterator >= data.size() - numToAve; rowIterator--) {
-                                    String[] array = data.get(rowIterator);
-                                    stats.addValue(Double.parseDouble(array[reportIterator]));
-
+                                double[] values = table.getColumn(reportIterator);
+                                for (rowIterator = 0; rowIterator < table.getRowCount(); rowIterator++) {
+                                    stats.addValue(values[rowIterator]);
                                 }
                                 if (columnIterator == 12 || columnIterator == 16) {
                                     row.createCell(columnIterator).setCellValue(stats.getMean());
@@ -238,11 +224,13 @@ public class excel extends StarMacro {
                                 reportIterator++;
                             }
                             // Compute prop parameters of interest
-                            SHP = rpm * 2 * Math.PI / 60 * row.getCell(15).getNumericCellValue() / 550;
+                            thrust = table.mean(3);
+                            torque = table.mean(9);
+                            SHP = rpm * 2 * Math.PI / 60 * torque / 550;
                             J = speed * 1.467 / (rpm / 60 * Dprop / 12);
-                            KT = row.getCell(7).getNumericCellValue() / (Math.pow(rpm / 60, 2) * Math.pow(Dprop / 12, 4) * 1.94);
+                            KT = thrust / (Math.pow(rpm / 60, 2) * Math.pow(Dprop / 12, 4) * 1.94);
                             KT_norm = KT / subAreaRatio[meshCount];
-                            KQ = row.getCell(15).getNumericCellValue() / (Math.pow(rpm / 60, 2) * Math.pow(Dprop / 12, 5) * 1.94);
+                            KQ = torque / (Math.pow(rpm / 60, 2) * Math.pow(Dprop / 12, 5) * 1.94);
                             KQ_norm = KQ / subAreaRatio[meshCount];
                             eta = J / 2 / Math.PI * KT_norm / KQ_norm;
 
@@ -253,24 +241,17 @@ public class excel extends StarMacro {
                             row.createCell(columnIterator + 3).setCellValue(KQ_norm);
                             row.createCell(columnIterator + 4).setCellValue(eta);
 
-                            // Save prop excel file
-                            fileOut = new FileOutputStream(workingDir + propExcelFileName);
-                            propWB.write(fileOut);
-                            fileOut.close();
-                            fs.close();
+                            // Record prop row, written on the flush cadence
+                            propSink.endRow();
 
                             //---------------
                             // Gearcase (gc)
                             //---------------
                             // Read gc monitor plot files
-                            reader = new CSVReader(new FileReader(filename + "_gc.csv"));
-                            data = reader.readAll();
+                            table = MonitorTable.readLast(filename + "_gc.csv", numToAve);
 
-                            // Open gc excel workbook
-                            fs = new NPOIFSFileSystem(new File(gcExcelFileName));
-                            gcWB = new HSSFWorkbook(fs.getRoot(), true);
-                            sheet = gcWB.getSheet("gc data");
-                            row = sheet.createRow(ssCount);
+                            // New row in the open gc workbook
+                            row = gcSink.createRow(ssCount);
                             row.createCell(0).setCellValue(simTitle);
                             row.createCell(1).setCellValue(speed);
                             row.createCell(2).setCellValue(trim);
@@ -280,19 +261,16 @@ public class excel extends StarMacro {
                             // Compute mean and standard deviation of gc data
                             stats = new SummaryStatistics();
                             for (columnIterator = 1; columnIterator <= numGcReports; columnIterator++) {
-                                for (rowIterator = data.size() - 1; rowIterator >= data.size() - numToAve; rowIterator--) {
-                                    String[] array = data.get(rowIterator);
-                                    stats.addValue(Double.parseDouble(array[columnIterator]));
+                                double[] values = table.getColumn(columnIterator);
+                                for (rowIterator = 0; rowIterator < table.getRowCount(); rowIterator++) {
+                                    stats.addValue(values[rowIterator]);
                                 }
                                 row.createCell(columnIterator + 4).setCellValue(stats.getMean());
                                 stats = new SummaryStatistics(); // clear report data
                             }
 
-                            // Save gc excel file
-                            fileOut = new FileOutputStream(workingDir + gcExcelFileName);
-                            gcWB.write(fileOut);
-                            fileOut.close();
-                            fs.close();
+                            // Record gc row, written on the flush cadence
+                            gcSink.endRow();
 
                             // Update excel data row number
                             ssCount++;
@@ -302,6 +280,17 @@ public class excel extends StarMacro {
             }
         } catch (IOException ex) {
             sim.println(ex);
+        } finally {
+            // Write rows still in memory, also after an error
+            for (ResultsSink sink : new ResultsSink[]{propSink, gcSink}) {
+                try {
+                    if (sink != null) {
+                        sink.close();
+                    }
+                } catch (IOException ex) {
+                    sim.println(ex);
+                }
+            }
         }
     }
 }
@@ -6,10 +6,10 @@ import java.io.*;
 import java.util.*;
 import org.apache.poi.hslf.usermodel.*;
 import org.apache.poi.hssf.usermodel.*;
-import org.apache.poi.poifs.filesystem.NPOIFSFileSystem;
+import org.apache.poi.ss.usermodel.Row;
 import org.apache.commons.math3.stat.descriptive.*;
-import com.opencsv.*;
 import star.common.*;
+import sweeputils.*;
 import star.vis.*;
 import star.base.neo.*;
 import star.flow.*;
@@ -76,6 +76,12 @@ public class fury4_bottomLeft extends StarMacro {
         int numToAve = 300; // number of iterations or timesteps to average for monitor data
         int numPropReports = 10; // number of reports being exported to csv file
         int numGcReports = 6;
+        int ssFlushEvery = 5; // cases between excel file writes
+        boolean resume = false; // keep the workbooks of an interrupted run, false starts them over
+        // cases that keep a .sim: "every", "geometry" (first rpm per mesh),
+        // "every <n>" or "last <k>" (see SavePolicy)
+        String savePolicy = "every";
+        String localSaveDir = ""; // local disk saved to first, "" saves to workingDir
 
         // Inclusion filters
         boolean IncludeAllImages = false;
@@ -131,13 +137,11 @@ public class fury4_bottomLeft extends StarMacro {
 
         FileOutputStream fileOut;
         HSLFSlideShow ppt;
-        HSSFWorkbook propWB;
-        HSSFWorkbook gcWB;
-        HSSFSheet sheet;
-        HSSFRow row;
-        NPOIFSFileSystem fs;
-        CSVReader reader;
-        List<String[]> data;
+        ResultsSink propSink = null;
+        ResultsSink gcSink = null;
+        SavePolicy saves = null;
+        Row row;
+        MonitorTable table;
         SummaryStatistics stats;
         HSLFSlide slide;
         HSLFTextParagraph tp;
@@ -212,27 +216,18 @@ public class fury4_bottomLeft extends StarMacro {
 
             // Set working directory to sim file location
             String workingDir = sim.getSessionDir() + "\\";
-            // Create prop excel workbook with headers
-            propWB = new HSSFWorkbook();
-            sheet = propWB.createSheet("prop data");
-            row = sheet.createRow(0);
-            for (i = 0; i < propHeaders.length; i++) {
-                row.createCell(i).setCellValue(propHeaders[i]);
+            // Rows are written by position, so a fresh run must not keep or
+            // replay rows of an earlier one
+            if (!resume) {
+                WorkbookSink.discard(workingDir + propExcelFileName);
+                WorkbookSink.discard(workingDir + gcExcelFileName);
             }
-            fileOut = new FileOutputStream(workingDir + propExcelFileName);
-            propWB.write(fileOut);
-            fileOut.close();
-
-            // Create gc excel workbook with headers
-            gcWB = new HSSFWorkbook();
-            sheet = gcWB.createSheet("gc data");
-            row = sheet.createRow(0);
-            for (i = 0; i < gcHeaders.length; i++) {
-                row.createCell(i).setCellValue(gcHeaders[i]);
-            }
-            fileOut = new FileOutputStream(workingDir + gcExcelFileName);
-            gcWB.write(fileOut);
-            fileOut.close();
+            // Open prop and gc excel workbooks once for the whole sweep
+            propSink = new XlsResultsSink(workingDir + propExcelFileName,
+                    "prop data", propHeaders, ssFlushEvery);
+            gcSink = new XlsResultsSink(workingDir + gcExcelFileName,
+                    "gc data", gcHeaders, ssFlushEvery);
+            saves = SavePolicy.parse(savePolicy, localSaveDir);
 
             // Open existing ppt and get the slides
             ppt = new HSLFSlideShow(new HSLFSlideShowImpl(workingDir + PPTFileName));
@@ -373,14 +368,10 @@ public class fury4_bottomLeft extends StarMacro {
                             // Prop
                             //---------------
                             // Read prop monitor plot files
-                            reader = new CSVReader(new FileReader(filename + "_prop.csv"));
-                            data = reader.readAll();
-
-                            // Open prop excel workbook
-                            fs = new NPOIFSFileSystem(new File(propExcelFileName));
-                            propWB = new HSSFWorkbook(fs.getRoot(), true);
-                            sheet = propWB.getSheet("prop data");
-                            row = sheet.createRow(ssCount);
+                            table = MonitorTable.readLast(filename + "_prop.csv", numToAve);
+
+                            // New row in the open prop workbook
+                            row = propSink.createRow(ssCount);
                             row.createCell(0).setCellValue(simTitle);
                             row.createCell(1).setCellValue(speed);
                             row.createCell(2).setCellValue(trim);
@@ -390,34 +381,27 @@ public class fury4_bottomLeft extends StarMacro {
                             // Compute mean and standard deviation of prop data
                             stats = new SummaryStatistics();
                             for (columnIterator = 1; columnIterator <= numPropReports; columnIterator++) {
-                                for (rowIterator = data.size() - 1; rowIterator >= data.size() - numToAve ; rowIterator--) {
-                                    String[] array = data.get(rowIterator);
-                                    stats.addValue(Double.parseDouble(array[columnIterator]));
+                                double[] values = table.getColumn(columnIterator);
+                                for (rowIterator = 0; rowIterator < table.getRowCount(); rowIterator++) {
+                                    stats.addValue(values[rowIterator]);
                                 }
                                 row.createCell(columnIterator + 4).setCellValue(stats.getMean());
                                 row.createCell(columnIterator + 4 + numPropReports).setCellValue(stats.getStandardDeviation());
                                 stats = new SummaryStatistics();
                             }
 
-                            // Save prop excel file
-                            fileOut = new FileOutputStream(workingDir + propExcelFileName);
-                            propWB.write(fileOut);
-                            fileOut.close();
-                            fs.close();
-                            sim.println("Generated prop excel file: " + workingDir + propExcelFileName);
+                            // Record prop row, written on the flush cadence
+                            propSink.endRow();
+                            sim.println("Added prop excel row: " + workingDir + propExcelFileName);
 
                             //---------------
                             // Gearcase (gc)
                             //---------------
                             // Read gc monitor plot files
-                            reader = new CSVReader(new FileReader(filename + "_gc.csv"));
-                            data = reader.readAll();
-
-                            // Open gc excel workbook
-                            fs = new NPOIFSFileSystem(new File(gcExcelFileName));
-                            gcWB = new HSSFWorkbook(fs.getRoot(), true);
-                            sheet = gcWB.getSheet("gc data");
-                            row = sheet.createRow(ssCount);
+                            table = MonitorTable.readLast(filename + "_gc.csv", numToAve);
+
+                            // New row in the open gc workbook
+                            row = gcSink.createRow(ssCount);
                             row.createCell(0).setCellValue(simTitle);
                             row.createCell(1).setCellValue(speed);
                             row.createCell(2).setCellValue(trim);
@@ -427,25 +411,27 @@ public class fury4_bottomLeft extends StarMacro {
                             // Compute mean and standard deviation of gc data
                             stats = new SummaryStatistics();
                             for (columnIterator = 1; columnIterator <= numGcReports; columnIterator++) {
-                                for (rowIterator = data.size() - 1; rowIterator >= data.size() - numToAve ; rowIterator--) {
-                                    String[] array = data.get(rowIterator);
-                                    stats.addValue(Double.parseDouble(array[columnIterator]));
+                                double[] values = table.getColumn(columnIterator);
+                                for (rowIterator = 0; rowIterator < table.getRowCount(); rowIterator++) {
+                                    stats.addValue(values[rowIterator]);
                                 }
                                 row.createCell(columnIterator + 4).setCellValue(stats.getMean());
                                 row.createCell(columnIterator + 4 + numGcReports).setCellValue(stats.getStandardDeviation());
                                 stats = new SummaryStatistics(); // clear report data
                             }
 
-                            // Save gc excel file
-                            fileOut = new FileOutputStream(workingDir + gcExcelFileName);
-                            gcWB.write(fileOut);
-                            fileOut.close();
-                            fs.close();
-                            sim.println("Generated gc excel file: " + workingDir + gcExcelFileName);
+                            // Record gc row, written on the flush cadence
+                            gcSink.endRow();
+                            sim.println("Added gc excel row: " + workingDir + gcExcelFileName);
                             //--------------------------------------------------
 
-                            // Save sim file                       
-                            sim.saveState(resolvePath(filename + ".sim"));
+                            // Save sim file if the policy keeps this case,
+                            // a local save is copied while the next rpm runs
+                            if (saves.isDue(m == 0)) {
+                                File target = saves.target(resolvePath(filename + ".sim"));
+                                sim.saveState(target.getPath());
+                                saves.saved(target, resolvePath(filename + ".sim"));
+                            }
                             // Clear solution history (not fields)
                             solution.clearSolution(Solution.Clear.History);
 
@@ -457,6 +443,28 @@ public class fury4_bottomLeft extends StarMacro {
             }
         } catch (IOException ex) {
             sim.println(ex);
+        } catch (InterruptedException ex) {
+            sim.println(ex);
+        } finally {
+            // Write rows still in memory, also after an error
+            for (ResultsSink sink : new ResultsSink[]{propSink, gcSink}) {
+                try {
+                    if (sink != null) {
+                        sink.close();
+                    }
+                } catch (IOException ex) {
+                    sim.println(ex);
+                }
+            }
+            // Finish copying sims to the working directory
+            try {
+                if (saves != null) {
+                    saves.close();
+                    sim.println(saves.summary());
+                }
+            } catch (Exception ex) {
+                sim.println(ex);
+            }
         }
     }
 }
@@ -16,20 +16,37 @@
 
 
 import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.util.*;
 import star.base.neo.*;
 import star.base.report.ElementCountReport;
 import star.base.report.MaxReport;
 import star.base.report.MinReport;
+import star.base.report.Report;
 import star.common.*;
 import star.meshing.SurfaceRep;
 import star.metrics.CellQualityRemediationModel;
 import star.vis.*;
+import sweeputils.MeshCache;
+import sweeputils.MeshQualityReport;
+import sweeputils.MetricHistogram;
+import sweeputils.QualityTrendStore;
 
 public class meshQualityCheck extends StarMacro {
 
     public ArrayList<String> output = new ArrayList<String>();
+    private RegionSnapshot regionSnapshot;
+    //inputs and report lines of each group of parts/reports/scenes, last run and this run
+    private Properties previousRun = new Properties();
+    private Properties thisRun = new Properties();
+    private Boolean incremental = false;
+    private int groupStart;
+    private Set<String> rebuilt = new HashSet<String>();
+    //seconds spent in each phase of this run, for the json report
+    private LinkedHashMap<String, Double> timings = new LinkedHashMap<String, Double>();
 
     public void execute() {
         //*************************************************************************
@@ -54,12 +71,23 @@ public class meshQualityCheck extends StarMacro {
         Boolean doStarView = false;
         //save simulation after finished?
         Boolean saveSim = false;
+        //only rebuild the parts, reports and scenes whose thresholds or regions
+        //changed since the last run? Unchanged results are taken from the last run
+        Boolean incremental = true;
+        //bin exported cell values instead of creating histogram plots? Much
+        //faster on large meshes, writes _<metric>.hist/.csv next to the sim
+        Boolean doBatchHistograms = false;
+        //append the cell counts and metrics to a trend store shared by the sims
+        //of a sweep? "" is meshQualityTrend.jsonl next to the sim
+        Boolean doTrendStore = true;
+        String trendStore = "";
         //*************************************************************************
         //******************END USER VARIABLE SECTION******************************
         //*************************************************************************
 
         //get initial variables
         Simulation sim = getActiveSimulation();
+        long t = System.nanoTime();
         ArrayList<PhysicsContinuum> cqrContinua = new ArrayList<PhysicsContinuum>();
         Boolean solids = false;
 
@@ -71,8 +99,17 @@ public class meshQualityCheck extends StarMacro {
         //close open scenes that meshQualityCheck generates
         closeScenes(sim);
 
-        //delete the old stuff
-        deleteOldSession(sim);
+        //fingerprint the regions, an incremental run compares them with the last run
+        this.incremental = incremental;
+        loadRunState(sim);
+        String layout = regionLayout(sim);
+        String mesh = regionFingerprints(sim);
+        t = time("fingerprint", t);
+
+        //delete the old stuff, an incremental run deletes each group only if it is rebuilt
+        if (!incremental) {
+            deleteOldSession(sim);
+        }
 
         //check version
         int version = version(sim);
@@ -93,66 +130,125 @@ public class meshQualityCheck extends StarMacro {
         }
 
         //generate groups
-        sim.getPartManager().getGroupsManager().createGroup("cellQualityParts");
-        sim.getReportManager().getGroupsManager().createGroup("cellQualityReports");
-        sim.getSceneManager().getGroupsManager().createGroup("cellQualityScenes");
-        sim.getPlotManager().getGroupsManager().createGroup("cellQualityPlots");
+        createGroups(sim, doMeshScenes);
 
-        if (doMeshScenes) {
+        if (doMeshScenes && !reuse(sim, "meshViews", layout)) {
             //get views of the mesh
-            sim.getSceneManager().getGroupsManager().createGroup("meshScenes");
             sceneGenMeshView(sim);
+            built("meshViews");
         }
+        t = time("setup", t);
 
         //get the cell count of fluids and solids
-        double solidCellCount = getCellCount(sim, 2);
-        double fluidCellCount = getCellCount(sim, 1);
+        double solidCellCount;
+        double fluidCellCount;
         //print the cell quality report
         sim.println("=====================================================");
         sim.println("Cell Quality Report:");
         sim.println("=====================================================");
-        String temp = "Fluid cells: " + String.format("%40s", fluidCellCount);
-        sim.println(temp);
-        output.add(temp);
-        if (solids) {
-            temp = "Solid cells: " + String.format("%40s", solidCellCount);
+        if (reuse(sim, "cellCount", layout, mesh)) {
+            solidCellCount = Double.parseDouble(previousRun.getProperty("value.solidCells"));
+            fluidCellCount = Double.parseDouble(previousRun.getProperty("value.fluidCells"));
+        } else {
+            double[] cellCounts = getCellCounts(sim);
+            fluidCellCount = cellCounts[0];
+            solidCellCount = cellCounts[1];
+            String temp = "Fluid cells: " + String.format("%40s", fluidCellCount);
             sim.println(temp);
             output.add(temp);
+            if (solids) {
+                temp = "Solid cells: " + String.format("%40s", solidCellCount);
+                sim.println(temp);
+                output.add(temp);
+            }
+            built("cellCount");
         }
-        createCellQualityMetric(sim, cellQualityThreshold, fluidCellCount, solidCellCount, solids);
-        createSkewnessMetric(sim, skewnessThreshold, fluidCellCount, solidCellCount, solids);
-        volChangeMetric(sim, volumeChangeThreshold, fluidCellCount, solidCellCount, solids);
-        if (doBadCellIndicator && version > 806) {
+        thisRun.setProperty("value.solidCells", String.valueOf(solidCellCount));
+        thisRun.setProperty("value.fluidCells", String.valueOf(fluidCellCount));
+        if (!reuse(sim, "cellQuality", layout, mesh, "" + cellQualityThreshold)) {
+            createCellQualityMetric(sim, cellQualityThreshold, fluidCellCount, solidCellCount, solids);
+            built("cellQuality");
+        }
+        if (!reuse(sim, "skewness", layout, mesh, "" + skewnessThreshold)) {
+            createSkewnessMetric(sim, skewnessThreshold, fluidCellCount, solidCellCount, solids);
+            built("skewness");
+        }
+        if (!reuse(sim, "volumeChange", layout, mesh, "" + volumeChangeThreshold)) {
+            volChangeMetric(sim, volumeChangeThreshold, fluidCellCount, solidCellCount, solids);
+            built("volumeChange");
+        }
+        if (doBadCellIndicator && version > 806 && !reuse(sim, "badCells", layout, mesh)) {
             badCellIndicatorMetric(sim, fluidCellCount, solidCellCount, solids);
+            built("badCells");
+        }
+        if (!reuse(sim, "negVolume", layout, mesh)) {
+            negVolCellCount(sim);
+            built("negVolume");
+        }
+        if (!reuse(sim, "maxSkewness", layout, mesh)) {
+            maxSkewnessMetric(sim);
+            built("maxSkewness");
+        }
+        if (!reuse(sim, "minCellQuality", layout, mesh)) {
+            minCellQualityMetric(sim);
+            built("minCellQuality");
         }
-        negVolCellCount(sim);
-        maxSkewnessMetric(sim);
-        minCellQualityMetric(sim);
         sim.println("=====================================================");
+        t = time("metrics", t);
 
-        //do prisms if desired
-        if (doPrisms) {
+        //do prisms if desired, the threshold part follows the mesh by itself
+        if (doPrisms && !reuse(sim, "prisms", layout)) {
             prismCells(sim);
+            built("prisms");
         }
 
-        //create scenes
-        sceneGenCellQuality(sim, cellQualityThreshold, solids, translucentGeometry);
-        sceneGenSkewness(sim, skewnessThreshold, solids, translucentGeometry);
-        sceneGenVolChange(sim, volumeChangeThreshold, solids, translucentGeometry);
-        if (doBadCellIndicator && version > 806) {
+        //create scenes, a scene is rebuilt with the parts it shows
+        String look = "" + translucentGeometry;
+        if (!reuseScene(sim, "cellQualityScene", "cellQuality", look)) {
+            sceneGenCellQuality(sim, cellQualityThreshold, solids, translucentGeometry);
+            built("cellQualityScene");
+        }
+        if (!reuseScene(sim, "skewnessScene", "skewness", look)) {
+            sceneGenSkewness(sim, skewnessThreshold, solids, translucentGeometry);
+            built("skewnessScene");
+        }
+        if (!reuseScene(sim, "volumeChangeScene", "volumeChange", look)) {
+            sceneGenVolChange(sim, volumeChangeThreshold, solids, translucentGeometry);
+            built("volumeChangeScene");
+        }
+        if (doBadCellIndicator && version > 806 && !reuseScene(sim, "badCellsScene", "badCells", look)) {
             sceneGenBadCell(sim, solids, translucentGeometry);
+            built("badCellsScene");
         }
-        if (doPrisms) {
+        if (doPrisms && !reuseScene(sim, "prismsScene", "prisms", look)) {
             sceneGenPrisms(sim, translucentGeometry);
+            built("prismsScene");
+        }
+        if (!reuse(sim, "surfaceScenes", layout)) {
+            sceneGenSurfaceQuality(sim);
+            sceneGenSurfaceSkewness(sim);
+            built("surfaceScenes");
+        }
+        if (!reuseScene(sim, "negVolumeScene", "negVolume", look)) {
+            sceneGenNegVolume(sim, translucentGeometry);
+            built("negVolumeScene");
         }
-        sceneGenSurfaceQuality(sim);
-        sceneGenSurfaceSkewness(sim);
-        sceneGenNegVolume(sim, translucentGeometry);
 
-        //create histogram
-        cellQualityHistogram(sim, version);
-        skewnessHistogram(sim);
-        volumeChangeHistogram(sim);
+        t = time("scenes", t);
+
+        //create histogram, plots follow the mesh, binned files do not
+        if (doBatchHistograms) {
+            if (!reuse(sim, "batchHistograms", layout, mesh)) {
+                batchHistograms(sim);
+                built("batchHistograms");
+            }
+        } else if (!reuse(sim, "histograms", layout)) {
+            cellQualityHistogram(sim, version);
+            skewnessHistogram(sim);
+            volumeChangeHistogram(sim);
+            built("histograms");
+        }
+        t = time("histograms", t);
 
         if (version <= 906) {
             disableImmediateMode(sim);
@@ -168,8 +264,11 @@ public class meshQualityCheck extends StarMacro {
             disableCellQualityRemediation(sim, cqrContinua);
         }
 
-        //write text file
+        //write text file, the json report and the trend store record
         writeOutput(sim);
+        time("output", t);
+        writeReport(sim, mesh, solids, cellQualityThreshold, skewnessThreshold, volumeChangeThreshold, doBatchHistograms, doTrendStore ? trendStore : null);
+        saveRunState(sim);
 
         //save sim
         if (saveSim) {
@@ -179,14 +278,285 @@ public class meshQualityCheck extends StarMacro {
     }
 
     private Boolean determineIfSolids(Simulation sim) {
-        Boolean solids = false;
-        Collection<Region> regions = sim.getRegionManager().getRegions();
-        for (Region ri : regions) {
-            if (ri.getRegionType() instanceof SolidRegion) {
-                solids = true;
+        return regions(sim).solids;
+    }
+
+    private void createGroups(Simulation sim, Boolean doMeshScenes) {
+        //an incremental run keeps the groups it already has
+        Boolean has;
+        try {
+            has = sim.getPartManager().getGroupsManager().getObject("cellQualityParts") != null;
+        } catch (Exception e) {
+            has = false;
+        }
+        if (!incremental || !has) {
+            sim.getPartManager().getGroupsManager().createGroup("cellQualityParts");
+        }
+        try {
+            has = sim.getReportManager().getGroupsManager().getObject("cellQualityReports") != null;
+        } catch (Exception e) {
+            has = false;
+        }
+        if (!incremental || !has) {
+            sim.getReportManager().getGroupsManager().createGroup("cellQualityReports");
+        }
+        try {
+            has = sim.getSceneManager().getGroupsManager().getObject("cellQualityScenes") != null;
+        } catch (Exception e) {
+            has = false;
+        }
+        if (!incremental || !has) {
+            sim.getSceneManager().getGroupsManager().createGroup("cellQualityScenes");
+        }
+        try {
+            has = sim.getPlotManager().getGroupsManager().getObject("cellQualityPlots") != null;
+        } catch (Exception e) {
+            has = false;
+        }
+        if (!incremental || !has) {
+            sim.getPlotManager().getGroupsManager().createGroup("cellQualityPlots");
+        }
+        if (doMeshScenes) {
+            try {
+                has = sim.getSceneManager().getGroupsManager().getObject("meshScenes") != null;
+            } catch (Exception e) {
+                has = false;
+            }
+            if (!incremental || !has) {
+                sim.getSceneManager().getGroupsManager().createGroup("meshScenes");
+            }
+        }
+    }
+
+    private String stateFile(Simulation sim) {
+        return sim.getSessionPath().replaceFirst(".sim", "") + "_qualityState.properties";
+    }
+
+    private void loadRunState(Simulation sim) {
+        File file = new File(stateFile(sim));
+        if (!incremental || !file.exists()) {
+            return;
+        }
+        try {
+            FileInputStream in = new FileInputStream(file);
+            try {
+                previousRun.load(in);
+            } finally {
+                in.close();
+            }
+        } catch (Exception e) {
+            sim.println("Error reading " + file + ", rebuilding everything");
+            previousRun.clear();
+        }
+    }
+
+    private void saveRunState(Simulation sim) {
+        try {
+            FileOutputStream out = new FileOutputStream(stateFile(sim));
+            try {
+                thisRun.store(out, "meshQualityCheck inputs of the last run");
+            } finally {
+                out.close();
+            }
+        } catch (Exception e) {
+            sim.println("Error writing " + stateFile(sim) + ": " + e.getMessage());
+        }
+    }
+
+    private String regionLayout(Simulation sim) {
+        //names and fluid/solid/shell class of the regions, what the parts are built from
+        RegionSnapshot rs = regions(sim);
+        ArrayList<String> names = new ArrayList<String>();
+        for (Region ri : rs.regions) {
+            String type = rs.fluidRegions.contains(ri) ? "fluid" : (ri instanceof ShellRegion) ? "shell" : "solid";
+            names.add(ri.getPresentationName() + ":" + type);
+        }
+        Collections.sort(names);
+        return MeshCache.hash(names.toArray(new String[names.size()]));
+    }
+
+    private String regionFingerprints(Simulation sim) {
+        //cell count, lowest cell quality, highest skewness and lowest volume change
+        //of each region, cheap reports that change whenever a region is remeshed;
+        //volume change is in so its groups are not reused for a mesh that only
+        //differs there
+        ElementCountReport count = sim.getReportManager().createReport(ElementCountReport.class);
+        MinReport quality = sim.getReportManager().createReport(MinReport.class);
+        quality.setScalar(sim.getFieldFunctionManager().getFunction("CellQuality"));
+        MaxReport skewness = sim.getReportManager().createReport(MaxReport.class);
+        skewness.setScalar(sim.getFieldFunctionManager().getFunction("SkewnessAngle"));
+        MinReport volumeChange = sim.getReportManager().createReport(MinReport.class);
+        volumeChange.setScalar(sim.getFieldFunctionManager().getFunction("VolumeChange"));
+        ArrayList<String> prints = new ArrayList<String>();
+        ArrayList<String> changed = new ArrayList<String>();
+        for (Region ri : regions(sim).regions) {
+            count.getParts().setObjects(ri);
+            quality.getParts().setObjects(ri);
+            skewness.getParts().setObjects(ri);
+            volumeChange.getParts().setObjects(ri);
+            String print = String.format("%.0f/%.6g/%.6g/%.6g", count.getReportMonitorValue(), quality.getReportMonitorValue(), skewness.getReportMonitorValue(), volumeChange.getReportMonitorValue());
+            String name = ri.getPresentationName();
+            thisRun.setProperty("region." + name, print);
+            if (!print.equals(previousRun.getProperty("region." + name))) {
+                changed.add(name);
+            }
+            prints.add(name + "=" + print);
+        }
+        sim.getReportManager().removeObjects(count, quality, skewness, volumeChange);
+        if (incremental && !previousRun.isEmpty()) {
+            sim.println(changed.isEmpty() ? "No region changed since the last check" : "Regions changed since the last check: " + changed);
+        }
+        Collections.sort(prints);
+        return MeshCache.hash(prints.toArray(new String[prints.size()]));
+    }
+
+    private Boolean reuse(Simulation sim, String group, String... inputs) {
+        //true if the last run built this group from the same inputs and it
+        //still exists, its report lines are printed again; otherwise the old
+        //group is deleted to be rebuilt, followed by built()
+        String key = MeshCache.hash(inputs);
+        thisRun.setProperty("key." + group, key);
+        if (incremental && key.equals(previousRun.getProperty("key." + group)) && groupExists(sim, group)) {
+            String lines = previousRun.getProperty("lines." + group, "");
+            for (String line : lines.split("\n")) {
+                if (!line.isEmpty()) {
+                    sim.println(line);
+                    output.add(line);
+                }
+            }
+            thisRun.setProperty("lines." + group, lines);
+            //the report values of a reused group carry over to the json report
+            for (String object : groupObjects(group)) {
+                String value = "value." + object.substring(object.indexOf(':') + 1);
+                if (object.startsWith("report:") && previousRun.getProperty(value) != null) {
+                    thisRun.setProperty(value, previousRun.getProperty(value));
+                }
+            }
+            return true;
+        }
+        if (incremental) {
+            deleteGroup(sim, group);
+        }
+        groupStart = output.size();
+        return false;
+    }
+
+    private Boolean reuseScene(Simulation sim, String group, String parts, String... inputs) {
+        //a scene is rebuilt whenever the parts it shows were
+        String[] all = Arrays.copyOf(inputs, inputs.length + 1);
+        all[inputs.length] = thisRun.getProperty("key." + parts);
+        if (rebuilt.contains(parts)) {
+            previousRun.remove("key." + group);
+        }
+        return reuse(sim, group, all);
+    }
+
+    private void built(String group) {
+        rebuilt.add(group);
+        StringBuilder lines = new StringBuilder();
+        for (String line : output.subList(groupStart, output.size())) {
+            lines.append(line).append("\n");
+        }
+        thisRun.setProperty("lines." + group, lines.toString());
+    }
+
+    private double value(String report, double value) {
+        //keeps a report value for the json report and the next incremental run
+        thisRun.setProperty("value." + report, String.valueOf(value));
+        return value;
+    }
+
+    private double value(String report) {
+        String value = thisRun.getProperty("value." + report);
+        return value == null ? Double.NaN : Double.parseDouble(value);
+    }
+
+    private long time(String phase, long start) {
+        long now = System.nanoTime();
+        timings.put(phase, (now - start) / 1e9);
+        return now;
+    }
+
+    private String[] groupObjects(String group) {
+        //what each group creates, the first entry exists whenever the group does
+        if (group.equals("meshViews")) {
+            return new String[]{"scene:Mesh View: Z", "scene:Mesh View: Y", "scene:Mesh View: X", "part:Zsurface", "part:Ysurface", "part:Xsurface", "part:Zsection", "part:Ysection", "part:Xsection"};
+        } else if (group.equals("cellQuality")) {
+            return new String[]{"report:cellQualityFluid", "report:cellQualitySolid", "part:cellQualityFluid", "part:cellQualitySolid"};
+        } else if (group.equals("skewness")) {
+            return new String[]{"report:skewnessFluid", "report:skewnessSolid", "part:skewnessFluid", "part:skewnessSolid"};
+        } else if (group.equals("volumeChange")) {
+            return new String[]{"report:volumeChangeFluid", "report:volumeChangeSolid", "part:volumeChangeFluid", "part:volumeChangeSolid"};
+        } else if (group.equals("badCells")) {
+            return new String[]{"report:badCellsFluid", "report:badCellsSolid", "part:badCellsFluid", "part:badCellsSolid"};
+        } else if (group.equals("negVolume")) {
+            return new String[]{"report:negVolumeCells", "part:volume"};
+        } else if (group.equals("maxSkewness")) {
+            return new String[]{"report:maxCellSkewness"};
+        } else if (group.equals("minCellQuality")) {
+            return new String[]{"report:minCellQuality"};
+        } else if (group.equals("prisms")) {
+            return new String[]{"part:prisms"};
+        } else if (group.equals("cellQualityScene")) {
+            return new String[]{"scene:Cell Quality: Volume"};
+        } else if (group.equals("skewnessScene")) {
+            return new String[]{"scene:Skewness: Volume"};
+        } else if (group.equals("volumeChangeScene")) {
+            return new String[]{"scene:Volume Change"};
+        } else if (group.equals("badCellsScene")) {
+            return new String[]{"scene:Bad Cells"};
+        } else if (group.equals("prismsScene")) {
+            return new String[]{"scene:Prism Cells"};
+        } else if (group.equals("negVolumeScene")) {
+            return new String[]{"scene:Negative Volume Cells"};
+        } else if (group.equals("surfaceScenes")) {
+            return new String[]{"scene:Cell Quality: Surface", "scene:Skewness: Surface"};
+        } else if (group.equals("histograms")) {
+            return new String[]{"plot:Cell Quality Histogram", "plot:Skewness Histogram", "plot:Volume Change Histogram"};
+        }
+        //cell counts and binned histograms only leave report lines and files
+        return new String[]{};
+    }
+
+    private Object groupObject(Simulation sim, String object) {
+        String name = object.substring(object.indexOf(':') + 1);
+        try {
+            if (object.startsWith("part:")) {
+                return sim.getPartManager().getPart(name);
+            } else if (object.startsWith("report:")) {
+                return sim.getReportManager().getReport(name);
+            } else if (object.startsWith("scene:")) {
+                return sim.getSceneManager().getScene(name);
+            } else if (object.startsWith("plot:")) {
+                return sim.getPlotManager().getPlot(name);
+            }
+        } catch (Exception e) {
+        }
+        return null;
+    }
+
+    private Boolean groupExists(Simulation sim, String group) {
+        String[] objects = groupObjects(group);
+        return objects.length == 0 || groupObject(sim, objects[0]) != null;
+    }
+
+    private void deleteGroup(Simulation sim, String group) {
+        //scenes first, then the reports and parts they show
+        for (String object : groupObjects(group)) {
+            Object o = groupObject(sim, object);
+            try {
+                if (o instanceof Scene) {
+                    deleteScene(sim, (Scene) o);
+                } else if (o instanceof Report) {
+                    sim.getReportManager().removeObjects((Report) o);
+                } else if (o instanceof Part) {
+                    deletePart(sim, (Part) o);
+                } else if (o instanceof HistogramPlot) {
+                    deletePlot(sim, (HistogramPlot) o);
+                }
+            } catch (Exception e) {
             }
         }
-        return solids;
     }
 
     private void deleteOldSession(Simulation sim) {
@@ -286,35 +656,19 @@ public class meshQualityCheck extends StarMacro {
         sim.getSceneManager().remove(scene);
     }
 
-    private double getCellCount(Simulation sim, int regionSwitch) {
-        double cellCount = 0;
-        //generate reports and collections of regions
+    private double[] getCellCounts(Simulation sim) {
+        //fluid and solid cell counts from one report, solids only if there are any
+        double cellCounts[] = {0, 0};
+        RegionSnapshot rs = regions(sim);
         ElementCountReport ECR = sim.getReportManager().createReport(ElementCountReport.class);
-        Collection<Region> loopRegions = sim.getRegionManager().getRegions();
-        Collection<Region> fluidRegions = sim.getRegionManager().getRegions();
-        Collection<Region> solidRegions = sim.getRegionManager().getRegions();
-
-        for (Region ri : loopRegions) {
-            if (((ri.getRegionType() instanceof FluidRegion) || (ri.getRegionType() instanceof PorousRegion)) && (!(ri instanceof ShellRegion))) {
-                //this region is NOT of type solid, so remove it from the fluids
-                solidRegions.remove(ri);
-            } else if (!(ri instanceof ShellRegion)) {
-                //this region is NOT of type fluid/porous, so we know solids exist
-                //remove this non-solid from the solid boundaries
-                fluidRegions.remove(ri);
-            }
-        }
-        //generate cell count depending on what type of region
-        if (regionSwitch == 1) {
-            ECR.getParts().setObjects(fluidRegions);
-            cellCount = ECR.getReportMonitorValue();
-        } else if (regionSwitch == 2) {
-            ECR.getParts().setObjects(solidRegions);
-            cellCount = ECR.getReportMonitorValue();
+        ECR.getParts().setObjects(rs.fluidRegions);
+        cellCounts[0] = ECR.getReportMonitorValue();
+        if (!rs.solidRegions.isEmpty()) {
+            ECR.getParts().setObjects(rs.solidRegions);
+            cellCounts[1] = ECR.getReportMonitorValue();
         }
-
         sim.getReportManager().remove(ECR);
-        return cellCount;
+        return cellCounts;
     }
 
     private Boolean createCellQualityMetric(Simulation sim, double cellQualityThreshold, double fluidCellCount, double solidCellCount, Boolean solids) {
@@ -322,28 +676,14 @@ public class meshQualityCheck extends StarMacro {
         Units units = ((Units) sim.getUnitsManager().getObject("m"));
         CellQualityFunction cqf = ((CellQualityFunction) sim.getFieldFunctionManager().getFunction("CellQuality"));
         double range[] = {cellQualityThreshold, 1.0};
-        Collection<Region> fluidRegions = sim.getRegionManager().getRegions();
-        Collection<Region> solidRegions = sim.getRegionManager().getRegions();
-        Collection<Boundary> fluidBoundaries = new ArrayList<Boundary>();
-        Collection<Boundary> solidBoundaries = new ArrayList<Boundary>();
-        Collection<Region> loopRegions = sim.getRegionManager().getRegions();
-        //find out which regions are solid and get all boundaries in collections
-        for (Region ri : loopRegions) {
-            if (((ri.getRegionType() instanceof FluidRegion) || (ri.getRegionType() instanceof PorousRegion)) && (!(ri instanceof ShellRegion))) {
-                //this region is NOT of type solid, so remove it from the fluids
-                solidRegions.remove(ri);
-                //this region IS of type fluid/porous, so add its boundaries
-                fluidBoundaries.addAll(ri.getBoundaryManager().getBoundaries());
-            } else if (!(ri instanceof ShellRegion)) {
-                //this region is NOT of type fluid/porous, so we know solids exist
-                solids = true;
-                //remove this non-solid from the solid boundaries
-                fluidRegions.remove(ri);
-                solidBoundaries.addAll(ri.getBoundaryManager().getBoundaries());
-            } else if (ri instanceof ShellRegion) {
-                //this is a shell region, remove it from the fluids
-                fluidRegions.remove(ri);
-            }
+        //fluid/solid regions and their boundaries from the shared snapshot
+        RegionSnapshot rs = regions(sim);
+        Collection<Region> fluidRegions = rs.fluidRegions;
+        Collection<Region> solidRegions = rs.solidRegions;
+        Collection<Boundary> fluidBoundaries = rs.fluidBoundaries;
+        Collection<Boundary> solidBoundaries = rs.solidBoundaries;
+        if (rs.nonFluid) {
+            solids = true;
         }
         //generate the parts for cell quality on fluids
         ThresholdPart cqTPf = sim.getPartManager().createThresholdPart(new NeoObjectVector(fluidRegions.toArray()), new DoubleVector(range), units, cqf, 2);
@@ -355,7 +695,8 @@ public class meshQualityCheck extends StarMacro {
         //group the parts
         sim.getPartManager().getGroupsManager().getObject("cellQualityParts").addObjects(new NeoObjectVector(new Object[]{cqTPf}));
         sim.getReportManager().getGroupsManager().getObject("cellQualityReports").addObjects(new NeoObjectVector(new Object[]{cqRf}));
-        String outputTemp = String.format("%-40s", "Fluid cells below quality " + String.format("%1.2f", cellQualityThreshold) + ": ") + String.format("%6s", String.format("%5.0f", cqRf.getReportMonitorValue())) + " " + String.format("%5.2f", (cqRf.getReportMonitorValue() / fluidCellCount * 100)) + "%";
+        double fluidCount = value("cellQualityFluid", cqRf.getReportMonitorValue());
+        String outputTemp = String.format("%-40s", "Fluid cells below quality " + String.format("%1.2f", cellQualityThreshold) + ": ") + String.format("%6s", String.format("%5.0f", fluidCount)) + " " + String.format("%5.2f", (fluidCount / fluidCellCount * 100)) + "%";
         sim.println(outputTemp);
         output.add(outputTemp);
         //if solid regions exist, also do it on solids
@@ -369,7 +710,8 @@ public class meshQualityCheck extends StarMacro {
             cqRs.getParts().setObjects(cqTPs);
             sim.getPartManager().getGroupsManager().getObject("cellQualityParts").addObjects(new NeoObjectVector(new Object[]{cqTPs}));
             sim.getReportManager().getGroupsManager().getObject("cellQualityReports").addObjects(new NeoObjectVector(new Object[]{cqRs}));
-            outputTemp = String.format("%-40s", "Solid cells below quality " + String.format("%1.2f", cellQualityThreshold) + ": ") + String.format("%6s", String.format("%5.0f", cqRs.getReportMonitorValue())) + " " + String.format("%5.2f", (cqRs.getReportMonitorValue() / solidCellCount * 100)) + "%";
+            double solidCount = value("cellQualitySolid", cqRs.getReportMonitorValue());
+            outputTemp = String.format("%-40s", "Solid cells below quality " + String.format("%1.2f", cellQualityThreshold) + ": ") + String.format("%6s", String.format("%5.0f", solidCount)) + " " + String.format("%5.2f", (solidCount / solidCellCount * 100)) + "%";
             sim.println(outputTemp);
             output.add(outputTemp);
         }
@@ -381,28 +723,14 @@ public class meshQualityCheck extends StarMacro {
         Units units = ((Units) sim.getUnitsManager().getObject("m"));
         SkewnessAngleFunction skf = ((SkewnessAngleFunction) sim.getFieldFunctionManager().getFunction("SkewnessAngle"));
         double range[] = {0.0, skewnessThreshold};
-        Collection<Region> fluidRegions = sim.getRegionManager().getRegions();
-        Collection<Region> solidRegions = sim.getRegionManager().getRegions();
-        Collection<Boundary> fluidBoundaries = new ArrayList<Boundary>();
-        Collection<Boundary> solidBoundaries = new ArrayList<Boundary>();
-        Collection<Region> loopRegions = sim.getRegionManager().getRegions();
-        //find out which regions are solid and get all boundaries in collections
-        for (Region ri : loopRegions) {
-            if (((ri.getRegionType() instanceof FluidRegion) || (ri.getRegionType() instanceof PorousRegion)) && (!(ri instanceof ShellRegion))) {
-                //this region is NOT of type solid, so remove it from the fluids
-                solidRegions.remove(ri);
-                //this region IS of type fluid/porous, so add its boundaries
-                fluidBoundaries.addAll(ri.getBoundaryManager().getBoundaries());
-            } else if (!(ri instanceof ShellRegion)) {
-                //this region is NOT of type fluid/porous, so we know solids exist
-                solids = true;
-                //remove this non-solid from the solid boundaries
-                fluidRegions.remove(ri);
-                solidBoundaries.addAll(ri.getBoundaryManager().getBoundaries());
-            } else if (ri instanceof ShellRegion) {
-                //this is a shell region, remove it from the fluids
-                fluidRegions.remove(ri);
-            }
+        //fluid/solid regions and their boundaries from the shared snapshot
+        RegionSnapshot rs = regions(sim);
+        Collection<Region> fluidRegions = rs.fluidRegions;
+        Collection<Region> solidRegions = rs.solidRegions;
+        Collection<Boundary> fluidBoundaries = rs.fluidBoundaries;
+        Collection<Boundary> solidBoundaries = rs.solidBoundaries;
+        if (rs.nonFluid) {
+            solids = true;
         }
         //generate the parts for cell quality on fluids
         ThresholdPart skTPf = sim.getPartManager().createThresholdPart(new NeoObjectVector(fluidRegions.toArray()), new DoubleVector(range), units, skf, 1);
@@ -417,11 +745,12 @@ public class meshQualityCheck extends StarMacro {
         }));
         sim.getReportManager().getGroupsManager().getObject("cellQualityReports").addObjects(new NeoObjectVector(new Object[]{skRf
         }));
-        String outputTemp = String.format("%-40s", "Fluid cells above skewness angle " + String.format("%1.1f", skewnessThreshold) + ": ") + String.format("%6s", String.format("%5.0f", skRf.getReportMonitorValue())) + " " + String.format("%5.2f", (skRf.getReportMonitorValue() / fluidCellCount * 100)) + "%";
+        double fluidCount = value("skewnessFluid", skRf.getReportMonitorValue());
+        String outputTemp = String.format("%-40s", "Fluid cells above skewness angle " + String.format("%1.1f", skewnessThreshold) + ": ") + String.format("%6s", String.format("%5.0f", fluidCount)) + " " + String.format("%5.2f", (fluidCount / fluidCellCount * 100)) + "%";
 
         sim.println(outputTemp);
         //if solid regions exist, also do it on solids
-        output.add("Fluid cells above skewness angle " + skewnessThreshold + ": " + skRf.getReportMonitorValue() + " " + String.format("%.2f", (skRf.getReportMonitorValue() / fluidCellCount * 100)) + "%");
+        output.add("Fluid cells above skewness angle " + skewnessThreshold + ": " + fluidCount + " " + String.format("%.2f", (fluidCount / fluidCellCount * 100)) + "%");
 
         if (solids) {
             ThresholdPart skTPs = sim.getPartManager().createThresholdPart(new NeoObjectVector(solidRegions.toArray()), new DoubleVector(range), units, skf, 1);
@@ -432,7 +761,8 @@ public class meshQualityCheck extends StarMacro {
             skRs.getParts().setObjects(skTPs);
             sim.getPartManager().getGroupsManager().getObject("cellQualityParts").addObjects(new NeoObjectVector(new Object[]{skTPs}));
             sim.getReportManager().getGroupsManager().getObject("cellQualityReports").addObjects(new NeoObjectVector(new Object[]{skRs}));
-            outputTemp = String.format("%-40s", "Solid cells above skewness angle " + String.format("%1.1f", skewnessThreshold) + ": ") + String.format("%6s", String.format("%5.0f", skRs.getReportMonitorValue())) + " " + String.format("%5.2f", (skRs.getReportMonitorValue() / solidCellCount * 100)) + "%";
+            double solidCount = value("skewnessSolid", skRs.getReportMonitorValue());
+            outputTemp = String.format("%-40s", "Solid cells above skewness angle " + String.format("%1.1f", skewnessThreshold) + ": ") + String.format("%6s", String.format("%5.0f", solidCount)) + " " + String.format("%5.2f", (solidCount / solidCellCount * 100)) + "%";
             sim.println(outputTemp);
             output.add(outputTemp);
         }
@@ -443,28 +773,14 @@ public class meshQualityCheck extends StarMacro {
         Units units = ((Units) sim.getUnitsManager().getObject("m"));
         VolumeChangeFunction vcf = ((VolumeChangeFunction) sim.getFieldFunctionManager().getFunction("VolumeChange"));
         double range[] = {volumeChangeThreshold, 1.0};
-        Collection<Region> fluidRegions = sim.getRegionManager().getRegions();
-        Collection<Region> solidRegions = sim.getRegionManager().getRegions();
-        Collection<Boundary> fluidBoundaries = new ArrayList<Boundary>();
-        Collection<Boundary> solidBoundaries = new ArrayList<Boundary>();
-        Collection<Region> loopRegions = sim.getRegionManager().getRegions();
-        //find out which regions are solid and get all boundaries in collections
-        for (Region ri : loopRegions) {
-            if (((ri.getRegionType() instanceof FluidRegion) || (ri.getRegionType() instanceof PorousRegion)) && (!(ri instanceof ShellRegion))) {
-                //this region is NOT of type solid, so remove it from the fluids
-                solidRegions.remove(ri);
-                //this region IS of type fluid/porous, so add its boundaries
-                fluidBoundaries.addAll(ri.getBoundaryManager().getBoundaries());
-            } else if (!(ri instanceof ShellRegion)) {
-                //this region is NOT of type fluid/porous, so we know solids exist
-                solids = true;
-                //remove this non-solid from the solid boundaries
-                fluidRegions.remove(ri);
-                solidBoundaries.addAll(ri.getBoundaryManager().getBoundaries());
-            } else if (ri instanceof ShellRegion) {
-                //this is a shell region, remove it from the fluids
-                fluidRegions.remove(ri);
-            }
+        //fluid/solid regions and their boundaries from the shared snapshot
+        RegionSnapshot rs = regions(sim);
+        Collection<Region> fluidRegions = rs.fluidRegions;
+        Collection<Region> solidRegions = rs.solidRegions;
+        Collection<Boundary> fluidBoundaries = rs.fluidBoundaries;
+        Collection<Boundary> solidBoundaries = rs.solidBoundaries;
+        if (rs.nonFluid) {
+            solids = true;
         }
         //generate the parts for cell quality on fluids
         ThresholdPart vcTPf = sim.getPartManager().createThresholdPart(new NeoObjectVector(fluidRegions.toArray()), new DoubleVector(range), units, vcf, 2);
@@ -476,7 +792,8 @@ public class meshQualityCheck extends StarMacro {
         //group the parts
         sim.getPartManager().getGroupsManager().getObject("cellQualityParts").addObjects(new NeoObjectVector(new Object[]{vcTPf}));
         sim.getReportManager().getGroupsManager().getObject("cellQualityReports").addObjects(new NeoObjectVector(new Object[]{vcRf}));
-        String outputTemp = String.format("%-40s", "Fluid cells below volume change " + String.format("%1.2f", volumeChangeThreshold) + ": ") + String.format("%6s", String.format("%5.0f", vcRf.getReportMonitorValue())) + " " + String.format("%5.2f", (vcRf.getReportMonitorValue() / fluidCellCount * 100)) + "%";
+        double fluidCount = value("volumeChangeFluid", vcRf.getReportMonitorValue());
+        String outputTemp = String.format("%-40s", "Fluid cells below volume change " + String.format("%1.2f", volumeChangeThreshold) + ": ") + String.format("%6s", String.format("%5.0f", fluidCount)) + " " + String.format("%5.2f", (fluidCount / fluidCellCount * 100)) + "%";
 
         sim.println(outputTemp);
         //if solid regions exist, also do it on solids
@@ -491,7 +808,8 @@ public class meshQualityCheck extends StarMacro {
             vcRs.getParts().setObjects(vcTPs);
             sim.getPartManager().getGroupsManager().getObject("cellQualityParts").addObjects(new NeoObjectVector(new Object[]{vcTPs}));
             sim.getReportManager().getGroupsManager().getObject("cellQualityReports").addObjects(new NeoObjectVector(new Object[]{vcRs}));
-            outputTemp = String.format("%-40s", "Solid cells below volume change " + String.format("%1.2f", volumeChangeThreshold) + ": ") + String.format("%6s", String.format("%5.0f", vcRs.getReportMonitorValue())) + " " + String.format("%5.2f", (vcRs.getReportMonitorValue() / solidCellCount * 100)) + "%";
+            double solidCount = value("volumeChangeSolid", vcRs.getReportMonitorValue());
+            outputTemp = String.format("%-40s", "Solid cells below volume change " + String.format("%1.2f", volumeChangeThreshold) + ": ") + String.format("%6s", String.format("%5.0f", solidCount)) + " " + String.format("%5.2f", (solidCount / solidCellCount * 100)) + "%";
 
             sim.println(outputTemp);
             output.add(outputTemp);
@@ -501,14 +819,9 @@ public class meshQualityCheck extends StarMacro {
     private void negVolCellCount(Simulation sim) {
         //generate variables required for cell quality metric
         Units units = ((Units) sim.getUnitsManager().getObject("m"));
-        Collection<Region> regions = sim.getRegionManager().getRegions();
-        Collection<Boundary> boundaries = new ArrayList<Boundary>();
-        for (Region ri : regions) {
-            Collection<Boundary> boundTemp = ri.getBoundaryManager().getBoundaries();
-            for (Boundary bi : boundTemp) {
-                boundaries.add(bi);
-            }
-        }
+        RegionSnapshot rs = regions(sim);
+        Collection<Region> regions = rs.regions;
+        Collection<Boundary> boundaries = rs.boundaries;
         ElementCountReport cellVolume = sim.getReportManager().createReport(ElementCountReport.class);
         cellVolume.setPresentationName("negVolumeCells");
         PrimitiveFieldFunction volume = ((PrimitiveFieldFunction) sim.getFieldFunctionManager().getFunction("Volume"));
@@ -518,7 +831,8 @@ public class meshQualityCheck extends StarMacro {
         cellVolume.getParts().setObjects(volumePart);
         sim.getPartManager().getGroupsManager().getObject("cellQualityParts").addObjects(new NeoObjectVector(new Object[]{volumePart}));
         sim.getReportManager().getGroupsManager().getObject("cellQualityReports").addObjects(new NeoObjectVector(new Object[]{cellVolume}));
-        String temp = "Cells with negative volume: " + String.format("%25s", cellVolume.getReportMonitorValue());
+        double negCells = value("negVolumeCells", cellVolume.getReportMonitorValue());
+        String temp = "Cells with negative volume: " + String.format("%25s", negCells);
         sim.println(temp);
         output.add(temp);
     }
@@ -529,13 +843,11 @@ public class meshQualityCheck extends StarMacro {
         SkewnessAngleFunction skf = ((SkewnessAngleFunction) sim.getFieldFunctionManager().getFunction("SkewnessAngle"));
         mSR.setScalar(skf);
 
-        Collection<Region> regions = sim.getRegionManager().getRegions();
-        for (Region ri : regions) {
-            mSR.getParts().addObjects(ri);
-            Collection<Boundary> boundaries = ri.getBoundaryManager().getBoundaries();
-            mSR.getParts().addObjects(boundaries);
-        }
-        String temp = "Maximum skewness angle: " + String.format("%29s", String.format("%.2f", (mSR.getReportMonitorValue())));
+        RegionSnapshot rs = regions(sim);
+        mSR.getParts().addObjects(rs.regions);
+        mSR.getParts().addObjects(rs.boundaries);
+        double maxSkewness = value("maxCellSkewness", mSR.getReportMonitorValue());
+        String temp = "Maximum skewness angle: " + String.format("%29s", String.format("%.2f", (maxSkewness)));
         sim.println(temp);
         sim.getReportManager().getGroupsManager().getObject("cellQualityReports").addObjects(new NeoObjectVector(new Object[]{mSR}));
         output.add(temp);
@@ -547,13 +859,11 @@ public class meshQualityCheck extends StarMacro {
         CellQualityFunction cqf = ((CellQualityFunction) sim.getFieldFunctionManager().getFunction("CellQuality"));
         mCQ.setScalar(cqf);
 
-        Collection<Region> regions = sim.getRegionManager().getRegions();
-        for (Region ri : regions) {
-            mCQ.getParts().addObjects(ri);
-            Collection<Boundary> boundaries = ri.getBoundaryManager().getBoundaries();
-            mCQ.getParts().addObjects(boundaries);
-        }
-        String temp = "Minimum cell quality: " + String.format("%31s", String.format("%.5f", (mCQ.getReportMonitorValue())));
+        RegionSnapshot rs = regions(sim);
+        mCQ.getParts().addObjects(rs.regions);
+        mCQ.getParts().addObjects(rs.boundaries);
+        double minQuality = value("minCellQuality", mCQ.getReportMonitorValue());
+        String temp = "Minimum cell quality: " + String.format("%31s", String.format("%.5f", (minQuality)));
         sim.println(temp);
         output.add(temp);
 
@@ -565,28 +875,14 @@ public class meshQualityCheck extends StarMacro {
         Units units = ((Units) sim.getUnitsManager().getObject("m"));
         PrimitiveFieldFunction badCellFn = ((PrimitiveFieldFunction) sim.getFieldFunctionManager().getFunction("BadCellFlag"));
         double range[] = {0.5, 1.5};
-        Collection<Region> fluidRegions = sim.getRegionManager().getRegions();
-        Collection<Region> solidRegions = sim.getRegionManager().getRegions();
-        Collection<Boundary> fluidBoundaries = new ArrayList<Boundary>();
-        Collection<Boundary> solidBoundaries = new ArrayList<Boundary>();
-        Collection<Region> loopRegions = sim.getRegionManager().getRegions();
-        //find out which regions are solid and get all boundaries in collections
-        for (Region ri : loopRegions) {
-            if (((ri.getRegionType() instanceof FluidRegion) || (ri.getRegionType() instanceof PorousRegion)) && (!(ri instanceof ShellRegion))) {
-                //this region is NOT of type solid, so remove it from the fluids
-                solidRegions.remove(ri);
-                //this region IS of type fluid/porous, so add its boundaries
-                fluidBoundaries.addAll(ri.getBoundaryManager().getBoundaries());
-            } else if (!(ri instanceof ShellRegion)) {
-                //this region is NOT of type fluid/porous, so we know solids exist
-                solids = true;
-                //remove this non-solid from the solid boundaries
-                fluidRegions.remove(ri);
-                solidBoundaries.addAll(ri.getBoundaryManager().getBoundaries());
-            } else if (ri instanceof ShellRegion) {
-                //this is a shell region, remove it from the fluids
-                fluidRegions.remove(ri);
-            }
+        //fluid/solid regions and their boundaries from the shared snapshot
+        RegionSnapshot rs = regions(sim);
+        Collection<Region> fluidRegions = rs.fluidRegions;
+        Collection<Region> solidRegions = rs.solidRegions;
+        Collection<Boundary> fluidBoundaries = rs.fluidBoundaries;
+        Collection<Boundary> solidBoundaries = rs.solidBoundaries;
+        if (rs.nonFluid) {
+            solids = true;
         }
         //generate the parts for cell quality on fluids
         ThresholdPart bcTPf = sim.getPartManager().createThresholdPart(new NeoObjectVector(fluidRegions.toArray()), new DoubleVector(range), units, badCellFn, 0);
@@ -601,10 +897,11 @@ public class meshQualityCheck extends StarMacro {
         }));
         sim.getReportManager().getGroupsManager().getObject("cellQualityReports").addObjects(new NeoObjectVector(new Object[]{bcRf
         }));
-        String outputTemp = String.format("%-40s", "Fluid cells marked bad: ") + String.format("%6s", String.format("%5.0f", bcRf.getReportMonitorValue())) + " " + String.format("%5.2f", (bcRf.getReportMonitorValue() / fluidCellCount * 100)) + "%";
+        double fluidCount = value("badCellsFluid", bcRf.getReportMonitorValue());
+        String outputTemp = String.format("%-40s", "Fluid cells marked bad: ") + String.format("%6s", String.format("%5.0f", fluidCount)) + " " + String.format("%5.2f", (fluidCount / fluidCellCount * 100)) + "%";
         sim.println(outputTemp);
 //if solid regions exist, also do it on solids
-        output.add("Fluid cells marked bad: " + bcRf.getReportMonitorValue() + " " + String.format("%.2f", (bcRf.getReportMonitorValue() / fluidCellCount * 100)) + "%");
+        output.add("Fluid cells marked bad: " + fluidCount + " " + String.format("%.2f", (fluidCount / fluidCellCount * 100)) + "%");
         if (solids) {
             ThresholdPart bcTPs = sim.getPartManager().createThresholdPart(new NeoObjectVector(solidRegions.toArray()), new DoubleVector(range), units, badCellFn, 1);
             bcTPs.getInputParts().addParts(solidBoundaries);
@@ -614,7 +911,8 @@ public class meshQualityCheck extends StarMacro {
             bcRs.getParts().setObjects(bcTPs);
             sim.getPartManager().getGroupsManager().getObject("cellQualityParts").addObjects(new NeoObjectVector(new Object[]{bcTPs}));
             sim.getReportManager().getGroupsManager().getObject("cellQualityReports").addObjects(new NeoObjectVector(new Object[]{bcRs}));
-            outputTemp = String.format("%-40s", "Solid cells marked bad: ") + String.format("%6s", String.format("%5.0f", bcRs.getReportMonitorValue())) + " " + String.format("%5.2f", (bcRs.getReportMonitorValue() / fluidCellCount * 100)) + "%";
+            double solidCount = value("badCellsSolid", bcRs.getReportMonitorValue());
+            outputTemp = String.format("%-40s", "Solid cells marked bad: ") + String.format("%6s", String.format("%5.0f", solidCount)) + " " + String.format("%5.2f", (solidCount / fluidCellCount * 100)) + "%";
             sim.println(outputTemp);
             output.add(outputTemp);
         }
@@ -623,7 +921,7 @@ public class meshQualityCheck extends StarMacro {
     private void prismCells(Simulation sim) {
         //generate variables required for cell quality metric
         Units units = ((Units) sim.getUnitsManager().getObject("m"));
-        Collection<Region> regions = sim.getRegionManager().getRegions();
+        Collection<Region> regions = regions(sim).regions;
         PrimitiveFieldFunction prismFn = ((PrimitiveFieldFunction) sim.getFieldFunctionManager().getFunction("PrismLayerCells"));
         //generate a threshold of just prisms to visualize the prism surface
         ThresholdPart prisms = sim.getPartManager().createThresholdPart(new NeoObjectVector(regions.toArray()), new DoubleVector(new double[]{0.0, 0.5}), units, prismFn, 1);
@@ -932,14 +1230,9 @@ public class meshQualityCheck extends StarMacro {
 
     private void sceneGenMeshView(Simulation sim) {
         //get all boundaries
-        Collection<Region> regions = sim.getRegionManager().getRegions();
-        Vector<Boundary> bounds = new Vector<Boundary>();
-        for (Region ri : regions) {
-            Collection<Boundary> riBoundaries = ri.getBoundaryManager().getBoundaries();
-            for (Boundary bi : riBoundaries) {
-                bounds.add(bi);
-            }
-        }
+        RegionSnapshot rs = regions(sim);
+        Collection<Region> regions = rs.regions;
+        Vector<Boundary> bounds = new Vector<Boundary>(rs.boundaries);
 
         //get the surface representation for the volume mesh
         SurfaceRep surfRep = null;
@@ -1018,19 +1311,7 @@ public class meshQualityCheck extends StarMacro {
     }
 
     private Collection<Boundary> getGeometryParts(Simulation sim) {
-        Collection<Boundary> boundaries = new ArrayList<Boundary>();
-        Collection<Region> loopRegions = sim.getRegionManager().getRegions();
-        for (Region ri : loopRegions) {
-            if (!(ri instanceof ShellRegion)) {
-                Collection<Boundary> bir = ri.getBoundaryManager().getBoundaries();
-                for (Boundary bi : bir) {
-                    if ((bi.getBoundaryType() instanceof WallBoundary) || (bi.getBoundaryType() instanceof InternalBoundary) || (bi.getBoundaryType() instanceof ContactBoundary)) {
-                        boundaries.add(bi);
-                    }
-                }
-            }
-        }
-        return boundaries;
+        return regions(sim).geometryBoundaries;
     }
 
     private void cellQualityHistogram(Simulation sim, int version) {
@@ -1038,12 +1319,9 @@ public class meshQualityCheck extends StarMacro {
         HP.setPresentationName("Cell Quality Histogram");
 
         sim.getPlotManager().getGroupsManager().getObject("cellQualityPlots").addObjects(new NeoObjectVector(new Object[]{HP}));
-        Collection<Boundary> boundaries = new ArrayList<Boundary>();
-        Collection<Region> loopRegions = sim.getRegionManager().getRegions();
-        for (Region ri : loopRegions) {
-            Collection<Boundary> bir = ri.getBoundaryManager().getBoundaries();
-            boundaries.addAll(bir);
-        }
+        RegionSnapshot rs = regions(sim);
+        Collection<Boundary> boundaries = rs.boundaries;
+        Collection<Region> loopRegions = rs.regions;
         HP.getParts().setObjects(loopRegions);
         HP.getParts().addObjects(boundaries);
         HP.setTitle("Cell Quality");
@@ -1064,12 +1342,9 @@ public class meshQualityCheck extends StarMacro {
     private void skewnessHistogram(Simulation sim) {
         HistogramPlot HP = sim.getPlotManager().createHistogramPlot();
         HP.setPresentationName("Skewness Histogram");
-        Collection<Boundary> boundaries = new ArrayList<Boundary>();
-        Collection<Region> loopRegions = sim.getRegionManager().getRegions();
-        for (Region ri : loopRegions) {
-            Collection<Boundary> bir = ri.getBoundaryManager().getBoundaries();
-            boundaries.addAll(bir);
-        }
+        RegionSnapshot rs = regions(sim);
+        Collection<Boundary> boundaries = rs.boundaries;
+        Collection<Region> loopRegions = rs.regions;
         HP.getParts().setObjects(loopRegions);
         HP.getParts().addObjects(boundaries);
         HP.setTitle("Skewness Angle");
@@ -1092,12 +1367,9 @@ public class meshQualityCheck extends StarMacro {
     private void volumeChangeHistogram(Simulation sim) {
         HistogramPlot HP = sim.getPlotManager().createHistogramPlot();
         HP.setPresentationName("Volume Change Histogram");
-        Collection<Boundary> boundaries = new ArrayList<Boundary>();
-        Collection<Region> loopRegions = sim.getRegionManager().getRegions();
-        for (Region ri : loopRegions) {
-            Collection<Boundary> bir = ri.getBoundaryManager().getBoundaries();
-            boundaries.addAll(bir);
-        }
+        RegionSnapshot rs = regions(sim);
+        Collection<Boundary> boundaries = rs.boundaries;
+        Collection<Region> loopRegions = rs.regions;
         HP.getParts().setObjects(loopRegions);
         HP.getParts().addObjects(boundaries);
         HP.setTitle("Volume Change");
@@ -1122,6 +1394,41 @@ public class meshQualityCheck extends StarMacro {
         HP.setAggregateParts(true);
     }
 
+    private void batchHistograms(Simulation sim) {
+        String fileRoot = sim.getSessionPath().replaceFirst(".sim", "");
+        String tableFile = fileRoot + "_cellMetrics.csv";
+        String names[] = {"CellQuality", "SkewnessAngle", "VolumeChange"};
+        //export the cell values of all regions to one table
+        XyzInternalTable table = sim.getTableManager().createTable(XyzInternalTable.class);
+        table.setPresentationName("cellMetrics");
+        Collection<FieldFunction> functions = new ArrayList<FieldFunction>();
+        for (String name : names) {
+            functions.add(sim.getFieldFunctionManager().getFunction(name));
+        }
+        table.setFieldFunctions(functions);
+        table.getParts().setObjects(regions(sim).regions);
+        table.extract();
+        table.export(tableFile, ",");
+        sim.getTableManager().remove(table);
+        //bin all three columns in one pass over the table
+        MetricHistogram hists[] = new MetricHistogram[names.length];
+        for (int i = 0; i < names.length; i++) {
+            hists[i] = MetricHistogram.preset(names[i]);
+        }
+        try {
+            MetricHistogram.addColumns(tableFile, names, hists);
+            for (int i = 0; i < names.length; i++) {
+                hists[i].writeBinary(fileRoot + "_" + names[i] + ".hist");
+                hists[i].writeCsv(fileRoot + "_" + names[i] + "Histogram.csv");
+                String temp = names[i] + ": " + hists[i].summary();
+                sim.println(temp);
+                output.add(temp);
+            }
+        } catch (Exception e) {
+            sim.println("Error binning " + tableFile + ": " + e.getMessage());
+        }
+    }
+
     private void disableImmediateMode(Simulation sim) {
         ArrayList<String> scenes = new ArrayList<String>(Arrays.asList("Cell Quality: Volume", "Skewness: Volume", "Volume Change", "Skewness: Surface", "Cell Quality: Surface", "Negative Volume Cells", "Prism Cells", "Bad Cells", "Mesh View: XY", "Mesh View: XZ", "Mesh View: YZ"));
 
@@ -1191,6 +1498,51 @@ public class meshQualityCheck extends StarMacro {
         }
     }
 
+    private void writeReport(Simulation sim, String mesh, Boolean solids, double cellQualityThreshold, double skewnessThreshold, double volumeChangeThreshold, Boolean doBatchHistograms, String trendStore) {
+        //the numbers of _qualityInfo.txt as json, and one record of them in the trend store
+        String fileRoot = sim.getSessionPath().replaceFirst(".sim", "");
+        MeshQualityReport report = new MeshQualityReport(sim.getPresentationName(), mesh);
+        report.setCells(value("fluidCells"), solids ? value("solidCells") : Double.NaN);
+        report.addThreshold("cellQuality", cellQualityThreshold, value("cellQualityFluid"), value("cellQualitySolid"));
+        report.addThreshold("skewness", skewnessThreshold, value("skewnessFluid"), value("skewnessSolid"));
+        report.addThreshold("volumeChange", volumeChangeThreshold, value("volumeChangeFluid"), value("volumeChangeSolid"));
+        if (!Double.isNaN(value("badCellsFluid"))) {
+            report.addThreshold("badCells", 0.5, value("badCellsFluid"), value("badCellsSolid"));
+        }
+        report.addMetric("minCellQuality", value("minCellQuality"));
+        report.addMetric("maxSkewness", value("maxCellSkewness"));
+        report.addMetric("negativeVolumeCells", value("negVolumeCells"));
+        for (String name : new String[]{"CellQuality", "SkewnessAngle", "VolumeChange"}) {
+            //binned histograms are read back from their files, also when they were reused
+            File hist = new File(fileRoot + "_" + name + ".hist");
+            if (doBatchHistograms && hist.exists()) {
+                try {
+                    report.addHistogram(name, MetricHistogram.read(hist.getPath()));
+                } catch (Exception e) {
+                    sim.println("Error reading " + hist + ": " + e.getMessage());
+                }
+            }
+        }
+        for (Map.Entry<String, Double> timing : timings.entrySet()) {
+            report.addTiming(timing.getKey(), timing.getValue());
+        }
+        try {
+            report.write(fileRoot + "_qualityInfo.json");
+            if (trendStore != null) {
+                if (trendStore.isEmpty()) {
+                    trendStore = sim.getSessionDir() + File.separator + "meshQualityTrend.jsonl";
+                }
+                QualityTrendStore store = new QualityTrendStore(trendStore);
+                for (String change : store.compare(report)) {
+                    sim.println("Since the last mesh: " + change);
+                }
+                store.append(report);
+            }
+        } catch (Exception e) {
+            sim.println("Error writing the quality report: " + e.getMessage());
+        }
+    }
+
     private void saveSim(Simulation sim) {
         //get path
         String simPath = sim.getSessionPath();
@@ -1212,6 +1564,16 @@ public class meshQualityCheck extends StarMacro {
         }
     }
 
+    private RegionSnapshot regions(Simulation sim) {
+        //one region list per call, the classification is only redone when
+        //regions were added or removed since the last snapshot
+        Collection<Region> current = sim.getRegionManager().getRegions();
+        if (regionSnapshot == null || !regionSnapshot.matches(current)) {
+            regionSnapshot = new RegionSnapshot(current);
+        }
+        return regionSnapshot;
+    }
+
     private int version(Simulation sim) {
         String[] versionField = sim.getStarVersion().toString().split(" ");
         String version = versionField[7];
@@ -1223,4 +1585,76 @@ public class meshQualityCheck extends StarMacro {
         int versionInt = Integer.parseInt(version);
         return versionInt;
     }
+
+    //fluid/porous/solid/shell partition of the regions and their boundaries,
+    //each region type and boundary list is asked for once
+    private static class RegionSnapshot {
+
+        final Collection<Region> regions;
+        final Collection<Region> fluidRegions;
+        final Collection<Region> solidRegions;
+        final Collection<Boundary> boundaries;
+        final Collection<Boundary> fluidBoundaries;
+        final Collection<Boundary> solidBoundaries;
+        final Collection<Boundary> geometryBoundaries;
+        //a region of solid type exists
+        final Boolean solids;
+        //a region that is neither fluid/porous nor shell exists
+        final Boolean nonFluid;
+        private final Set<Region> regionSet;
+
+        RegionSnapshot(Collection<Region> current) {
+            List<Region> fluid = new ArrayList<Region>();
+            //as before, everything that is not a fluid counts as solid here,
+            //shells included
+            List<Region> solid = new ArrayList<Region>();
+            List<Boundary> all = new ArrayList<Boundary>();
+            List<Boundary> fluidB = new ArrayList<Boundary>();
+            List<Boundary> solidB = new ArrayList<Boundary>();
+            List<Boundary> geometry = new ArrayList<Boundary>();
+            Boolean solidType = false;
+            Boolean other = false;
+            for (Region ri : current) {
+                RegionType type = ri.getRegionType();
+                Boolean shell = ri instanceof ShellRegion;
+                Collection<Boundary> bir = ri.getBoundaryManager().getBoundaries();
+                all.addAll(bir);
+                if (type instanceof SolidRegion) {
+                    solidType = true;
+                }
+                if (((type instanceof FluidRegion) || (type instanceof PorousRegion)) && !shell) {
+                    fluid.add(ri);
+                    fluidB.addAll(bir);
+                } else {
+                    solid.add(ri);
+                    if (!shell) {
+                        other = true;
+                        solidB.addAll(bir);
+                    }
+                }
+                if (!shell) {
+                    for (Boundary bi : bir) {
+                        BoundaryType bt = bi.getBoundaryType();
+                        if ((bt instanceof WallBoundary) || (bt instanceof InternalBoundary) || (bt instanceof ContactBoundary)) {
+                            geometry.add(bi);
+                        }
+                    }
+                }
+            }
+            regions = Collections.unmodifiableList(new ArrayList<Region>(current));
+            fluidRegions = Collections.unmodifiableList(fluid);
+            solidRegions = Collections.unmodifiableList(solid);
+            boundaries = Collections.unmodifiableList(all);
+            fluidBoundaries = Collections.unmodifiableList(fluidB);
+            solidBoundaries = Collections.unmodifiableList(solidB);
+            geometryBoundaries = Collections.unmodifiableList(geometry);
+            solids = solidType;
+            nonFluid = other;
+            regionSet = new HashSet<Region>(current);
+        }
+
+        Boolean matches(Collection<Region> current) {
+            return current.size() == regionSet.size() && regionSet.containsAll(current);
+        }
+    }
 }
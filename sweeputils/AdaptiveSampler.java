@@ -0,0 +1,190 @@
+/**
+ * Adaptive refinement of one propeller curve (KT, KQ, ... against J)
+ *
+ * A sweep runs a coarse set of rpms (or speeds) and reports every solved case
+ * with add(). next() then proposes the point where the curve is worst
+ * resolved, judged between every pair of neighbouring points by the gap
+ * between linear interpolation at the mid J and the parabola through that
+ * pair and the next point on either side:
+ *
+ *   err = |Q(Jm) - L(Jm)| / range of the channel, largest over the channels
+ *
+ * which is about h^2 / 8 * |f''|, so it is large where the curve bends and
+ * where the points are far apart. Intervals are refined until every one is
+ * below the tolerance, closer than the minimum spacing, or the budget is used.
+ *
+ * The proposed x hits mid J of its interval assuming J ~ x^p locally, so it
+ * works for rpm (p = -1) and for speed (p = 1) steps alike.
+ *
+ * 2017, v11.06
+ */
+package sweeputils;
+
+import java.util.*;
+
+public class AdaptiveSampler {
+
+    /**
+     * @param channels curve values reported per case, e.g. 2 for KT and KQ
+     * @param minSpacing smallest x step worth running
+     * @param tolerance interpolation error relative to each channel's range
+     */
+    public AdaptiveSampler(int channels, double minSpacing, double tolerance) {
+        this.channels = channels;
+        this.minSpacing = minSpacing;
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * Refined points next() may propose, the coarse points do not count.
+     */
+    public void setBudget(int budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Records a solved case.
+     */
+    public void add(double x, double j, double... values) {
+        if (values.length != channels) {
+            throw new IllegalArgumentException("expected " + channels
+                    + " values, got " + values.length);
+        }
+        points.add(new Point(x, j, values.clone()));
+        Collections.sort(points);
+    }
+
+    /**
+     * The next x to run, or NaN if the curve is resolved or the budget is
+     * used. A proposed x counts against the budget whether it is added or
+     * not.
+     */
+    public double next() {
+        error = 0.;
+        if (points.size() < 2) {
+            return Double.NaN;
+        }
+        double[] range = ranges();
+        int worst = -1;
+        for (int i = 0; i + 1 < points.size(); i++) {
+            Point a = points.get(i);
+            Point b = points.get(i + 1);
+            if (Math.abs(b.x - a.x) < 2 * minSpacing) {
+                continue;
+            }
+            double e = intervalError(i, range);
+            if (e > error) {
+                error = e;
+                worst = i;
+            }
+        }
+        if (worst < 0 || error < tolerance || proposed >= budget) {
+            return Double.NaN;
+        }
+        proposed++;
+        return midpoint(points.get(worst), points.get(worst + 1));
+    }
+
+    /*
+     * Largest relative midpoint error of the interval [i, i + 1] over the
+     * channels, infinite if there are only two points to go by.
+     */
+    double intervalError(int i, double[] range) {
+        Point a = points.get(i);
+        Point b = points.get(i + 1);
+        double jm = (a.j + b.j) / 2;
+        double e = 0.;
+        boolean fitted = false;
+        for (int k : new int[]{i - 1, i + 2}) {
+            if (k < 0 || k >= points.size()) {
+                continue;
+            }
+            Point c = points.get(k);
+            fitted = true;
+            for (int ch = 0; ch < channels; ch++) {
+                double linear = (a.values[ch] + b.values[ch]) / 2;
+                double q = parabola(a.j, a.values[ch], b.j, b.values[ch],
+                        c.j, c.values[ch], jm);
+                e = Math.max(e, Math.abs(q - linear) / range[ch]);
+            }
+        }
+        return fitted ? e : Double.POSITIVE_INFINITY;
+    }
+
+    static double parabola(double x0, double y0, double x1, double y1,
+            double x2, double y2, double x) {
+        // Lagrange form
+        return y0 * (x - x1) * (x - x2) / ((x0 - x1) * (x0 - x2))
+                + y1 * (x - x0) * (x - x2) / ((x1 - x0) * (x1 - x2))
+                + y2 * (x - x0) * (x - x1) / ((x2 - x0) * (x2 - x1));
+    }
+
+    double[] ranges() {
+        double[] range = new double[channels];
+        for (int ch = 0; ch < channels; ch++) {
+            double lo = Double.POSITIVE_INFINITY;
+            double hi = Double.NEGATIVE_INFINITY;
+            for (Point p : points) {
+                lo = Math.min(lo, p.values[ch]);
+                hi = Math.max(hi, p.values[ch]);
+            }
+            range[ch] = Math.max(hi - lo, 1e-12);
+        }
+        return range;
+    }
+
+    static double midpoint(Point a, Point b) {
+        if (a.x > 0 && b.x > 0 && a.j > 0 && b.j > 0 && a.j != b.j
+                && a.x != b.x) {
+            double p = Math.log(b.j / a.j) / Math.log(b.x / a.x);
+            return a.x * Math.pow((a.j + b.j) / 2 / a.j, 1 / p);
+        }
+        return (a.x + b.x) / 2;
+    }
+
+    /**
+     * Largest interval error found by the last next().
+     */
+    public double getError() {
+        return error;
+    }
+
+    public int size() {
+        return points.size();
+    }
+
+    public int getProposed() {
+        return proposed;
+    }
+
+    public String summary() {
+        return "Curve: " + points.size() + " points, " + proposed
+                + " refined, error " + String.format("%.4g", error)
+                + " (tolerance " + tolerance + ")";
+    }
+
+    static class Point implements Comparable<Point> {
+
+        Point(double x, double j, double[] values) {
+            this.x = x;
+            this.j = j;
+            this.values = values;
+        }
+
+        public int compareTo(Point o) {
+            return Double.compare(j, o.j);
+        }
+
+        final double x;
+        final double j;
+        final double[] values;
+    }
+
+    int channels;
+    double minSpacing;
+    double tolerance;
+    int budget = Integer.MAX_VALUE;
+    int proposed;
+    double error;
+    List<Point> points = new ArrayList<Point>();
+}
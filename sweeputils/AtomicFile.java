@@ -0,0 +1,69 @@
+/**
+ * Replace-by-rename file writes
+ *
+ * New contents go to <fileName>.tmp, are synced to disk and then moved over
+ * the target with an atomic rename, so readers (and a restarted macro) see
+ * either the old file or the complete new one, never a half written file.
+ *
+ * 2017, v11.06
+ */
+package sweeputils;
+
+import java.io.*;
+import java.nio.file.*;
+
+public class AtomicFile {
+
+    public AtomicFile(String fileName) {
+        file = new File(fileName);
+        tmpFile = new File(fileName + ".tmp");
+    }
+
+    /**
+     * Opens the temp file for writing. Pass the stream to finishWrite() or
+     * failWrite().
+     */
+    public FileOutputStream startWrite() throws IOException {
+        return new FileOutputStream(tmpFile);
+    }
+
+    /**
+     * Syncs and closes the stream, then renames the temp file over the target.
+     */
+    public void finishWrite(FileOutputStream out) throws IOException {
+        try {
+            out.flush();
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        try {
+            Files.move(tmpFile.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(tmpFile.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Closes the stream and drops the temp file, leaving the target as it
+     * was.
+     */
+    public void failWrite(FileOutputStream out) {
+        try {
+            out.close();
+        } catch (IOException ex) {
+            // already failing, the temp file is removed below
+        }
+        tmpFile.delete();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    File file;
+    File tmpFile;
+}
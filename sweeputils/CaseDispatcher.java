@@ -0,0 +1,184 @@
+/**
+ * Runs a sweep as several worker processes sharing a CaseQueue
+ *
+ * Each worker is a separate batch process, e.g. its own starccm+ server with
+ * its own licence slot, port and core count, started from a command template:
+ *
+ *   starccm+ -batch Props_TR2017_0404_008.java -np {cores} -port {port} {sim}
+ *
+ * {worker}, {cores}, {port} and {queue} are replaced per worker, other
+ * {name} tokens from set(). The queue directory, worker number and cores are
+ * also passed as SWEEP_QUEUE, SWEEP_WORKER and SWEEP_CORES in the
+ * environment, which is what puts a sweep macro into worker mode. Every worker logs to
+ * logs/worker<k>.log in the queue directory.
+ *
+ * A worker that exits while holding a case has its claims moved to failed/ so
+ * one case that kills the solver cannot take down every worker in turn. A
+ * worker that exits with an error is restarted while cases are pending, up to
+ * maxRestarts times. Per-worker results are put together with
+ * ResultsJournal.merge() once run() returns.
+ *
+ * 2017, v11.06
+ */
+package sweeputils;
+
+import java.io.*;
+import java.util.*;
+
+public class CaseDispatcher {
+
+    public static final String QUEUE_ENV = "SWEEP_QUEUE";
+    public static final String WORKER_ENV = "SWEEP_WORKER";
+    public static final String CORES_ENV = "SWEEP_CORES";
+
+    /**
+     * @param queueDir directory of an existing CaseQueue
+     * @param command worker command line, one token per element
+     * @param cores core count of each worker, its length is the worker count
+     */
+    public CaseDispatcher(String queueDir, List<String> command, int[] cores) {
+        this.queueDir = queueDir;
+        this.command = new ArrayList<String>(command);
+        this.cores = cores.clone();
+        queue = new CaseQueue(queueDir, -1);
+    }
+
+    public void set(String name, String value) {
+        vars.put(name, value);
+    }
+
+    /**
+     * Port of worker 0, worker k gets basePort + k.
+     */
+    public void setBasePort(int port) {
+        basePort = port;
+    }
+
+    public void setMaxRestarts(int n) {
+        maxRestarts = n;
+    }
+
+    List<String> command(int worker) {
+        Map<String, String> v = new HashMap<String, String>(vars);
+        v.put("worker", String.valueOf(worker));
+        v.put("cores", String.valueOf(cores[worker]));
+        v.put("port", String.valueOf(basePort + worker));
+        v.put("queue", queueDir);
+        List<String> cmd = new ArrayList<String>();
+        for (String token : command) {
+            for (Map.Entry<String, String> e : v.entrySet()) {
+                token = token.replace("{" + e.getKey() + "}", e.getValue());
+            }
+            cmd.add(token);
+        }
+        return cmd;
+    }
+
+    Process start(int worker) throws IOException {
+        File logs = new File(queueDir, "logs");
+        if (!logs.isDirectory() && !logs.mkdirs()) {
+            throw new IOException("cannot create " + logs);
+        }
+        ProcessBuilder pb = new ProcessBuilder(command(worker));
+        pb.environment().put(QUEUE_ENV, queueDir);
+        pb.environment().put(WORKER_ENV, String.valueOf(worker));
+        pb.environment().put(CORES_ENV, String.valueOf(cores[worker]));
+        pb.redirectErrorStream(true);
+        pb.redirectOutput(ProcessBuilder.Redirect.appendTo(
+                new File(logs, "worker" + worker + ".log")));
+        say("Starting worker " + worker + ": " + pb.command());
+        return pb.start();
+    }
+
+    /**
+     * Starts every worker and waits until all have exited. Returns the
+     * number of failed cases.
+     */
+    public int run() throws IOException, InterruptedException {
+        long start = System.currentTimeMillis();
+        Process[] workers = new Process[cores.length];
+        int[] restarts = new int[cores.length];
+        for (int k = 0; k < workers.length; k++) {
+            workers[k] = start(k);
+        }
+        int alive = workers.length;
+        while (alive > 0) {
+            Thread.sleep(pollMillis);
+            alive = 0;
+            for (int k = 0; k < workers.length; k++) {
+                if (workers[k] == null) {
+                    continue;
+                }
+                if (workers[k].isAlive()) {
+                    alive++;
+                    continue;
+                }
+                int exit = workers[k].exitValue();
+                int lost = CaseQueue.release(queueDir, k);
+                say("Worker " + k + " exited with " + exit
+                        + (lost > 0 ? ", " + lost + " case(s) failed" : ""));
+                workers[k] = null;
+                if (exit != 0 && queue.countPending() > 0
+                        && restarts[k] < maxRestarts) {
+                    restarts[k]++;
+                    workers[k] = start(k);
+                    alive++;
+                }
+            }
+        }
+        say(queue.summary() + " in "
+                + (System.currentTimeMillis() - start) / 1000 + " s");
+        return queue.count(CaseQueue.FAILED);
+    }
+
+    void say(String msg) {
+        System.out.println(msg);
+    }
+
+    /**
+     * Journal names of every worker for one results file, as written by
+     * workers that add ".w<k>" before the extension of their results files.
+     */
+    public static String[] workerJournals(String prefix, String suffix,
+            int workers) {
+        String[] journals = new String[workers];
+        for (int k = 0; k < workers; k++) {
+            journals[k] = prefix + ".w" + k + suffix + ".journal";
+        }
+        return journals;
+    }
+
+    /**
+     * CaseDispatcher matrixFile queueDir cores[,cores...] command...
+     *
+     * Queues the cases of the matrix in mesh scheduled order, one worker per
+     * cores entry, then runs the workers.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 4) {
+            System.err.println("usage: CaseDispatcher matrixFile queueDir"
+                    + " cores[,cores...] command...");
+            System.exit(2);
+        }
+        RunMatrix matrix = RunMatrix.read(args[0]);
+        String[] c = args[2].split(",");
+        int[] cores = new int[c.length];
+        for (int i = 0; i < c.length; i++) {
+            cores[i] = Integer.parseInt(c[i].trim());
+        }
+        CaseQueue.create(args[1], new MeshScheduler(matrix), matrix.getAxes(),
+                cores.length);
+        CaseDispatcher d = new CaseDispatcher(args[1],
+                Arrays.asList(args).subList(3, args.length), cores);
+        System.exit(d.run() == 0 ? 0 : 1);
+    }
+
+    String queueDir;
+    List<String> command;
+    int[] cores;
+    CaseQueue queue;
+    Map<String, String> vars = new LinkedHashMap<String, String>();
+    int basePort = 47827;
+    int maxRestarts = 2;
+    long pollMillis = 1000;
+}
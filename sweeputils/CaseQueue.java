@@ -0,0 +1,343 @@
+/**
+ * Work-stealing case queue shared by worker processes through a directory
+ *
+ * Every worker owns a deque, the directory w<k>, holding one <seq>.case file
+ * per case (its run matrix values). The deques start as contiguous blocks of
+ * the scheduled order so each worker mostly walks its own meshes. A worker
+ * takes from the head of its own deque; when that is empty it steals from the
+ * tail of the fullest other deque, the cases furthest from what that worker
+ * is doing. A case is claimed by renaming its file into running/, the rename
+ * is atomic so two workers can never claim the same case, and finished or
+ * failed cases are moved on to done/ or failed/. Only the file system is
+ * shared, so workers can be any process on any node that sees the directory.
+ *
+ *   queue/w0/000000.case ...           pending, per worker
+ *   queue/running/000007.w1.case       claimed by worker 1
+ *   queue/done/  queue/failed/
+ *
+ * 2017, v11.06
+ */
+package sweeputils;
+
+import java.io.*;
+import java.util.*;
+
+public class CaseQueue {
+
+    static final String RUNNING = "running";
+    static final String DONE = "done";
+    static final String FAILED = "failed";
+    static final String CASE = ".case";
+
+    /**
+     * Writes the cases into per-worker deques, seq being the position in the
+     * given order. Cases left in the directory by an earlier queue are
+     * deleted.
+     */
+    public static void create(String dir, Iterable<RunMatrix.Case> cases,
+            String[] axes, int workers) throws IOException {
+        List<RunMatrix.Case> list = new ArrayList<RunMatrix.Case>();
+        for (RunMatrix.Case c : cases) {
+            list.add(c);
+        }
+        File root = new File(dir);
+        for (String sub : new String[]{RUNNING, DONE, FAILED}) {
+            mkdirs(new File(root, sub));
+        }
+        File[] dirs = root.listFiles();
+        for (File sub : dirs == null ? new File[0] : dirs) {
+            for (File f : pending(sub)) {
+                f.delete();
+            }
+        }
+        for (int w = 0; w < workers; w++) {
+            File deque = new File(root, "w" + w);
+            mkdirs(deque);
+            int from = (int) ((long) list.size() * w / workers);
+            int to = (int) ((long) list.size() * (w + 1) / workers);
+            for (int seq = from; seq < to; seq++) {
+                RunMatrix.Case c = list.get(seq);
+                StringBuilder sb = new StringBuilder();
+                sb.append("index=").append(c.getIndex()).append('\n');
+                for (String axis : axes) {
+                    sb.append(axis).append('=').append(c.get(axis))
+                            .append('\n');
+                }
+                File tmp = new File(deque, name(seq) + ".tmp");
+                Writer out = new FileWriter(tmp);
+                try {
+                    out.write(sb.toString());
+                } finally {
+                    out.close();
+                }
+                if (!tmp.renameTo(new File(deque, name(seq) + CASE))) {
+                    throw new IOException("cannot queue " + tmp);
+                }
+            }
+        }
+    }
+
+    static String name(int seq) {
+        return String.format("%06d", seq);
+    }
+
+    private static void mkdirs(File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("cannot create " + dir);
+        }
+    }
+
+    public CaseQueue(String dir, int worker) {
+        root = new File(dir);
+        this.worker = worker;
+        own = new File(root, "w" + worker);
+    }
+
+    /**
+     * Claims the next case, from the own deque first, then stolen from
+     * another. Returns null when no case is left anywhere.
+     */
+    public Claim take() throws IOException {
+        Claim c = claimFrom(own, false);
+        while (c == null) {
+            File victim = null;
+            int most = 0;
+            for (File deque : deques()) {
+                int n = pending(deque).length;
+                if (!deque.equals(own) && n > most) {
+                    victim = deque;
+                    most = n;
+                }
+            }
+            if (victim == null) {
+                return null;
+            }
+            c = claimFrom(victim, true);
+            if (c != null) {
+                steals++;
+            }
+        }
+        current = c;
+        return c;
+    }
+
+    private Claim claimFrom(File deque, boolean tail) throws IOException {
+        File[] files = pending(deque);
+        for (int i = 0; i < files.length; i++) {
+            File f = files[tail ? files.length - 1 - i : i];
+            String seq = f.getName().substring(0, f.getName().indexOf('.'));
+            File running = new File(new File(root, RUNNING),
+                    seq + ".w" + worker + CASE);
+            if (f.renameTo(running)) {
+                return new Claim(Integer.parseInt(seq), running);
+            }
+            // taken by another worker in the meantime
+        }
+        return null;
+    }
+
+    File[] deques() {
+        File[] dirs = root.listFiles(new FileFilter() {
+            public boolean accept(File f) {
+                return f.isDirectory() && f.getName().matches("w\\d+");
+            }
+        });
+        return dirs == null ? new File[0] : dirs;
+    }
+
+    static File[] pending(File dir) {
+        File[] files = dir.listFiles(new FileFilter() {
+            public boolean accept(File f) {
+                return f.getName().endsWith(CASE);
+            }
+        });
+        if (files == null) {
+            return new File[0];
+        }
+        Arrays.sort(files);
+        return files;
+    }
+
+    public void done(Claim c) throws IOException {
+        move(c.file, DONE);
+        if (c == current) {
+            current = null;
+        }
+    }
+
+    public void failed(Claim c) throws IOException {
+        move(c.file, FAILED);
+        if (c == current) {
+            current = null;
+        }
+    }
+
+    private void move(File f, String to) throws IOException {
+        if (!f.renameTo(new File(new File(root, to), f.getName()))) {
+            throw new IOException("cannot move " + f + " to " + to);
+        }
+    }
+
+    /**
+     * Moves the cases a worker still holds to failed/, used by the
+     * dispatcher when the worker process has exited. Returns how many.
+     */
+    public static int release(String dir, int worker) {
+        File root = new File(dir);
+        int n = 0;
+        for (File f : pending(new File(root, RUNNING))) {
+            if (f.getName().endsWith(".w" + worker + CASE)
+                    && f.renameTo(new File(new File(root, FAILED),
+                                    f.getName()))) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Cases not claimed yet, over all deques.
+     */
+    public int countPending() {
+        int n = 0;
+        for (File deque : deques()) {
+            n += pending(deque).length;
+        }
+        return n;
+    }
+
+    public int count(String state) {
+        return pending(new File(root, state)).length;
+    }
+
+    public String summary() {
+        return "Queue " + root + ": " + countPending() + " pending, "
+                + count(RUNNING) + " running, " + count(DONE) + " done, "
+                + count(FAILED) + " failed";
+    }
+
+    /**
+     * The claimed cases as run matrix cases, each re-linked to the one this
+     * worker ran before it. Moving on to the next case marks the previous
+     * one done, unless it was handed off; a case the loop never moves on
+     * from (an exception) stays claimed until the dispatcher releases it as
+     * failed.
+     */
+    public Iterable<RunMatrix.Case> cases(final RunMatrix matrix) {
+        return new Iterable<RunMatrix.Case>() {
+            public Iterator<RunMatrix.Case> iterator() {
+                return new Iterator<RunMatrix.Case>() {
+
+                    public boolean hasNext() {
+                        try {
+                            if (next == null) {
+                                if (current != null) {
+                                    done(current);
+                                }
+                                Claim c = take();
+                                if (c != null) {
+                                    next = matrix.caseOf(c.index,
+                                            c.values(matrix), previous);
+                                }
+                            }
+                            return next != null;
+                        } catch (IOException ex) {
+                            throw new UncheckedIOException(ex);
+                        }
+                    }
+
+                    public RunMatrix.Case next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        previous = next;
+                        next = null;
+                        return previous;
+                    }
+
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+
+                    RunMatrix.Case next;
+                    RunMatrix.Case previous;
+                };
+            }
+        };
+    }
+
+    /**
+     * The case being worked on, e.g. for its seq.
+     */
+    public Claim getCurrent() {
+        return current;
+    }
+
+    /**
+     * Takes the current case out of the loop's hands, e.g. for a task that
+     * finishes it on another thread. The caller marks it done() or failed(),
+     * moving on to the next case no longer does.
+     */
+    public Claim handOff() {
+        Claim c = current;
+        current = null;
+        return c;
+    }
+
+    public int getWorker() {
+        return worker;
+    }
+
+    public int getSteals() {
+        return steals;
+    }
+
+    public static class Claim {
+
+        Claim(int seq, File file) throws IOException {
+            this.seq = seq;
+            this.file = file;
+            Properties p = new Properties();
+            Reader in = new FileReader(file);
+            try {
+                p.load(in);
+            } finally {
+                in.close();
+            }
+            props = p;
+            index = Long.parseLong(p.getProperty("index", "-1"));
+        }
+
+        public double get(String axis) {
+            String v = props.getProperty(axis);
+            if (v == null) {
+                throw new IllegalArgumentException("no " + axis + " in "
+                        + file);
+            }
+            return Double.parseDouble(v);
+        }
+
+        double[] values(RunMatrix matrix) {
+            String[] axes = matrix.getAxes();
+            double[] values = new double[axes.length];
+            for (int i = 0; i < axes.length; i++) {
+                values[i] = get(axes[i]);
+            }
+            return values;
+        }
+
+        /**
+         * Position of the case in the dispatched order.
+         */
+        public final int seq;
+        public final long index;
+        final File file;
+        final Properties props;
+    }
+
+    File root;
+    File own;
+    int worker;
+    int steals;
+    Claim current;
+}
@@ -0,0 +1,128 @@
+/**
+ * Single-pass statistics for every report column of a monitor export
+ *
+ * Replaces one SummaryStatistics per column per case. Mean and variance use
+ * Welford's update, min/max are tracked alongside, all in primitive arrays
+ * sized once, so one row sweep covers every report and nothing is allocated
+ * in the hot loop. Keep one instance per macro and reset() it for each case.
+ * Variance is the bias-corrected (n - 1) sample variance, matching
+ * SummaryStatistics.getVariance().
+ *
+ * 2017, v11.06
+ */
+package sweeputils;
+
+public class ColumnStats {
+
+    public ColumnStats(int numColumns) {
+        n = new long[numColumns];
+        mean = new double[numColumns];
+        m2 = new double[numColumns];
+        min = new double[numColumns];
+        max = new double[numColumns];
+        reset(numColumns);
+    }
+
+    /**
+     * Clears all accumulators and sets the number of active columns, growing
+     * the backing arrays only if needed.
+     */
+    public void reset(int numColumns) {
+        if (numColumns > n.length) {
+            n = new long[numColumns];
+            mean = new double[numColumns];
+            m2 = new double[numColumns];
+            min = new double[numColumns];
+            max = new double[numColumns];
+        }
+        this.numColumns = numColumns;
+        for (int c = 0; c < numColumns; c++) {
+            n[c] = 0;
+            mean[c] = 0.;
+            m2[c] = 0.;
+            min[c] = Double.NaN;
+            max[c] = Double.NaN;
+        }
+    }
+
+    public void add(int column, double value) {
+        long count = ++n[column];
+        double delta = value - mean[column];
+        mean[column] += delta / count;
+        m2[column] += delta * (value - mean[column]);
+        if (count == 1) {
+            min[column] = value;
+            max[column] = value;
+        } else {
+            if (value < min[column]) {
+                min[column] = value;
+            }
+            if (value > max[column]) {
+                max[column] = value;
+            }
+        }
+    }
+
+    /**
+     * Adds one sample to every active column, values[c] going to column c.
+     */
+    public void addRow(double[] values) {
+        for (int c = 0; c < numColumns; c++) {
+            add(c, values[c]);
+        }
+    }
+
+    /**
+     * Sweeps every row of the table once, adding table columns
+     * firstColumn .. firstColumn + numColumns - 1 to stats columns
+     * 0 .. numColumns - 1.
+     */
+    public void addTable(MonitorTable table, int firstColumn) {
+        int rows = table.getRowCount();
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < numColumns; c++) {
+                add(c, table.columns[firstColumn + c][r]);
+            }
+        }
+    }
+
+    public int getNumColumns() {
+        return numColumns;
+    }
+
+    public long getN(int column) {
+        return n[column];
+    }
+
+    public double getMean(int column) {
+        return n[column] > 0 ? mean[column] : Double.NaN;
+    }
+
+    public double getMin(int column) {
+        return min[column];
+    }
+
+    public double getMax(int column) {
+        return max[column];
+    }
+
+    public double getVariance(int column) {
+        if (n[column] == 0) {
+            return Double.NaN;
+        } else if (n[column] == 1) {
+            return 0.;
+        }
+        return m2[column] / (n[column] - 1);
+    }
+
+    public double getStandardDeviation(int column) {
+        return Math.sqrt(getVariance(column));
+    }
+
+    int numColumns;
+    long[] n;
+    double[] mean;
+    double[] m2;
+    double[] min;
+    double[] max;
+}
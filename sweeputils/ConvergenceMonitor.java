@@ -0,0 +1,231 @@
+/**
+ * Statistical steady-state detector for report values
+ *
+ * Samples of the watched reports are grouped into batches of a fixed number
+ * of samples (one revolution of time steps for a rotating prop, or a block
+ * of iterations for a steady run). A case is converged once, for every
+ * channel, the mean of the last two batches agrees within the tolerance AND
+ * the 95% batch-means confidence interval over the last numBatches batches is
+ * narrower than the tolerance. Both checks are relative to the channel mean,
+ * with an optional absolute floor for channels that settle near zero.
+ *
+ * Only the batch means are stored, so samples can be streamed in while the
+ * solver runs. The caller owns the hard cap on steps; the monitor only says
+ * whether and why it is safe to stop.
+ *
+ * 2017, v11.06
+ */
+package sweeputils;
+
+import java.io.*;
+
+public class ConvergenceMonitor {
+
+    // two sided 95% student t quantiles for 1..30 degrees of freedom
+    static final double[] T95 = {12.706, 4.303, 3.182, 2.776, 2.571, 2.447,
+        2.365, 2.306, 2.262, 2.228, 2.201, 2.179, 2.160, 2.145, 2.131, 2.120,
+        2.110, 2.101, 2.093, 2.086, 2.080, 2.074, 2.069, 2.064, 2.060, 2.056,
+        2.052, 2.048, 2.045, 2.042};
+
+    /**
+     * @param numChannels number of watched reports
+     * @param batchSize samples per batch (e.g. time steps per revolution)
+     * @param numBatches batches used for the confidence interval, at least 2
+     * @param tolerance relative drift and CI half width to accept
+     */
+    public ConvergenceMonitor(int numChannels, int batchSize, int numBatches,
+            double tolerance) {
+        this.numChannels = numChannels;
+        this.batchSize = batchSize;
+        this.numBatches = Math.max(2, numBatches);
+        this.tolerance = tolerance;
+        batchSum = new double[numChannels];
+        batchMeans = new double[numChannels][this.numBatches];
+        reset();
+    }
+
+    public void reset() {
+        for (int c = 0; c < numChannels; c++) {
+            batchSum[c] = 0.;
+        }
+        batchCount = 0;
+        completedBatches = 0;
+        samples = 0;
+        reason = "not converged";
+    }
+
+    /**
+     * Floor below which drift and CI half width are accepted regardless of
+     * the channel mean (0 by default, i.e. purely relative).
+     */
+    public void setAbsoluteTolerance(double absoluteTolerance) {
+        this.absoluteTolerance = absoluteTolerance;
+    }
+
+    /**
+     * Adds one sample of every watched channel.
+     */
+    public void add(double[] values) {
+        for (int c = 0; c < numChannels; c++) {
+            batchSum[c] += values[c];
+        }
+        samples++;
+        if (++batchCount == batchSize) {
+            int slot = (int) (completedBatches % numBatches);
+            for (int c = 0; c < numChannels; c++) {
+                batchMeans[c][slot] = batchSum[c] / batchSize;
+                batchSum[c] = 0.;
+            }
+            batchCount = 0;
+            completedBatches++;
+        }
+    }
+
+    /**
+     * Adds every row of a monitor table, channel c taken from table column
+     * columns[c].
+     */
+    public void addTable(MonitorTable table, int[] columns) {
+        double[] values = new double[numChannels];
+        for (int r = 0; r < table.getRowCount(); r++) {
+            for (int c = 0; c < numChannels; c++) {
+                values[c] = table.columns[columns[c]][r];
+            }
+            add(values);
+        }
+    }
+
+    /**
+     * True once every channel passes both the drift and the confidence
+     * interval test. getReason() says which test is still failing.
+     */
+    public boolean isConverged() {
+        if (completedBatches < numBatches) {
+            reason = "waiting for " + numBatches + " batches, have "
+                    + completedBatches;
+            return false;
+        }
+        for (int c = 0; c < numChannels; c++) {
+            double mean = getMean(c);
+            double allowed = Math.max(tolerance * Math.abs(mean),
+                    absoluteTolerance);
+            double drift = getDrift(c);
+            if (!(drift <= allowed)) {
+                reason = String.format("channel %d batch drift %.3g > %.3g",
+                        c, drift, allowed);
+                return false;
+            }
+            double halfWidth = getHalfWidth(c);
+            if (!(halfWidth <= allowed)) {
+                reason = String.format("channel %d 95%% CI +/-%.3g > %.3g",
+                        c, halfWidth, allowed);
+                return false;
+            }
+        }
+        reason = String.format("converged after %d batches (tol %.3g)",
+                completedBatches, tolerance);
+        return true;
+    }
+
+    public String getReason() {
+        return reason;
+    }
+
+    public long getSamples() {
+        return samples;
+    }
+
+    public long getCompletedBatches() {
+        return completedBatches;
+    }
+
+    /**
+     * Mean of the batch means held for a channel.
+     */
+    public double getMean(int channel) {
+        int k = heldBatches();
+        if (k == 0) {
+            return Double.NaN;
+        }
+        double sum = 0.;
+        for (int b = 0; b < k; b++) {
+            sum += batchMeans[channel][b];
+        }
+        return sum / k;
+    }
+
+    /**
+     * Absolute change between the last two batch means.
+     */
+    public double getDrift(int channel) {
+        if (completedBatches < 2) {
+            return Double.NaN;
+        }
+        int last = (int) ((completedBatches - 1) % numBatches);
+        int prev = (int) ((completedBatches - 2) % numBatches);
+        return Math.abs(batchMeans[channel][last] - batchMeans[channel][prev]);
+    }
+
+    /**
+     * 95% confidence half width of the mean from the held batch means.
+     */
+    public double getHalfWidth(int channel) {
+        int k = heldBatches();
+        if (k < 2) {
+            return Double.NaN;
+        }
+        double mean = getMean(channel);
+        double ss = 0.;
+        for (int b = 0; b < k; b++) {
+            double d = batchMeans[channel][b] - mean;
+            ss += d * d;
+        }
+        double t = k - 1 <= T95.length ? T95[k - 2] : 1.96;
+        return t * Math.sqrt(ss / (k - 1) / k);
+    }
+
+    /**
+     * Appends one line (case, samples, batches, converged, reason) to a csv
+     * stop log, writing the header if the file is new.
+     */
+    public void log(String fileName, String caseName, boolean converged)
+            throws IOException {
+        // shared by the workers of a sweep
+        LockFile lock = new LockFile(fileName);
+        lock.lock();
+        try {
+            boolean header = !new File(fileName).exists();
+            PrintWriter pw = new PrintWriter(new BufferedWriter(
+                    new FileWriter(fileName, true)));
+            try {
+                if (header) {
+                    pw.println("\"Case\",\"Samples\",\"Batches\","
+                            + "\"Converged\",\"Reason\"");
+                }
+                pw.println("\"" + caseName + "\"," + samples + ","
+                        + completedBatches + "," + converged + ",\""
+                        + (converged ? reason : "hard cap, " + reason) + "\"");
+            } finally {
+                pw.close();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int heldBatches() {
+        return (int) Math.min(completedBatches, numBatches);
+    }
+
+    int numChannels;
+    int batchSize;
+    int numBatches;
+    double tolerance;
+    double absoluteTolerance;
+    double[] batchSum;
+    double[][] batchMeans;
+    int batchCount;
+    long completedBatches;
+    long samples;
+    String reason;
+}
@@ -0,0 +1,92 @@
+/**
+ * Stand-in sweep worker for trying CaseDispatcher without STAR-CCM+
+ *
+ * Takes cases from the queue like a sweep macro in worker mode, "solves" them
+ * with a FakeSimulation that sleeps per step and reports analytic propeller
+ * coefficients, and journals one results row per case at row seq + 1, so the
+ * merged rows come out in dispatched order.
+ *
+ *   java sweeputils.FakeWorker [queueDir worker]
+ *
+ * Without arguments the queue and worker come from SWEEP_QUEUE and
+ * SWEEP_WORKER. FAKE_STEP_MILLIS sets the time per step and FAKE_CRASH_SEQ
+ * makes the worker die on that case, to try restarts.
+ *
+ * 2017, v11.06
+ */
+package sweeputils;
+
+import java.io.File;
+
+public class FakeWorker {
+
+    public static void main(String[] args) throws Exception {
+        String dir = args.length > 1 ? args[0]
+                : System.getenv(CaseDispatcher.QUEUE_ENV);
+        int worker = Integer.parseInt(args.length > 1 ? args[1]
+                : System.getenv(CaseDispatcher.WORKER_ENV));
+        long stepMillis = Long.parseLong(env("FAKE_STEP_MILLIS", "5"));
+        int crashSeq = Integer.parseInt(env("FAKE_CRASH_SEQ", "-1"));
+
+        CaseQueue queue = new CaseQueue(dir, worker);
+        ResultsJournal journal = new ResultsJournal(new File(dir,
+                "results.w" + worker + ".xls.journal").getPath());
+        FakeSimulation sim = new FakeSimulation(stepMillis);
+        int n = 0;
+        try {
+            CaseQueue.Claim c;
+            while ((c = queue.take()) != null) {
+                System.out.println("Worker " + worker + " case " + c.seq
+                        + " (index " + c.index + ")");
+                if (c.seq == crashSeq) {
+                    System.out.println("Crashing on purpose");
+                    System.exit(3);
+                }
+                double speed = c.get("speed");
+                double rpm = c.get("rpm");
+                sim.step(20);
+                double j = speed * 0.5144 / (rpm / 60. * sim.diameter);
+                journal.append(c.seq + 1, new Object[]{speed, rpm, j,
+                    sim.kt(j), sim.kq(j), worker});
+                queue.done(c);
+                n++;
+            }
+        } finally {
+            journal.close();
+        }
+        System.out.println("Worker " + worker + " ran " + n + " cases, "
+                + queue.getSteals() + " stolen");
+    }
+
+    static String env(String name, String def) {
+        String v = System.getenv(name);
+        return v == null ? def : v;
+    }
+
+    /*
+     * Just enough of a simulation to cost time and give plausible numbers.
+     */
+    static class FakeSimulation {
+
+        FakeSimulation(long stepMillis) {
+            this.stepMillis = stepMillis;
+        }
+
+        void step(int steps) throws InterruptedException {
+            Thread.sleep(steps * stepMillis);
+            iteration += steps;
+        }
+
+        double kt(double j) {
+            return 0.45 - 0.38 * j - 0.05 * j * j;
+        }
+
+        double kq(double j) {
+            return 0.065 - 0.045 * j - 0.006 * j * j;
+        }
+
+        long stepMillis;
+        int iteration;
+        double diameter = 0.35;
+    }
+}
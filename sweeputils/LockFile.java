@@ -0,0 +1,77 @@
+/**
+ * Cross-process lock on a shared file
+ *
+ * Sweep workers on different nodes share the sim directory, so an index they
+ * all read, change and write back (mesh cache, solved cases, convergence
+ * log) needs a lock that works through the file system alone. The lock is
+ * the file <fileName>.lock: creating it is atomic, so only one worker holds
+ * it, and deleting it releases it. A lock older than staleMillis was left by
+ * a worker that died while holding it and is broken.
+ *
+ *   lock.lock();
+ *   try {
+ *       ... read, change, write ...
+ *   } finally {
+ *       lock.unlock();
+ *   }
+ *
+ * 2017, v11.06
+ */
+package sweeputils;
+
+import java.io.*;
+
+public class LockFile {
+
+    /**
+     * @param fileName the shared file, the lock is fileName.lock
+     */
+    public LockFile(String fileName) {
+        file = new File(fileName + ".lock");
+    }
+
+    /**
+     * Waits until the lock is free and takes it.
+     */
+    public void lock() throws IOException {
+        long start = System.currentTimeMillis();
+        while (!file.createNewFile()) {
+            long age = System.currentTimeMillis() - file.lastModified();
+            if (file.exists() && age > staleMillis) {
+                // holder died, the next createNewFile() takes it over
+                file.delete();
+                continue;
+            }
+            if (System.currentTimeMillis() - start > timeoutMillis) {
+                throw new IOException("timed out waiting for " + file);
+            }
+            try {
+                Thread.sleep(pollMillis);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("waiting for " + file);
+            }
+        }
+    }
+
+    public void unlock() {
+        file.delete();
+    }
+
+    /**
+     * Age after which a lock counts as left behind, 60 s by default. Must be
+     * well above the longest time the lock is held.
+     */
+    public void setStaleMillis(long staleMillis) {
+        this.staleMillis = staleMillis;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    File file;
+    long staleMillis = 60000;
+    long timeoutMillis = 600000;
+    long pollMillis = 50;
+}
@@ -0,0 +1,275 @@
+/**
+ * Disk cache of meshed simulation files
+ *
+ * The transform operations (Translate, Rotate, Transform) and the geometry
+ * fully determine the volume mesh, so a mesh generated once for a trim/height
+ * (or sink/pitch/yaw) can be kept and reopened instead of meshed again. Each
+ * entry is a .sim saved right after meshing, named by a SHA-1 key of the
+ * transform parameters and a geometry hash, so a changed geometry never hits
+ * an old mesh.
+ *
+ * The index (mesh_cache.index, "key,file,bytes,lastUsed" lines) is rewritten
+ * atomically on every change. Workers sharing the cache re-read it and
+ * write it back under a LockFile, so no worker drops another's entries, and
+ * a mesh is copied in under a lock of its own so two workers never write the
+ * same entry. When the entries exceed maxBytes the least
+ * recently used are deleted. A mesh is saved to its own sim file first and
+ * copied in by store(), so a crash while saving never leaves a truncated
+ * mesh in the cache.
+ *
+ * 2017, v11.06
+ */
+package sweeputils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.*;
+import java.util.*;
+
+public class MeshCache {
+
+    static final String INDEX = "mesh_cache.index";
+    static final long COPY_STALE_MILLIS = 30 * 60000;
+
+    /**
+     * @param dir cache directory, created if missing, preferably on local disk
+     * @param maxBytes total size of the entries kept
+     */
+    public MeshCache(String dir, long maxBytes) throws IOException {
+        this.dir = new File(dir);
+        this.maxBytes = maxBytes;
+        if (!this.dir.isDirectory() && !this.dir.mkdirs()) {
+            throw new IOException("cannot create mesh cache " + dir);
+        }
+        index = new AtomicFile(new File(this.dir, INDEX).getPath());
+        lock = new LockFile(index.getFile().getPath());
+        readIndex();
+    }
+
+    /**
+     * Key of a mesh, the hex SHA-1 of the geometry hash and every
+     * name=value transform parameter.
+     */
+    public static String key(String geometryHash, String[] names,
+            double[] values) {
+        StringBuilder sb = new StringBuilder(geometryHash);
+        for (int i = 0; i < names.length; i++) {
+            sb.append('|').append(names[i]).append('=').append(values[i]);
+        }
+        return hash(sb.toString());
+    }
+
+    /**
+     * Hex SHA-1 of the strings, used for geometry hashes built from part
+     * names, surface counts and version inputs.
+     */
+    public static String hash(String... parts) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            for (String part : parts) {
+                md.update(part.getBytes(StandardCharsets.UTF_8));
+                md.update((byte) 0);
+            }
+            StringBuilder hex = new StringBuilder();
+            for (byte b : md.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Cached sim file of the key, or null. A hit makes the entry the most
+     * recently used.
+     */
+    public File lookup(String key) throws IOException {
+        lock.lock();
+        try {
+            reload();
+            Entry e = entries.get(key);
+            if (e != null && !e.file.isFile()) {
+                // deleted behind our back
+                entries.remove(key);
+                writeIndex();
+                e = null;
+            }
+            if (e == null) {
+                misses++;
+                return null;
+            }
+            hits++;
+            e.lastUsed = System.currentTimeMillis();
+            writeIndex();
+            return e.file;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Copies a mesh saved to its own sim file into the cache and evicts the
+     * least recently used entries over the size limit. The copy goes through
+     * an AtomicFile, so the sim keeps a real file as its session path and a
+     * crash while copying never leaves a truncated mesh in the cache.
+     */
+    public void store(String key, File sim) throws IOException {
+        File file = new File(dir, key + ".sim");
+        // the copy can take minutes, it holds the entry lock only
+        LockFile entryLock = new LockFile(file.getPath());
+        entryLock.setStaleMillis(COPY_STALE_MILLIS);
+        entryLock.lock();
+        try {
+            if (isStored(key)) {
+                return; // stored by another worker meanwhile
+            }
+            AtomicFile target = new AtomicFile(file.getPath());
+            FileOutputStream out = target.startWrite();
+            try {
+                Files.copy(sim.toPath(), out);
+            } catch (IOException ex) {
+                target.failWrite(out);
+                throw ex;
+            }
+            target.finishWrite(out);
+            lock.lock();
+            try {
+                reload();
+                entries.put(key, new Entry(key, file, file.length(),
+                        System.currentTimeMillis()));
+                evict(key);
+                writeIndex();
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            entryLock.unlock();
+        }
+    }
+
+    void evict(String keep) {
+        long total = getBytes();
+        while (total > maxBytes && entries.size() > 1) {
+            Entry oldest = null;
+            for (Entry e : entries.values()) {
+                if (!e.key.equals(keep)
+                        && (oldest == null || e.lastUsed < oldest.lastUsed)) {
+                    oldest = e;
+                }
+            }
+            if (oldest == null) {
+                return;
+            }
+            oldest.file.delete();
+            entries.remove(oldest.key);
+            total -= oldest.bytes;
+            evictions++;
+        }
+    }
+
+    private boolean isStored(String key) throws IOException {
+        lock.lock();
+        try {
+            reload();
+            Entry e = entries.get(key);
+            return e != null && e.file.isFile();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Replaces the entries by the index as other workers left it.
+     */
+    void reload() throws IOException {
+        entries.clear();
+        readIndex();
+    }
+
+    void readIndex() throws IOException {
+        File file = new File(dir, INDEX);
+        if (!file.exists()) {
+            return;
+        }
+        BufferedReader br = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] f = line.split(",");
+                if (f.length != 4) {
+                    continue;
+                }
+                File sim = new File(dir, f[1]);
+                if (sim.isFile()) {
+                    entries.put(f[0], new Entry(f[0], sim,
+                            Long.parseLong(f[2]), Long.parseLong(f[3])));
+                }
+            }
+        } catch (NumberFormatException ex) {
+            // damaged index, the entries read so far are kept
+        } finally {
+            br.close();
+        }
+    }
+
+    void writeIndex() throws IOException {
+        FileOutputStream out = index.startWrite();
+        try {
+            StringBuilder sb = new StringBuilder();
+            for (Entry e : entries.values()) {
+                sb.append(e.key).append(',').append(e.file.getName())
+                        .append(',').append(e.bytes)
+                        .append(',').append(e.lastUsed).append('\n');
+            }
+            out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException ex) {
+            index.failWrite(out);
+            throw ex;
+        }
+        index.finishWrite(out);
+    }
+
+    public long getBytes() {
+        long total = 0;
+        for (Entry e : entries.values()) {
+            total += e.bytes;
+        }
+        return total;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public String summary() {
+        return "Mesh cache " + dir + ": " + entries.size() + " meshes, "
+                + getBytes() / (1 << 20) + " MB, " + hits + " hits, "
+                + misses + " misses, " + evictions + " evicted";
+    }
+
+    static class Entry {
+
+        Entry(String key, File file, long bytes, long lastUsed) {
+            this.key = key;
+            this.file = file;
+            this.bytes = bytes;
+            this.lastUsed = lastUsed;
+        }
+
+        final String key;
+        final File file;
+        final long bytes;
+        long lastUsed;
+    }
+
+    File dir;
+    long maxBytes;
+    AtomicFile index;
+    LockFile lock;
+    Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+    int hits;
+    int misses;
+    int evictions;
+}
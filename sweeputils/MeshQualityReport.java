@@ -0,0 +1,242 @@
+/**
+ * Machine-readable result of a mesh quality check
+ *
+ * meshQualityCheck fills one report per run with what it prints: cell counts
+ * of fluid and solid regions, the cells past each threshold, the min/max
+ * metrics, the binned histograms and the seconds spent per phase. toJson()
+ * is the full report written next to the sim,
+ *
+ *   {"t":1491300000000,"sim":"BIII_28P","mesh":"3f2a...",
+ *    "cells":{"fluid":4.1E7,"solid":null,"total":4.1E7},
+ *    "thresholds":{"cellQuality":{"threshold":0.1,"fluid":12.0,...},...},
+ *    "metrics":{"minCellQuality":0.031,...},
+ *    "histograms":{"CellQuality":{"log":false,"edges":[...],...}},
+ *    "timings":{"metrics":41.2,...}}
+ *
+ * and trendLine() its flat scalar part, one line per run in a
+ * QualityTrendStore. The mesh is identified by a fingerprint of its regions
+ * that changes whenever it is remeshed. Values not measured, e.g. solid
+ * counts of a fluid-only mesh, are NaN and written as null.
+ *
+ * 2017, v11.06
+ */
+package sweeputils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+public class MeshQualityReport {
+
+    /**
+     * @param sim sim name
+     * @param mesh fingerprint of the mesh checked
+     */
+    public MeshQualityReport(String sim, String mesh) {
+        this.sim = sim;
+        this.mesh = mesh;
+        time = System.currentTimeMillis();
+    }
+
+    public void setCells(double fluid, double solid) {
+        fluidCells = fluid;
+        solidCells = solid;
+    }
+
+    /**
+     * Cells of fluid and solid regions past the threshold of a metric.
+     */
+    public void addThreshold(String metric, double threshold, double fluid,
+            double solid) {
+        thresholds.put(metric, new double[]{threshold, fluid, solid});
+    }
+
+    /**
+     * A single value over all regions, e.g. minCellQuality.
+     */
+    public void addMetric(String name, double value) {
+        metrics.put(name, value);
+    }
+
+    public void addHistogram(String name, MetricHistogram histogram) {
+        histograms.put(name, histogram);
+    }
+
+    public void addTiming(String phase, double seconds) {
+        Double sum = timings.get(phase);
+        timings.put(phase, (sum == null ? 0. : sum) + seconds);
+    }
+
+    public String getSim() {
+        return sim;
+    }
+
+    public String getMesh() {
+        return mesh;
+    }
+
+    public double getTotalCells() {
+        return Double.isNaN(solidCells) ? fluidCells : fluidCells + solidCells;
+    }
+
+    /**
+     * The trend fields by name, in the order they are written.
+     */
+    public Map<String, Double> getTrend() {
+        Map<String, Double> trend = new LinkedHashMap<String, Double>();
+        trend.put("fluidCells", fluidCells);
+        trend.put("solidCells", solidCells);
+        trend.put("cells", getTotalCells());
+        for (Map.Entry<String, double[]> e : thresholds.entrySet()) {
+            double[] t = e.getValue();
+            trend.put(e.getKey() + "Threshold", t[0]);
+            trend.put(e.getKey() + "Fluid", t[1]);
+            trend.put(e.getKey() + "Solid", t[2]);
+        }
+        trend.putAll(metrics);
+        for (Map.Entry<String, MetricHistogram> e : histograms.entrySet()) {
+            MetricHistogram h = e.getValue();
+            if (h.getCount() > 0) {
+                trend.put(e.getKey() + "P01", h.percentile(.01));
+                trend.put(e.getKey() + "P99", h.percentile(.99));
+            }
+        }
+        double seconds = 0.;
+        for (double s : timings.values()) {
+            seconds += s;
+        }
+        trend.put("seconds", seconds);
+        return trend;
+    }
+
+    /**
+     * The flat record of the trend store, one line without the histograms
+     * and per phase timings.
+     */
+    public String trendLine() {
+        StringBuilder sb = head();
+        for (Map.Entry<String, Double> e : getTrend().entrySet()) {
+            sb.append(',');
+            field(sb, e.getKey(), e.getValue());
+        }
+        return sb.append('}').toString();
+    }
+
+    public String toJson() {
+        StringBuilder sb = head();
+        sb.append(",\n\"cells\":{");
+        field(sb, "fluid", fluidCells);
+        sb.append(',');
+        field(sb, "solid", solidCells);
+        sb.append(',');
+        field(sb, "total", getTotalCells());
+        sb.append("},\n\"thresholds\":{");
+        String sep = "";
+        for (Map.Entry<String, double[]> e : thresholds.entrySet()) {
+            double[] t = e.getValue();
+            sb.append(sep);
+            RowJson.quote(sb, e.getKey());
+            sb.append(":{");
+            field(sb, "threshold", t[0]);
+            sb.append(',');
+            field(sb, "fluid", t[1]);
+            sb.append(',');
+            field(sb, "solid", t[2]);
+            sb.append(',');
+            field(sb, "fluidFraction", t[1] / fluidCells);
+            sb.append(',');
+            field(sb, "solidFraction", t[2] / solidCells);
+            sb.append('}');
+            sep = ",";
+        }
+        sb.append("},\n\"metrics\":{");
+        sep = "";
+        for (Map.Entry<String, Double> e : metrics.entrySet()) {
+            field(sb.append(sep), e.getKey(), e.getValue());
+            sep = ",";
+        }
+        sb.append("},\n\"histograms\":{");
+        sep = "";
+        for (Map.Entry<String, MetricHistogram> e : histograms.entrySet()) {
+            sb.append(sep);
+            RowJson.quote(sb, e.getKey());
+            histogram(sb.append(':'), e.getValue());
+            sep = ",\n";
+        }
+        sb.append("},\n\"timings\":{");
+        sep = "";
+        for (Map.Entry<String, Double> e : timings.entrySet()) {
+            field(sb.append(sep), e.getKey(), e.getValue());
+            sep = ",";
+        }
+        return sb.append("}}\n").toString();
+    }
+
+    private StringBuilder head() {
+        StringBuilder sb = new StringBuilder(512);
+        sb.append("{\"t\":").append(time).append(",\"sim\":");
+        RowJson.quote(sb, sim);
+        sb.append(",\"mesh\":");
+        RowJson.quote(sb, mesh);
+        return sb;
+    }
+
+    private static void histogram(StringBuilder sb, MetricHistogram h) {
+        synchronized (h) {
+            sb.append("{\"log\":").append(h.isLog() ? "true" : "false");
+            sb.append(",\"edges\":[");
+            long[] counts = h.getCounts();
+            for (int b = 0; b <= counts.length; b++) {
+                number(sb.append(b > 0 ? "," : ""), h.edge(b));
+            }
+            sb.append("],\"counts\":[");
+            for (int b = 0; b < counts.length; b++) {
+                sb.append(b > 0 ? "," : "").append(counts[b]);
+            }
+            sb.append("],\"under\":").append(h.under)
+                    .append(",\"over\":").append(h.over)
+                    .append(",\"nan\":").append(h.nan).append(',');
+            field(sb, "min", h.getCount() > 0 ? h.getMin() : Double.NaN);
+            sb.append(',');
+            field(sb, "max", h.getCount() > 0 ? h.getMax() : Double.NaN);
+            sb.append('}');
+        }
+    }
+
+    private static void field(StringBuilder sb, String key, double v) {
+        RowJson.quote(sb, key);
+        number(sb.append(':'), v);
+    }
+
+    /*
+     * Plain JSON has no NaN or Infinity, a value that is not finite is null.
+     */
+    private static void number(StringBuilder sb, double v) {
+        if (Double.isNaN(v) || Double.isInfinite(v)) {
+            sb.append("null");
+        } else {
+            sb.append(v);
+        }
+    }
+
+    public void write(String fileName) throws IOException {
+        Writer out = new OutputStreamWriter(new FileOutputStream(fileName),
+                StandardCharsets.UTF_8);
+        try {
+            out.write(toJson());
+        } finally {
+            out.close();
+        }
+    }
+
+    String sim;
+    String mesh;
+    long time;
+    double fluidCells = Double.NaN;
+    double solidCells = Double.NaN;
+    Map<String, double[]> thresholds = new LinkedHashMap<String, double[]>();
+    Map<String, Double> metrics = new LinkedHashMap<String, Double>();
+    Map<String, MetricHistogram> histograms
+            = new LinkedHashMap<String, MetricHistogram>();
+    Map<String, Double> timings = new LinkedHashMap<String, Double>();
+}
@@ -0,0 +1,169 @@
+/**
+ * Orders run matrix cases so each mesh is generated once
+ *
+ * A remesh (clear solution, update volume mesh) is needed whenever a geometry
+ * axis (trim, height, sink, roll, pitch, yaw) changes, while physics-only axes
+ * (speed, rpm, mfr) are just values on the live mesh. Matrices are usually
+ * written with speed outermost, so every speed remeshes every trim again.
+ *
+ * The scheduler groups the cases by the values of the geometry axes present in
+ * the matrix. Groups run in the order their first case appears and cases keep
+ * matrix order inside a group, so warm starts along the inner axes (rpm) are
+ * unchanged. Cases are re-linked to the new order, so Case.changed(),
+ * isNew() and isFirst() describe the case that actually ran before them.
+ *
+ * A Filter drops cases before scheduling, e.g. those a SweepManifest records as
+ * done, so the settings of the remaining cases are re-linked correctly.
+ *
+ * Unlike RunMatrix this has to hold every case, which is a few doubles each.
+ *
+ * 2017, v11.06
+ */
+package sweeputils;
+
+import java.util.*;
+
+public class MeshScheduler implements Iterable<RunMatrix.Case> {
+
+    public static final String[] GEOMETRY = {"trim", "height", "sink",
+        "roll", "pitch", "yaw"};
+
+    public MeshScheduler(RunMatrix matrix) {
+        this(matrix, null, GEOMETRY);
+    }
+
+    public MeshScheduler(RunMatrix matrix, Filter filter) {
+        this(matrix, filter, GEOMETRY);
+    }
+
+    /**
+     * @param matrix cases to order
+     * @param filter cases to keep, null keeps all
+     * @param geometry axes that need a remesh when they change, names missing
+     * from the matrix are ignored
+     */
+    public MeshScheduler(RunMatrix matrix, Filter filter,
+            String... geometry) {
+        List<String> present = new ArrayList<String>();
+        for (String axis : geometry) {
+            if (matrix.hasAxis(axis)) {
+                present.add(axis);
+            }
+        }
+        geometryAxes = present.toArray(new String[present.size()]);
+        int[] columns = new int[geometryAxes.length];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = matrix.axisIndex(geometryAxes[i]);
+        }
+
+        Map<List<Double>, List<RunMatrix.Case>> groups
+                = new LinkedHashMap<List<Double>, List<RunMatrix.Case>>();
+        List<Double> last = null;
+        for (RunMatrix.Case c : matrix) {
+            if (filter != null && !filter.accept(c)) {
+                skipped++;
+                continue;
+            }
+            List<Double> key = new ArrayList<Double>(columns.length);
+            for (int col : columns) {
+                key.add(c.values[col]);
+            }
+            if (!key.equals(last)) {
+                naiveMeshes++;
+            }
+            last = key;
+            List<RunMatrix.Case> group = groups.get(key);
+            if (group == null) {
+                group = new ArrayList<RunMatrix.Case>();
+                groups.put(key, group);
+            }
+            group.add(c);
+        }
+
+        RunMatrix.Case previous = null;
+        for (List<RunMatrix.Case> group : groups.values()) {
+            for (RunMatrix.Case c : group) {
+                previous = c.after(previous);
+                cases.add(previous);
+            }
+        }
+        meshes = groups.size();
+    }
+
+    public Iterator<RunMatrix.Case> iterator() {
+        return Collections.unmodifiableList(cases).iterator();
+    }
+
+    /**
+     * True if the mesh has to be regenerated before this case, i.e. a
+     * geometry axis changed since the case before it.
+     */
+    public boolean isRemesh(RunMatrix.Case c) {
+        return c.changed(geometryAxes);
+    }
+
+    /**
+     * Cases dropped by the filter.
+     */
+    public int getSkipped() {
+        return skipped;
+    }
+
+    public String[] getGeometryAxes() {
+        return geometryAxes.clone();
+    }
+
+    public int getCaseCount() {
+        return cases.size();
+    }
+
+    /**
+     * Meshes generated in scheduled order, one per distinct geometry.
+     */
+    public int getMeshCount() {
+        return meshes;
+    }
+
+    /**
+     * Meshes the matrix order would have generated.
+     */
+    public int getNaiveMeshCount() {
+        return naiveMeshes;
+    }
+
+    public int getSavedMeshes() {
+        return naiveMeshes - meshes;
+    }
+
+    /**
+     * Solver steps in scheduled order, first-of-pass cases included.
+     */
+    public long getEstimatedSteps() {
+        long n = 0;
+        for (RunMatrix.Case c : cases) {
+            n += c.getSteps();
+        }
+        return n;
+    }
+
+    public String summary() {
+        return "Cases: " + cases.size()
+                + ", estimated steps: " + getEstimatedSteps()
+                + ", meshes: " + meshes
+                + " (matrix order " + naiveMeshes
+                + ", saved " + getSavedMeshes() + ")"
+                + ", geometry: " + Arrays.toString(geometryAxes)
+                + (skipped > 0 ? ", skipped: " + skipped : "");
+    }
+
+    public interface Filter {
+
+        boolean accept(RunMatrix.Case c);
+    }
+
+    String[] geometryAxes;
+    List<RunMatrix.Case> cases = new ArrayList<RunMatrix.Case>();
+    int meshes;
+    int naiveMeshes;
+    int skipped;
+}
@@ -0,0 +1,480 @@
+/**
+ * Histogram of a per-cell mesh quality metric, binned in parallel
+ *
+ * The STAR histogram plots of meshQualityCheck are slow to render on 100M
+ * cell meshes and their bins cannot be used outside the GUI. This bins the
+ * metric values exported to a table (one column per field function) instead,
+ * streaming the file in blocks that a fork-join pool splits across cores.
+ *
+ * Bins are linear or logarithmic between lo and hi, values outside go to the
+ * underflow and overflow counts (zero and negative values are underflow of a
+ * log histogram), NaNs are counted separately. The presets match the plots:
+ *
+ *   CellQuality     20 linear bins over 0..1
+ *   SkewnessAngle   18 linear bins over 0..180 deg
+ *   VolumeChange    1000 log bins over 1e-5..1
+ *
+ * Percentiles interpolate inside their bin, linearly or logarithmically like
+ * the bins. Results go to a csv (one row per bin with the cumulative
+ * fraction) or a compact binary file that read() loads again.
+ *
+ * 2017, v11.06
+ */
+package sweeputils;
+
+import com.opencsv.CSVParser;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+public class MetricHistogram {
+
+    public static MetricHistogram linear(double lo, double hi, int bins) {
+        return new MetricHistogram(false, lo, hi, bins);
+    }
+
+    public static MetricHistogram log(double lo, double hi, int bins) {
+        if (!(lo > 0)) {
+            throw new IllegalArgumentException("log bins need lo > 0");
+        }
+        return new MetricHistogram(true, lo, hi, bins);
+    }
+
+    /**
+     * Bins of the meshQualityCheck histogram plot of a field function.
+     */
+    public static MetricHistogram preset(String function) {
+        if (function.equals("CellQuality")) {
+            return linear(0., 1., 20);
+        } else if (function.equals("SkewnessAngle")) {
+            return linear(0., 180., 18);
+        } else if (function.equals("VolumeChange")) {
+            return log(1e-5, 1., 1000);
+        }
+        throw new IllegalArgumentException("no preset for " + function);
+    }
+
+    MetricHistogram(boolean logBins, double lo, double hi, int bins) {
+        if (!(hi > lo) || bins < 1) {
+            throw new IllegalArgumentException("bad bins " + lo + ".." + hi
+                    + " x " + bins);
+        }
+        this.logBins = logBins;
+        this.lo = lo;
+        this.hi = hi;
+        this.counts = new long[bins];
+        a = logBins ? Math.log(lo) : lo;
+        scale = bins / ((logBins ? Math.log(hi) : hi) - a);
+    }
+
+    /**
+     * Bins values[from, to) on the fork-join pool.
+     */
+    public void add(double[] values, int from, int to) {
+        Partial p = to - from <= SPLIT ? bin(values, from, to)
+                : pool.invoke(new BinTask(values, from, to));
+        merge(p);
+    }
+
+    public void add(double... values) {
+        add(values, 0, values.length);
+    }
+
+    synchronized void merge(Partial p) {
+        for (int b = 0; b < counts.length; b++) {
+            counts[b] += p.counts[b];
+        }
+        under += p.under;
+        over += p.over;
+        nan += p.nan;
+        min = Math.min(min, p.min);
+        max = Math.max(max, p.max);
+    }
+
+    int index(double v) {
+        double x = logBins ? (v > 0 ? Math.log(v) : Double.NEGATIVE_INFINITY)
+                : v;
+        double f = (x - a) * scale;
+        if (f < 0) {
+            return -1;
+        }
+        // hi itself belongs to the last bin, like a plot range does
+        return f < counts.length ? (int) f : v == hi ? counts.length - 1
+                : counts.length;
+    }
+
+    Partial bin(double[] values, int from, int to) {
+        Partial p = new Partial(counts.length);
+        for (int i = from; i < to; i++) {
+            double v = values[i];
+            if (v != v) {
+                p.nan++;
+                continue;
+            }
+            if (v < p.min) {
+                p.min = v;
+            }
+            if (v > p.max) {
+                p.max = v;
+            }
+            int b = index(v);
+            if (b < 0) {
+                p.under++;
+            } else if (b >= counts.length) {
+                p.over++;
+            } else {
+                p.counts[b]++;
+            }
+        }
+        return p;
+    }
+
+    /*
+     * Counts of one block of values.
+     */
+    static class Partial {
+
+        Partial(int bins) {
+            counts = new long[bins];
+        }
+
+        void add(Partial o) {
+            for (int b = 0; b < counts.length; b++) {
+                counts[b] += o.counts[b];
+            }
+            under += o.under;
+            over += o.over;
+            nan += o.nan;
+            min = Math.min(min, o.min);
+            max = Math.max(max, o.max);
+        }
+
+        long[] counts;
+        long under;
+        long over;
+        long nan;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+    }
+
+    class BinTask extends RecursiveTask<Partial> {
+
+        BinTask(double[] values, int from, int to) {
+            this.values = values;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected Partial compute() {
+            if (to - from <= SPLIT) {
+                return bin(values, from, to);
+            }
+            int mid = (from + to) >>> 1;
+            BinTask left = new BinTask(values, from, mid);
+            left.fork();
+            Partial p = new BinTask(values, mid, to).compute();
+            p.add(left.join());
+            return p;
+        }
+
+        static final long serialVersionUID = 1L;
+
+        double[] values;
+        int from;
+        int to;
+    }
+
+    /**
+     * Bins one column of a table export, found by a header containing name
+     * (e.g. "VolumeChange"). Returns the number of values read.
+     */
+    public long addColumn(String fileName, String name) throws IOException {
+        return addColumns(fileName, new String[]{name}, this);
+    }
+
+    /**
+     * Bins several columns of a table export in one pass, column names[k]
+     * into hists[k]. The file is read in blocks, so a column never has to fit
+     * in memory at once. Returns the number of rows read.
+     */
+    public static long addColumns(String fileName, String[] names,
+            MetricHistogram... hists) throws IOException {
+        BufferedReader br = new BufferedReader(new FileReader(fileName),
+                1 << 20);
+        try {
+            String header = br.readLine();
+            if (header == null) {
+                return 0;
+            }
+            String[] headers = new CSVParser().parseLine(header);
+            int[] columns = new int[names.length];
+            for (int k = 0; k < names.length; k++) {
+                columns[k] = -1;
+                for (int c = 0; c < headers.length && columns[k] < 0; c++) {
+                    if (headers[c].contains(names[k])) {
+                        columns[k] = c;
+                    }
+                }
+                if (columns[k] < 0) {
+                    throw new IOException("no column " + names[k] + " in "
+                            + fileName);
+                }
+            }
+            double[][] blocks = new double[names.length][BLOCK
+                    / names.length];
+            int n = 0;
+            long total = 0;
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                for (int k = 0; k < names.length; k++) {
+                    blocks[k][n] = field(line, columns[k]);
+                }
+                if (++n == blocks[0].length) {
+                    for (int k = 0; k < names.length; k++) {
+                        hists[k].add(blocks[k], 0, n);
+                    }
+                    total += n;
+                    n = 0;
+                }
+            }
+            for (int k = 0; k < names.length; k++) {
+                hists[k].add(blocks[k], 0, n);
+            }
+            return total + n;
+        } finally {
+            br.close();
+        }
+    }
+
+    static double field(String line, int column) {
+        int start = 0;
+        for (int c = 0; c < column; c++) {
+            start = line.indexOf(',', start) + 1;
+            if (start == 0) {
+                return Double.NaN;
+            }
+        }
+        int end = line.indexOf(',', start);
+        String s = line.substring(start, end < 0 ? line.length() : end)
+                .trim();
+        try {
+            return Double.parseDouble(s);
+        } catch (NumberFormatException ex) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Lower edge of bin b, b = bins is the upper edge of the last one.
+     */
+    public double edge(int b) {
+        double x = a + b / scale;
+        return b == counts.length ? hi : logBins ? Math.exp(x) : x;
+    }
+
+    /**
+     * Values binned, out of range ones included, NaNs not.
+     */
+    public synchronized long getCount() {
+        long n = under + over;
+        for (long c : counts) {
+            n += c;
+        }
+        return n;
+    }
+
+    /**
+     * Value below which a fraction q of the values lie. Ranks in the
+     * underflow or overflow return the smallest or largest value seen.
+     */
+    public synchronized double percentile(double q) {
+        long n = getCount();
+        if (n == 0) {
+            return Double.NaN;
+        }
+        double rank = q * n;
+        if (rank <= under) {
+            return under > 0 ? min : Math.max(min, lo);
+        }
+        double seen = under;
+        for (int b = 0; b < counts.length; b++) {
+            if (counts[b] > 0 && seen + counts[b] >= rank) {
+                double f = (rank - seen) / counts[b];
+                double x0 = a + b / scale;
+                double x = x0 + f / scale;
+                double v = logBins ? Math.exp(x) : x;
+                return Math.min(Math.max(v, min), max);
+            }
+            seen += counts[b];
+        }
+        return max;
+    }
+
+    /**
+     * Fraction of the values below v, by whole bins.
+     */
+    public synchronized double fractionBelow(double v) {
+        long n = getCount();
+        if (n == 0) {
+            return Double.NaN;
+        }
+        int b = Math.min(index(v), counts.length);
+        long below = under;
+        for (int i = 0; i < b; i++) {
+            below += counts[i];
+        }
+        return b < 0 ? 0. : (double) below / n;
+    }
+
+    public synchronized String summary() {
+        return String.format(Locale.ROOT, "%d cells, min %.4g, p1 %.4g,"
+                + " p5 %.4g, p50 %.4g, p95 %.4g, p99 %.4g, max %.4g"
+                + " (%d below %.4g, %d above %.4g%s)", getCount(), min,
+                percentile(.01), percentile(.05), percentile(.5),
+                percentile(.95), percentile(.99), max, under, lo, over, hi,
+                nan > 0 ? ", " + nan + " NaN" : "");
+    }
+
+    /**
+     * One row per bin: lower and upper edge, count and cumulative fraction,
+     * with rows for the underflow and overflow.
+     */
+    public synchronized void writeCsv(String fileName) throws IOException {
+        PrintWriter pw = new PrintWriter(new BufferedWriter(
+                new FileWriter(fileName)));
+        try {
+            long n = getCount();
+            long seen = under;
+            pw.println("from,to,count,cumulative fraction");
+            pw.printf(Locale.ROOT, "%s,%.6g,%d,%.6g%n", "-inf", lo, under,
+                    n == 0 ? 0. : (double) seen / n);
+            for (int b = 0; b < counts.length; b++) {
+                seen += counts[b];
+                pw.printf(Locale.ROOT, "%.6g,%.6g,%d,%.6g%n", edge(b),
+                        edge(b + 1), counts[b], n == 0 ? 0. : (double) seen / n);
+            }
+            pw.printf(Locale.ROOT, "%.6g,%s,%d,%.6g%n", hi, "inf", over,
+                    n == 0 ? 0. : 1.);
+        } finally {
+            pw.close();
+        }
+    }
+
+    /**
+     * Bins and counts in a compact binary layout, see read().
+     */
+    public synchronized void writeBinary(String fileName) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(fileName)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeBoolean(logBins);
+            out.writeDouble(lo);
+            out.writeDouble(hi);
+            out.writeInt(counts.length);
+            out.writeLong(under);
+            out.writeLong(over);
+            out.writeLong(nan);
+            out.writeDouble(min);
+            out.writeDouble(max);
+            for (long c : counts) {
+                out.writeLong(c);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    public static MetricHistogram read(String fileName) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(fileName)));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(fileName + " is not a histogram");
+            }
+            boolean logBins = in.readBoolean();
+            double lo = in.readDouble();
+            double hi = in.readDouble();
+            MetricHistogram h = new MetricHistogram(logBins, lo, hi,
+                    in.readInt());
+            h.under = in.readLong();
+            h.over = in.readLong();
+            h.nan = in.readLong();
+            h.min = in.readDouble();
+            h.max = in.readDouble();
+            for (int b = 0; b < h.counts.length; b++) {
+                h.counts[b] = in.readLong();
+            }
+            return h;
+        } finally {
+            in.close();
+        }
+    }
+
+    public synchronized long[] getCounts() {
+        return counts.clone();
+    }
+
+    public synchronized double getMin() {
+        return min;
+    }
+
+    public synchronized double getMax() {
+        return max;
+    }
+
+    public boolean isLog() {
+        return logBins;
+    }
+
+    /**
+     * MetricHistogram table.csv function [lin|log lo hi bins]
+     *
+     * Bins one field function column of a table export with its preset or
+     * the given bins, writes table_function.hist and .csv next to it and
+     * prints the percentiles.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2 && args.length != 6) {
+            System.err.println("usage: MetricHistogram table.csv function"
+                    + " [lin|log lo hi bins]");
+            System.exit(2);
+        }
+        MetricHistogram h;
+        if (args.length == 2) {
+            h = preset(args[1]);
+        } else {
+            double lo = Double.parseDouble(args[3]);
+            double hi = Double.parseDouble(args[4]);
+            int bins = Integer.parseInt(args[5]);
+            h = args[2].equals("log") ? log(lo, hi, bins)
+                    : linear(lo, hi, bins);
+        }
+        h.addColumn(args[0], args[1]);
+        String base = args[0].replaceFirst("\\.csv$", "") + "_" + args[1];
+        h.writeBinary(base + ".hist");
+        h.writeCsv(base + ".csv");
+        System.out.println(args[1] + ": " + h.summary());
+    }
+
+    static final int MAGIC = 0x4d484931; // "MHI1"
+    static final int SPLIT = 1 << 15;
+    static final int BLOCK = 1 << 22;
+
+    boolean logBins;
+    double lo;
+    double hi;
+    double a;
+    double scale;
+    long[] counts;
+    long under;
+    long over;
+    long nan;
+    double min = Double.POSITIVE_INFINITY;
+    double max = Double.NEGATIVE_INFINITY;
+    ForkJoinPool pool = ForkJoinPool.commonPool();
+}
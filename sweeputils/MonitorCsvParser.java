@@ -0,0 +1,191 @@
+/**
+ * Allocation-free parser for STAR-CCM+ monitor plot csv exports
+ *
+ * MonitorPlot.export(fileName, ",") always writes a quoted header followed by
+ * rows of comma separated doubles in plain or E notation. This parser reads
+ * those rows straight out of a (mapped) ByteBuffer into double[] columns
+ * without creating a String per field. Anything it does not recognise
+ * (quoted fields, NaN, short rows, ...) makes parse() return false so the
+ * caller can fall back to OpenCSV.
+ *
+ * Values with up to 15 significant digits and a decimal exponent within
+ * +/-22 are converted exactly; anything else is rounded to within a couple
+ * of ulps, which is far below monitor noise.
+ *
+ * 2017, v11.06
+ */
+package sweeputils;
+
+import java.nio.ByteBuffer;
+
+public class MonitorCsvParser {
+
+    static final double[] POW10 = new double[309];
+
+    static {
+        for (int i = 0; i < POW10.length; i++) {
+            POW10[i] = Double.parseDouble("1e" + i);
+        }
+    }
+
+    /**
+     * Number of non-blank lines in the buffer.
+     */
+    public static int countRows(ByteBuffer buf) {
+        int rows = 0;
+        boolean content = false;
+        for (int pos = 0; pos < buf.limit(); pos++) {
+            byte b = buf.get(pos);
+            if (b == '\n') {
+                if (content) {
+                    rows++;
+                }
+                content = false;
+            } else if (b != '\r') {
+                content = true;
+            }
+        }
+        if (content) {
+            rows++;
+        }
+        return rows;
+    }
+
+    /**
+     * Parses every non-blank line of the buffer into the given columns, one
+     * row per line. Each line must have exactly columns.length numeric
+     * fields. Returns false, leaving the columns partially filled, if the
+     * layout is not the plain numeric one.
+     */
+    public boolean parse(ByteBuffer buf, double[][] columns) {
+        limit = buf.limit();
+        pos = 0;
+        int row = 0;
+        while (pos < limit) {
+            skipEol(buf);
+            if (pos >= limit) {
+                break;
+            }
+            for (int c = 0; c < columns.length; c++) {
+                if (!parseField(buf)) {
+                    return false;
+                }
+                if (row >= columns[c].length) {
+                    return false;
+                }
+                columns[c][row] = value;
+                skipSpaces(buf);
+                if (c < columns.length - 1) {
+                    if (pos >= limit || buf.get(pos) != ',') {
+                        return false;
+                    }
+                    pos++;
+                }
+            }
+            // line must end after the last field
+            if (pos < limit && !isEol(buf.get(pos))) {
+                return false;
+            }
+            row++;
+        }
+        return true;
+    }
+
+    /*
+     * Parses one number starting at pos into value. Leaves pos just past the
+     * number.
+     */
+    private boolean parseField(ByteBuffer buf) {
+        skipSpaces(buf);
+        boolean negative = false;
+        if (pos < limit && (buf.get(pos) == '-' || buf.get(pos) == '+')) {
+            negative = buf.get(pos) == '-';
+            pos++;
+        }
+        long mantissa = 0;
+        int sigDigits = 0;
+        int exp10 = 0;
+        int numDigits = 0;
+        boolean dot = false;
+        while (pos < limit) {
+            byte b = buf.get(pos);
+            if (b >= '0' && b <= '9') {
+                numDigits++;
+                if (sigDigits < 18) {
+                    if (mantissa != 0 || b != '0') {
+                        mantissa = mantissa * 10 + (b - '0');
+                        sigDigits++;
+                    }
+                    if (dot) {
+                        exp10--;
+                    }
+                } else if (!dot) {
+                    // digit dropped from the integer part
+                    exp10++;
+                }
+            } else if (b == '.' && !dot) {
+                dot = true;
+            } else {
+                break;
+            }
+            pos++;
+        }
+        if (numDigits == 0) {
+            return false;
+        }
+        if (pos < limit && (buf.get(pos) == 'e' || buf.get(pos) == 'E')) {
+            pos++;
+            boolean expNegative = false;
+            if (pos < limit && (buf.get(pos) == '-' || buf.get(pos) == '+')) {
+                expNegative = buf.get(pos) == '-';
+                pos++;
+            }
+            int exp = 0;
+            int expDigits = 0;
+            while (pos < limit && buf.get(pos) >= '0' && buf.get(pos) <= '9') {
+                if (exp < 10000) {
+                    exp = exp * 10 + (buf.get(pos) - '0');
+                }
+                expDigits++;
+                pos++;
+            }
+            if (expDigits == 0) {
+                return false;
+            }
+            exp10 += expNegative ? -exp : exp;
+        }
+        double v;
+        if (mantissa == 0) {
+            v = 0.;
+        } else if (exp10 < -POW10.length + 1 || exp10 > POW10.length - 1) {
+            // denormal or overflow territory, leave it to Double.parseDouble
+            return false;
+        } else if (exp10 < 0) {
+            v = mantissa / POW10[-exp10];
+        } else {
+            v = mantissa * POW10[exp10];
+        }
+        value = negative ? -v : v;
+        return true;
+    }
+
+    private void skipSpaces(ByteBuffer buf) {
+        while (pos < limit && (buf.get(pos) == ' ' || buf.get(pos) == '\t')) {
+            pos++;
+        }
+    }
+
+    private void skipEol(ByteBuffer buf) {
+        while (pos < limit && isEol(buf.get(pos))) {
+            pos++;
+        }
+    }
+
+    private static boolean isEol(byte b) {
+        return b == '\n' || b == '\r';
+    }
+
+    int pos;
+    int limit;
+    double value;
+}
@@ -0,0 +1,158 @@
+/**
+ * Column-major table of monitor plot data
+ *
+ * Parses a MonitorPlot csv export once into one double[] per column with a
+ * header name index, so averaging and prop coefficient code walk primitive
+ * arrays instead of re-parsing List<String[]> rows once per column.
+ * Column 0 is the plot x-axis (time step or iteration), columns 1..n are the
+ * exported reports in plot order.
+ *
+ * 2017, v11.06
+ */
+package sweeputils;
+
+import com.opencsv.CSVParser;
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+public class MonitorTable {
+
+    /**
+     * Reads the full time history of a monitor plot export.
+     */
+    public static MonitorTable read(String fileName) throws IOException {
+        return readLast(fileName, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Reads the header and the last numRows data rows of a monitor plot
+     * export, i.e. the averaging window.
+     */
+    public static MonitorTable readLast(String fileName, int numRows)
+            throws IOException {
+        String[] headers = readHeader(fileName);
+        RandomAccessFile raf = new RandomAccessFile(fileName, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long offset = TailReader.tailOffset(channel, numRows);
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY,
+                    offset, channel.size() - offset);
+            MonitorTable table = new MonitorTable(headers,
+                    MonitorCsvParser.countRows(buf));
+            if (!new MonitorCsvParser().parse(buf, table.columns)) {
+                // not the plain numeric export layout, use OpenCSV
+                table.parseLines(TailReader.lines(buf));
+            }
+            return table;
+        } finally {
+            raf.close();
+        }
+    }
+
+    void parseLines(List<String> lines) throws IOException {
+        CSVParser parser = new CSVParser();
+        int r = 0;
+        for (String line : lines) {
+            String[] fields = parser.parseLine(line);
+            for (int c = 0; c < columns.length && c < fields.length; c++) {
+                columns[c][r] = Double.parseDouble(fields[c].trim());
+            }
+            r++;
+        }
+    }
+
+    static String[] readHeader(String fileName) throws IOException {
+        BufferedReader br = new BufferedReader(new FileReader(fileName));
+        try {
+            String line = br.readLine();
+            if (line == null) {
+                throw new IOException("Empty monitor export: " + fileName);
+            }
+            return new CSVParser().parseLine(line);
+        } finally {
+            br.close();
+        }
+    }
+
+    public MonitorTable(String[] headers, int numRows) {
+        this.headers = headers;
+        this.numRows = numRows;
+        columns = new double[headers.length][numRows];
+        index = new HashMap<String, Integer>();
+        for (int c = 0; c < headers.length; c++) {
+            index.put(headers[c].trim(), c);
+        }
+    }
+
+    public int getRowCount() {
+        return numRows;
+    }
+
+    public int getColumnCount() {
+        return columns.length;
+    }
+
+    public String[] getHeaders() {
+        return headers;
+    }
+
+    /**
+     * Returns the column of a header name, or -1 if not present. Names are
+     * matched exactly first, then as a regular expression (e.g. "Prop Torque.*"
+     * to ignore the unit suffix STAR-CCM+ appends).
+     */
+    public int indexOf(String name) {
+        Integer c = index.get(name);
+        if (c != null) {
+            return c;
+        }
+        for (int i = 0; i < headers.length; i++) {
+            if (headers[i].trim().matches(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Backing array of a column, do not modify.
+     */
+    public double[] getColumn(int column) {
+        return columns[column];
+    }
+
+    public double[] getColumn(String name) {
+        int c = indexOf(name);
+        if (c < 0) {
+            throw new IllegalArgumentException("No monitor column: " + name);
+        }
+        return columns[c];
+    }
+
+    public double get(int row, int column) {
+        return columns[column][row];
+    }
+
+    public void set(int row, int column, double value) {
+        columns[column][row] = value;
+    }
+
+    /**
+     * Mean of a column over all rows held in the table.
+     */
+    public double mean(int column) {
+        double[] values = columns[column];
+        double sum = 0;
+        for (int r = 0; r < numRows; r++) {
+            sum += values[r];
+        }
+        return sum / numRows;
+    }
+
+    String[] headers;
+    double[][] columns;
+    int numRows;
+    Map<String, Integer> index;
+}
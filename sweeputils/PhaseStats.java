@@ -0,0 +1,273 @@
+/**
+ * Rotor phase-locked statistics for blade monitor data
+ *
+ * Samples are binned by rotor phase angle (from the cumulative rotation
+ * angle, i.e. time * rpm / 60 * 360 or time steps * degrees per step) so
+ * each blade channel gets a per-phase mean and scatter over as many
+ * revolutions as are fed in. Everything is accumulated in place, no raw
+ * history is kept, so the engine can be fed a long window or sample by
+ * sample while the solver runs.
+ *
+ * The per-revolution mean of each channel is also tracked so the drift
+ * between the last two complete revolutions shows when blade loading has
+ * settled.
+ *
+ * 2017, v11.06
+ */
+package sweeputils;
+
+import java.io.*;
+
+public class PhaseStats {
+
+    public PhaseStats(int numChannels, int numBins) {
+        this.numChannels = numChannels;
+        this.numBins = numBins;
+        n = new long[numChannels][numBins];
+        mean = new double[numChannels][numBins];
+        m2 = new double[numChannels][numBins];
+        min = new double[numChannels][numBins];
+        max = new double[numChannels][numBins];
+        revSum = new double[numChannels];
+        lastRevMean = new double[numChannels];
+        prevRevMean = new double[numChannels];
+        reset();
+    }
+
+    /**
+     * Cumulative rotor angle in degrees after time seconds at rpm.
+     */
+    public static double angle(double time, double rpm) {
+        return time * rpm / 60. * 360.;
+    }
+
+    public void reset() {
+        for (int c = 0; c < numChannels; c++) {
+            for (int b = 0; b < numBins; b++) {
+                n[c][b] = 0;
+                mean[c][b] = 0.;
+                m2[c][b] = 0.;
+                min[c][b] = Double.NaN;
+                max[c][b] = Double.NaN;
+            }
+            revSum[c] = 0.;
+            lastRevMean[c] = Double.NaN;
+            prevRevMean[c] = Double.NaN;
+        }
+        revCount = 0;
+        currentRev = Long.MIN_VALUE;
+        revStarted = false;
+        completedRevs = 0;
+    }
+
+    /**
+     * Adds one sample of every channel at the given cumulative rotor angle
+     * (degrees, not wrapped to 360).
+     */
+    public void add(double angleDeg, double[] values) {
+        long rev = (long) Math.floor(angleDeg / 360.);
+        if (rev != currentRev) {
+            closeRevolution();
+            currentRev = rev;
+        }
+        double phase = angleDeg - rev * 360.;
+        int bin = (int) (phase / 360. * numBins);
+        if (bin >= numBins) {
+            bin = numBins - 1;
+        }
+        for (int c = 0; c < numChannels; c++) {
+            double v = values[c];
+            long count = ++n[c][bin];
+            double delta = v - mean[c][bin];
+            mean[c][bin] += delta / count;
+            m2[c][bin] += delta * (v - mean[c][bin]);
+            if (count == 1 || v < min[c][bin]) {
+                min[c][bin] = v;
+            }
+            if (count == 1 || v > max[c][bin]) {
+                max[c][bin] = v;
+            }
+            revSum[c] += v;
+        }
+        revCount++;
+    }
+
+    /**
+     * Feeds every row of a monitor table, channel c from table column
+     * columns[c]. Column 0 is the time step or iteration, not time, so the
+     * rotor angle is taken from the row index: each row is one time step of
+     * stepSize degrees after the first.
+     */
+    public void addTable(MonitorTable table, int[] columns, double stepSize) {
+        double[] values = new double[numChannels];
+        for (int r = 0; r < table.getRowCount(); r++) {
+            for (int c = 0; c < numChannels; c++) {
+                values[c] = table.columns[columns[c]][r];
+            }
+            add(r * stepSize, values);
+        }
+    }
+
+    /*
+     * Only a revolution that was seen from its first bin counts as complete,
+     * otherwise a partial window would skew the revolution means.
+     */
+    private void closeRevolution() {
+        if (revCount > 0 && currentRev != Long.MIN_VALUE && revStarted) {
+            for (int c = 0; c < numChannels; c++) {
+                prevRevMean[c] = lastRevMean[c];
+                lastRevMean[c] = revSum[c] / revCount;
+            }
+            completedRevs++;
+        }
+        revStarted = currentRev != Long.MIN_VALUE;
+        for (int c = 0; c < numChannels; c++) {
+            revSum[c] = 0.;
+        }
+        revCount = 0;
+    }
+
+    public int getNumBins() {
+        return numBins;
+    }
+
+    /**
+     * Bin center in degrees.
+     */
+    public double getPhase(int bin) {
+        return (bin + .5) * 360. / numBins;
+    }
+
+    /**
+     * Number of complete revolutions seen (the first, possibly partial,
+     * revolution and the one in progress are not counted).
+     */
+    public int getCompletedRevolutions() {
+        return completedRevs;
+    }
+
+    public long getN(int channel, int bin) {
+        return n[channel][bin];
+    }
+
+    public double getPhaseMean(int channel, int bin) {
+        return n[channel][bin] > 0 ? mean[channel][bin] : Double.NaN;
+    }
+
+    /**
+     * Revolution to revolution scatter of one phase bin.
+     */
+    public double getPhaseStandardDeviation(int channel, int bin) {
+        long count = n[channel][bin];
+        return count > 1 ? Math.sqrt(m2[channel][bin] / (count - 1)) : 0.;
+    }
+
+    public double getPhaseMin(int channel, int bin) {
+        return min[channel][bin];
+    }
+
+    public double getPhaseMax(int channel, int bin) {
+        return max[channel][bin];
+    }
+
+    /**
+     * Mean over the whole phase-averaged revolution.
+     */
+    public double getMean(int channel) {
+        double sum = 0.;
+        int bins = 0;
+        for (int b = 0; b < numBins; b++) {
+            if (n[channel][b] > 0) {
+                sum += mean[channel][b];
+                bins++;
+            }
+        }
+        return bins > 0 ? sum / bins : Double.NaN;
+    }
+
+    public double getMaxPhaseMean(int channel) {
+        double m = Double.NaN;
+        for (int b = 0; b < numBins; b++) {
+            if (n[channel][b] > 0 && !(mean[channel][b] <= m)) {
+                m = mean[channel][b];
+            }
+        }
+        return m;
+    }
+
+    public double getMinPhaseMean(int channel) {
+        double m = Double.NaN;
+        for (int b = 0; b < numBins; b++) {
+            if (n[channel][b] > 0 && !(mean[channel][b] >= m)) {
+                m = mean[channel][b];
+            }
+        }
+        return m;
+    }
+
+    /**
+     * Peak to peak ripple of the phase-averaged load.
+     */
+    public double getRipple(int channel) {
+        return getMaxPhaseMean(channel) - getMinPhaseMean(channel);
+    }
+
+    /**
+     * Relative change of the channel mean between the last two complete
+     * revolutions, NaN until two revolutions are complete.
+     */
+    public double getRevolutionDrift(int channel) {
+        if (completedRevs < 2) {
+            return Double.NaN;
+        }
+        double ref = Math.abs(lastRevMean[channel]);
+        double diff = Math.abs(lastRevMean[channel] - prevRevMean[channel]);
+        return ref > 0 ? diff / ref : diff;
+    }
+
+    /**
+     * Writes the phase table (phase, then mean/std/min/max per channel) as
+     * csv.
+     */
+    public void write(String fileName, String[] channelNames)
+            throws IOException {
+        PrintWriter pw = new PrintWriter(new BufferedWriter(
+                new FileWriter(fileName)));
+        try {
+            pw.print("\"Phase (deg)\"");
+            for (int c = 0; c < numChannels; c++) {
+                String name = channelNames[c];
+                pw.print(",\"" + name + " Mean\",\"" + name + " Std Dev\",\""
+                        + name + " Min\",\"" + name + " Max\"");
+            }
+            pw.println();
+            for (int b = 0; b < numBins; b++) {
+                pw.print(getPhase(b));
+                for (int c = 0; c < numChannels; c++) {
+                    pw.print("," + getPhaseMean(c, b)
+                            + "," + getPhaseStandardDeviation(c, b)
+                            + "," + getPhaseMin(c, b)
+                            + "," + getPhaseMax(c, b));
+                }
+                pw.println();
+            }
+        } finally {
+            pw.close();
+        }
+    }
+
+    int numChannels;
+    int numBins;
+    long[][] n;
+    double[][] mean;
+    double[][] m2;
+    double[][] min;
+    double[][] max;
+    double[] revSum;
+    double[] lastRevMean;
+    double[] prevRevMean;
+    long revCount;
+    long currentRev;
+    boolean revStarted;
+    int completedRevs;
+}
@@ -0,0 +1,281 @@
+/**
+ * Phase timing for sweep macros
+ *
+ * A macro wraps each phase of a case (remesh, solve, csv export, scene
+ * export, results) as
+ *
+ *   long t = timer.begin();
+ *   setTrim(trim);
+ *   timer.end("remesh", t);
+ *
+ * and marks case boundaries with startCase()/endCase(). Every end() is one
+ * System.nanoTime() call, a few additions and a line in a buffer, cheap
+ * enough to leave on in production. Lines go to a JSONL event stream next to
+ * the sim, flushed at the end of each case:
+ *
+ *   {"t":1491300000000,"case":"BIII_28P_40.0mph...","phase":"solve",
+ *    "ms":812345.1,"heapMB":1830}
+ *   {"t":...,"case":"...","ms":913002.4,"heapMB":1911,"phases":{...}}
+ *
+ * Durations are kept per phase in log2 histograms (cumulative over the
+ * sweep, and phase totals per case), with the heap high-water mark sampled
+ * at every end(). summary() is the table printed at the end of a macro.
+ * end() may be called from the results writer thread as well.
+ *
+ * 2017, v11.06
+ */
+package sweeputils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+public class PhaseTimer {
+
+    /**
+     * @param fileName JSONL event stream, appended to; null keeps the
+     * timings in memory only
+     */
+    public PhaseTimer(String fileName) throws IOException {
+        if (fileName != null) {
+            out = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(fileName, true),
+                    StandardCharsets.UTF_8));
+        }
+        created = System.nanoTime();
+    }
+
+    /**
+     * Start time of a phase, to pass to end().
+     */
+    public long begin() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records a phase that started at begin time start. Returns its
+     * duration in nanoseconds.
+     */
+    public long end(String phase, long start) {
+        long nanos = System.nanoTime() - start;
+        long heap = heapUsed();
+        synchronized (this) {
+            Stats s = stats.get(phase);
+            if (s == null) {
+                s = new Stats();
+                stats.put(phase, s);
+            }
+            s.add(nanos, heap);
+            Long sum = caseNanos.get(phase);
+            caseNanos.put(phase, (sum == null ? 0L : sum) + nanos);
+            heapHigh = Math.max(heapHigh, heap);
+            caseHeapHigh = Math.max(caseHeapHigh, heap);
+            event(phase, nanos, heap, null);
+        }
+        return nanos;
+    }
+
+    /**
+     * Starts the timings of a case, ending the previous one if it is still
+     * open.
+     */
+    public synchronized void startCase(String name) {
+        if (caseName != null) {
+            endCase();
+        }
+        caseName = name;
+        caseStart = System.nanoTime();
+        caseNanos.clear();
+        caseHeapHigh = 0;
+    }
+
+    /**
+     * Ends the case: records its total, writes the case event with its phase
+     * totals and flushes the event stream.
+     */
+    public synchronized void endCase() {
+        if (caseName == null) {
+            return;
+        }
+        long nanos = System.nanoTime() - caseStart;
+        long heap = Math.max(caseHeapHigh, heapUsed());
+        heapHigh = Math.max(heapHigh, heap);
+        cases.add(nanos, heap);
+        for (Map.Entry<String, Long> e : caseNanos.entrySet()) {
+            Stats s = perCase.get(e.getKey());
+            if (s == null) {
+                s = new Stats();
+                perCase.put(e.getKey(), s);
+            }
+            s.add(e.getValue(), 0);
+        }
+        StringBuilder phases = new StringBuilder("{");
+        for (Map.Entry<String, Long> e : caseNanos.entrySet()) {
+            if (phases.length() > 1) {
+                phases.append(',');
+            }
+            RowJson.quote(phases, e.getKey());
+            phases.append(':').append(ms(e.getValue()));
+        }
+        event(null, nanos, heap, phases.append('}').toString());
+        caseName = null;
+        flush();
+    }
+
+    private void event(String phase, long nanos, long heap, String phases) {
+        if (out == null) {
+            return;
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"t\":").append(System.currentTimeMillis());
+        if (caseName != null) {
+            sb.append(",\"case\":");
+            RowJson.quote(sb, caseName);
+        }
+        if (phase != null) {
+            sb.append(",\"phase\":");
+            RowJson.quote(sb, phase);
+        }
+        sb.append(",\"ms\":").append(ms(nanos))
+                .append(",\"heapMB\":").append(heap >> 20);
+        if (phases != null) {
+            sb.append(",\"phases\":").append(phases);
+        }
+        try {
+            out.write(sb.append('\n').toString());
+        } catch (IOException ex) {
+            // timings are never worth stopping a sweep for
+            out = null;
+        }
+    }
+
+    static String ms(long nanos) {
+        return String.valueOf(Math.round(nanos / 1e5) / 10.);
+    }
+
+    static long heapUsed() {
+        Runtime rt = Runtime.getRuntime();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    public synchronized void flush() {
+        if (out != null) {
+            try {
+                out.flush();
+            } catch (IOException ex) {
+                out = null;
+            }
+        }
+    }
+
+    /**
+     * Ends an open case and closes the event stream.
+     */
+    public synchronized void close() {
+        endCase();
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException ex) {
+                // nothing left to lose
+            }
+            out = null;
+        }
+    }
+
+    /**
+     * Seconds spent in a phase so far, over all cases.
+     */
+    public synchronized double getSeconds(String phase) {
+        Stats s = stats.get(phase);
+        return s == null ? 0. : s.total / 1e9;
+    }
+
+    public synchronized long getHeapHighWater() {
+        return heapHigh;
+    }
+
+    /**
+     * Table of every phase: count, total, share of the wall time, mean,
+     * median and 90th percentile per call and per case, max and the heap
+     * high-water mark seen at its end.
+     */
+    public synchronized String summary() {
+        double wall = (System.nanoTime() - created) / 1e9;
+        StringBuilder sb = new StringBuilder(String.format(
+                "%-16s %6s %10s %6s %9s %9s %9s %9s %9s %8s%n", "phase",
+                "calls", "total s", "%wall", "mean s", "p50 s", "p90 s",
+                "case p90", "max s", "heap MB"));
+        for (Map.Entry<String, Stats> e : stats.entrySet()) {
+            Stats s = e.getValue();
+            Stats c = perCase.get(e.getKey());
+            sb.append(String.format(
+                    "%-16s %6d %10.1f %6.1f %9.2f %9.2f %9.2f %9s %9.2f %8d%n",
+                    e.getKey(), s.count, s.total / 1e9,
+                    100 * s.total / 1e9 / wall, s.total / 1e9 / s.count,
+                    s.percentile(.5) / 1e9, s.percentile(.9) / 1e9,
+                    c == null ? "-" : String.format("%.2f",
+                                    c.percentile(.9) / 1e9),
+                    s.max / 1e9, s.heapHigh >> 20));
+        }
+        if (cases.count > 0) {
+            sb.append(String.format(
+                    "%-16s %6d %10.1f %6.1f %9.2f %9.2f %9.2f %9s %9.2f %8d%n",
+                    "case", cases.count, cases.total / 1e9,
+                    100 * cases.total / 1e9 / wall,
+                    cases.total / 1e9 / cases.count,
+                    cases.percentile(.5) / 1e9, cases.percentile(.9) / 1e9,
+                    "-", cases.max / 1e9, cases.heapHigh >> 20));
+        }
+        sb.append(String.format("wall %.1f s, heap high-water %d MB of %d MB",
+                wall, heapHigh >> 20, Runtime.getRuntime().maxMemory() >> 20));
+        return sb.toString();
+    }
+
+    /*
+     * Count, total and max of a phase with a log2 histogram of durations,
+     * bucket b holding durations in [2^b, 2^(b+1)) ns.
+     */
+    static class Stats {
+
+        void add(long nanos, long heap) {
+            count++;
+            total += nanos;
+            max = Math.max(max, nanos);
+            heapHigh = Math.max(heapHigh, heap);
+            buckets[nanos <= 1 ? 0 : 63 - Long.numberOfLeadingZeros(nanos)]++;
+        }
+
+        /**
+         * Upper edge of the bucket holding the q quantile, capped by max.
+         */
+        double percentile(double q) {
+            long rank = (long) Math.ceil(q * count);
+            long seen = 0;
+            for (int b = 0; b < buckets.length; b++) {
+                seen += buckets[b];
+                if (seen >= rank && seen > 0) {
+                    return Math.min((double) (2L << Math.min(b, 61)), max);
+                }
+            }
+            return max;
+        }
+
+        long count;
+        long total;
+        long max;
+        long heapHigh;
+        long[] buckets = new long[64];
+    }
+
+    Writer out;
+    long created;
+    Map<String, Stats> stats = new LinkedHashMap<String, Stats>();
+    Map<String, Stats> perCase = new LinkedHashMap<String, Stats>();
+    Stats cases = new Stats();
+    Map<String, Long> caseNanos = new LinkedHashMap<String, Long>();
+    String caseName;
+    long caseStart;
+    long caseHeapHigh;
+    long heapHigh;
+}
@@ -0,0 +1,186 @@
+/**
+ * Mesh quality gate between a remesh and the solver
+ *
+ * A bad trim or roll geometry meshes without complaint and then burns hours
+ * of transient solve before it diverges. After each remesh a sweep macro
+ * evaluates a few cheap reports over all regions (the meshQualityCheck
+ * metrics) and hands them to check():
+ *
+ *   CELLS              cell count, recorded only
+ *   MIN_QUALITY        lowest cell quality
+ *   MAX_SKEWNESS       highest skewness angle, deg
+ *   MIN_VOLUME_CHANGE  lowest volume change
+ *   NEGATIVE_CELLS     cells with negative volume
+ *   BAD_CELLS          cells flagged by the bad cell indicator
+ *
+ * A NaN stat was not measured and is not checked. A mesh that fails a limit
+ * either only flags its cases or, with setSkip(true), has them skipped
+ * before any solver time is spent. record() writes one csv row per case with
+ * the stats of its mesh and the verdict, so the quality of every case of a
+ * sweep can be looked up afterwards.
+ *
+ * 2017, v11.06
+ */
+package sweeputils;
+
+import java.io.*;
+import java.util.*;
+
+public class QualityGate {
+
+    public static final int CELLS = 0;
+    public static final int MIN_QUALITY = 1;
+    public static final int MAX_SKEWNESS = 2;
+    public static final int MIN_VOLUME_CHANGE = 3;
+    public static final int NEGATIVE_CELLS = 4;
+    public static final int BAD_CELLS = 5;
+    public static final int STATS = 6;
+
+    /**
+     * @param fileName csv the per-case rows are appended to, null keeps no
+     * log
+     */
+    public QualityGate(String fileName) {
+        this.fileName = fileName;
+    }
+
+    /**
+     * Limits of a passing mesh, NaN leaves a stat unchecked.
+     *
+     * @param minQuality lowest cell quality allowed
+     * @param maxSkewness highest skewness angle allowed, deg
+     * @param minVolumeChange lowest volume change allowed
+     * @param maxNegativeCells negative volume cells allowed
+     * @param maxBadCells cells flagged bad allowed
+     */
+    public void setLimits(double minQuality, double maxSkewness,
+            double minVolumeChange, double maxNegativeCells,
+            double maxBadCells) {
+        limits = new double[]{Double.NaN, minQuality, maxSkewness,
+            minVolumeChange, maxNegativeCells, maxBadCells};
+    }
+
+    /**
+     * Skip the cases of a failing mesh instead of only flagging them.
+     */
+    public void setSkip(boolean skip) {
+        this.skip = skip;
+    }
+
+    /**
+     * Checks the stats of a new mesh, indexed as CELLS..BAD_CELLS. Returns
+     * true if it passes; the verdict holds for every case recorded until the
+     * next check.
+     */
+    public boolean check(double[] stats) {
+        this.stats = stats.clone();
+        reasons = new ArrayList<String>();
+        for (int i = MIN_QUALITY; i < STATS; i++) {
+            double v = stats[i];
+            double limit = limits[i];
+            if (Double.isNaN(v) || Double.isNaN(limit)) {
+                continue;
+            }
+            boolean lower = i == MIN_QUALITY || i == MIN_VOLUME_CHANGE;
+            if (lower ? v < limit : v > limit) {
+                reasons.add(String.format(Locale.ROOT, "%s %.4g %s %.4g",
+                        NAMES[i], v, lower ? "<" : ">", limit));
+            }
+        }
+        checks++;
+        if (!reasons.isEmpty()) {
+            failed++;
+        }
+        return reasons.isEmpty();
+    }
+
+    public boolean isPassed() {
+        return reasons == null || reasons.isEmpty();
+    }
+
+    /**
+     * True if the cases of the last mesh checked are not to be solved.
+     */
+    public boolean isSkipped() {
+        return skip && !isPassed();
+    }
+
+    /**
+     * Limits the last mesh failed, e.g. "max skewness 88.2 > 85".
+     */
+    public String getReasons() {
+        return reasons == null ? "" : join(reasons);
+    }
+
+    public double[] getStats() {
+        return stats == null ? null : stats.clone();
+    }
+
+    /**
+     * Appends the row of a case on the last mesh checked.
+     */
+    public void record(String caseName) throws IOException {
+        String verdict = isPassed() ? "pass" : isSkipped() ? "skipped"
+                : "flagged";
+        if (isSkipped()) {
+            skipped++;
+        } else if (!isPassed()) {
+            flagged++;
+        }
+        if (fileName == null) {
+            return;
+        }
+        File file = new File(fileName);
+        boolean header = !file.exists() || file.length() == 0;
+        PrintWriter pw = new PrintWriter(new FileWriter(file, true));
+        try {
+            if (header) {
+                StringBuilder h = new StringBuilder("case");
+                for (String name : NAMES) {
+                    h.append(',').append(name);
+                }
+                pw.println(h.append(",verdict,reasons"));
+            }
+            StringBuilder sb = new StringBuilder(caseName);
+            for (int i = 0; i < STATS; i++) {
+                double v = stats == null ? Double.NaN : stats[i];
+                sb.append(',').append(Double.isNaN(v) ? ""
+                        : String.format(Locale.ROOT, "%.6g", v));
+            }
+            pw.println(sb.append(',').append(verdict).append(",\"")
+                    .append(getReasons()).append('"'));
+        } finally {
+            pw.close();
+        }
+    }
+
+    static String join(List<String> parts) {
+        StringBuilder sb = new StringBuilder();
+        for (String s : parts) {
+            if (sb.length() > 0) {
+                sb.append("; ");
+            }
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+
+    public String summary() {
+        return "Quality gate: " + checks + " meshes checked, " + failed
+                + " failed, " + flagged + " cases flagged, " + skipped
+                + " skipped";
+    }
+
+    static final String[] NAMES = {"cells", "min quality", "max skewness",
+        "min volume change", "negative volume cells", "bad cells"};
+
+    String fileName;
+    double[] limits = {Double.NaN, 1e-5, 85., 1e-4, 0., Double.NaN};
+    boolean skip;
+    double[] stats;
+    List<String> reasons;
+    int checks;
+    int failed;
+    int flagged;
+    int skipped;
+}
@@ -0,0 +1,111 @@
+/**
+ * The QualityGate metrics of the current mesh, read from the simulation
+ *
+ * A few reports give the meshQualityCheck metrics cheaply: element count,
+ * min cell quality, max skewness angle, min volume change, and element
+ * counts on a negative-volume threshold and, with cell quality remediation
+ * on, a bad cell flag threshold. They are kept in the sim under gate*
+ * names and looked up by name on every call, so a macro that kills the sim
+ * and opens another one, or opens a saved sim that already has them, never
+ * holds on to reports of a sim that is gone or creates them twice. Every
+ * call points them at the given regions, i.e. the current mesh.
+ *
+ *   gate.check(QualityGateReports.measure(sim, mu.get.regions.all(false)));
+ *
+ * This is the one class here that needs STAR-CCM+, the rest of the gate
+ * (limits, log) is QualityGate.
+ *
+ * 2017, v11.06
+ */
+package sweeputils;
+
+import java.util.*;
+import star.base.neo.DoubleVector;
+import star.base.neo.NeoObjectVector;
+import star.base.report.*;
+import star.common.*;
+import star.vis.ThresholdPart;
+
+public class QualityGateReports {
+
+    static final String CELLS = "gateCells";
+    static final String MIN_QUALITY = "gateMinQuality";
+    static final String MAX_SKEWNESS = "gateMaxSkewness";
+    static final String MIN_VOLUME_CHANGE = "gateMinVolumeChange";
+    static final String NEGATIVE_CELLS = "gateNegativeCells";
+    static final String BAD_CELLS = "gateBadCells";
+    static final String NEGATIVE_PART = "gateNegativeVolume";
+    static final String BAD_PART = "gateBadCellFlag";
+
+    /**
+     * The QualityGate stats of the regions, BAD_CELLS is NaN without the
+     * BadCellFlag function.
+     */
+    public static double[] measure(Simulation sim,
+            Collection<Region> regions) {
+        FieldFunctionManager ffm = sim.getFieldFunctionManager();
+        ElementCountReport cells = report(sim, ElementCountReport.class,
+                CELLS);
+        cells.getParts().setObjects(regions);
+        MinReport quality = report(sim, MinReport.class, MIN_QUALITY);
+        quality.setScalar(ffm.getFunction("CellQuality"));
+        quality.getParts().setObjects(regions);
+        MaxReport skewness = report(sim, MaxReport.class, MAX_SKEWNESS);
+        skewness.setScalar(ffm.getFunction("SkewnessAngle"));
+        skewness.getParts().setObjects(regions);
+        MinReport volumeChange = report(sim, MinReport.class,
+                MIN_VOLUME_CHANGE);
+        volumeChange.setScalar(ffm.getFunction("VolumeChange"));
+        volumeChange.getParts().setObjects(regions);
+        ElementCountReport negative = report(sim, ElementCountReport.class,
+                NEGATIVE_CELLS);
+        negative.getParts().setObjects(threshold(sim, NEGATIVE_PART, regions,
+                ffm.getFunction("Volume"), 0.0, 0.5, 2));
+        double[] stats = new double[QualityGate.STATS];
+        stats[QualityGate.CELLS] = cells.getReportMonitorValue();
+        stats[QualityGate.MIN_QUALITY] = quality.getReportMonitorValue();
+        stats[QualityGate.MAX_SKEWNESS] = skewness.getReportMonitorValue();
+        stats[QualityGate.MIN_VOLUME_CHANGE]
+                = volumeChange.getReportMonitorValue();
+        stats[QualityGate.NEGATIVE_CELLS] = negative.getReportMonitorValue();
+        stats[QualityGate.BAD_CELLS] = Double.NaN;
+        // the bad cell flag only exists with cell quality remediation
+        if (ffm.has("BadCellFlag")) {
+            ElementCountReport bad = report(sim, ElementCountReport.class,
+                    BAD_CELLS);
+            bad.getParts().setObjects(threshold(sim, BAD_PART, regions,
+                    ffm.getFunction("BadCellFlag"), 0.5, 1.5, 0));
+            stats[QualityGate.BAD_CELLS] = bad.getReportMonitorValue();
+        }
+        return stats;
+    }
+
+    private static <T extends Report> T report(Simulation sim, Class<T> type,
+            String name) {
+        ReportManager rm = sim.getReportManager();
+        if (rm.has(name)) {
+            return type.cast(rm.getReport(name));
+        }
+        T r = rm.createReport(type);
+        r.setPresentationName(name);
+        return r;
+    }
+
+    private static ThresholdPart threshold(Simulation sim, String name,
+            Collection<Region> regions, FieldFunction function, double lower,
+            double upper, int mode) {
+        PartManager pm = sim.getPartManager();
+        if (pm.has(name)) {
+            ThresholdPart part = (ThresholdPart) pm.getObject(name);
+            part.getInputParts().setObjects(regions);
+            return part;
+        }
+        Units m = (Units) sim.getUnitsManager().getObject("m");
+        ThresholdPart part = pm.createThresholdPart(
+                new NeoObjectVector(regions.toArray()),
+                new DoubleVector(new double[]{lower, upper}), m, function,
+                mode);
+        part.setPresentationName(name);
+        return part;
+    }
+}
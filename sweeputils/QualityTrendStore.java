@@ -0,0 +1,255 @@
+/**
+ * Append-only store of mesh quality checks across runs
+ *
+ * Every meshQualityCheck run appends the flat record of its
+ * MeshQualityReport as one JSON line, so a prop or hull sweep that remeshes
+ * hundreds of times leaves the size and quality of every mesh in one file
+ * next to its sims. The file is never rewritten. Records are indexed by sim
+ * name and mesh fingerprint when read; a run on a mesh that was checked
+ * before appends a new record for it, the latest one counts.
+ *
+ * compare() lists what changed against the previous mesh of the same sim,
+ * with the regressions (lower minimum quality, more cells past a threshold,
+ * new negative volume cells) marked, and export() writes the trend of a sim
+ * as csv, one row per mesh. Both work from the store alone, without opening
+ * a sim:
+ *
+ *   java sweeputils.QualityTrendStore meshQualityTrend.jsonl [sim] [out.csv]
+ *
+ * 2017, v11.06
+ */
+package sweeputils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+public class QualityTrendStore {
+
+    public QualityTrendStore(String fileName) {
+        file = new File(fileName);
+    }
+
+    /**
+     * Appends the record of a report. The line goes out in a single write on
+     * a file opened for appending, so sims checked at the same time do not
+     * interleave their records.
+     */
+    public void append(MeshQualityReport report) throws IOException {
+        boolean torn = false;
+        if (file.length() > 0) {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                raf.seek(file.length() - 1);
+                torn = raf.read() != '\n';
+            } finally {
+                raf.close();
+            }
+        }
+        // end a half written line so it does not swallow this one
+        String line = (torn ? "\n" : "") + report.trendLine() + "\n";
+        FileOutputStream out = new FileOutputStream(file, true);
+        try {
+            out.write(line.getBytes(StandardCharsets.UTF_8));
+            out.getChannel().force(false);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Every record in the order appended, a half written line is skipped.
+     */
+    public List<Map<String, Object>> read() throws IOException {
+        List<Map<String, Object>> records
+                = new ArrayList<Map<String, Object>>();
+        if (!file.exists()) {
+            return records;
+        }
+        BufferedReader br = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), StandardCharsets.UTF_8));
+        try {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                try {
+                    records.add(RowJson.parseFields(line));
+                } catch (IllegalArgumentException ex) {
+                    // half written line
+                }
+            }
+        } finally {
+            br.close();
+        }
+        return records;
+    }
+
+    /**
+     * Latest record of each mesh of a sim, in the order the meshes were first
+     * checked. A null sim takes the meshes of all sims.
+     */
+    public List<Map<String, Object>> history(String sim) throws IOException {
+        Map<String, Map<String, Object>> meshes
+                = new LinkedHashMap<String, Map<String, Object>>();
+        for (Map<String, Object> r : read()) {
+            if (sim == null || sim.equals(r.get("sim"))) {
+                meshes.put(r.get("sim") + "\n" + r.get("mesh"), r);
+            }
+        }
+        return new ArrayList<Map<String, Object>>(meshes.values());
+    }
+
+    /**
+     * Latest record of a sim on a mesh, null if it was never checked.
+     */
+    public Map<String, Object> find(String sim, String mesh)
+            throws IOException {
+        Map<String, Object> found = null;
+        for (Map<String, Object> r : read()) {
+            if (sim.equals(r.get("sim")) && mesh.equals(r.get("mesh"))) {
+                found = r;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Changes of a report against the latest record of the previous mesh of
+     * its sim, e.g. "cells 4.1e+07 -> 4.3e+07 (+4.9%)", regressions prefixed
+     * with "REGRESSION". Empty for the first mesh of a sim or a mesh that is
+     * unchanged.
+     */
+    public List<String> compare(MeshQualityReport report) throws IOException {
+        List<String> changes = new ArrayList<String>();
+        Map<String, Object> previous = null;
+        Object lastMesh = null;
+        for (Map<String, Object> r : read()) {
+            if (!report.getSim().equals(r.get("sim"))) {
+                continue;
+            }
+            if (!report.getMesh().equals(r.get("mesh"))) {
+                previous = r;
+            }
+            lastMesh = r.get("mesh");
+        }
+        if (previous == null || report.getMesh().equals(lastMesh)) {
+            return changes;
+        }
+        for (Map.Entry<String, Double> e : report.getTrend().entrySet()) {
+            String key = e.getKey();
+            double now = e.getValue();
+            double was = number(previous.get(key));
+            if (key.equals("seconds") || key.endsWith("Threshold")
+                    || (Double.isNaN(now) && Double.isNaN(was))
+                    || now == was) {
+                continue;
+            }
+            String change = String.format(Locale.ROOT, "%s %.4g -> %.4g",
+                    key, was, now);
+            if (was != 0 && !Double.isNaN(was) && !Double.isNaN(now)) {
+                change += String.format(Locale.ROOT, " (%+.1f%%)",
+                        100 * (now - was) / Math.abs(was));
+            }
+            changes.add(worse(key, was, now) ? "REGRESSION " + change
+                    : change);
+        }
+        return changes;
+    }
+
+    /*
+     * Lower minimum quality or volume change, higher maximum skewness, or
+     * more cells past a threshold or with negative volume.
+     */
+    static boolean worse(String key, double was, double now) {
+        if (Double.isNaN(was) || Double.isNaN(now)) {
+            return false;
+        }
+        if (key.startsWith("min") || key.endsWith("P01")) {
+            return now < was;
+        }
+        return (key.startsWith("max") || key.endsWith("Fluid")
+                || key.endsWith("Solid") || key.startsWith("negative")
+                || key.endsWith("P99")) && now > was;
+    }
+
+    static double number(Object v) {
+        return v instanceof Double ? (Double) v : Double.NaN;
+    }
+
+    /**
+     * Writes the trend of a sim (null for all sims) as csv, one row per mesh
+     * with the fields of its latest record. Returns the rows written.
+     */
+    public int export(String fileName, String sim) throws IOException {
+        List<Map<String, Object>> rows = history(sim);
+        Set<String> columns = new LinkedHashSet<String>();
+        for (Map<String, Object> r : rows) {
+            columns.addAll(r.keySet());
+        }
+        PrintWriter pw = new PrintWriter(new FileWriter(fileName));
+        try {
+            StringBuilder sb = new StringBuilder();
+            for (String c : columns) {
+                sb.append(sb.length() > 0 ? "," : "").append(c);
+            }
+            pw.println(sb);
+            for (Map<String, Object> r : rows) {
+                sb.setLength(0);
+                String sep = "";
+                for (String c : columns) {
+                    Object v = r.get(c);
+                    sb.append(sep);
+                    sep = ",";
+                    if (v instanceof String) {
+                        sb.append('"').append(((String) v).replace("\"",
+                                "\"\"")).append('"');
+                    } else if (v != null) {
+                        double d = (Double) v;
+                        // counts and times without an exponent
+                        sb.append(d == Math.rint(d) && Math.abs(d) < 1e15
+                                ? String.valueOf((long) d) : v.toString());
+                    }
+                }
+                pw.println(sb);
+            }
+        } finally {
+            pw.close();
+        }
+        return rows.size();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * QualityTrendStore store.jsonl [sim] [out.csv]
+     *
+     * Prints cell count and minimum quality of every mesh of a sim (all sims
+     * if none is given) and writes their full trend to out.csv.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println(
+                    "usage: QualityTrendStore store.jsonl [sim] [out.csv]");
+            System.exit(1);
+        }
+        QualityTrendStore store = new QualityTrendStore(args[0]);
+        String sim = args.length > 1 ? args[1] : null;
+        for (Map<String, Object> r : store.history(sim)) {
+            System.out.printf(Locale.ROOT, "%tF %<tR  %-30s %.10s %12.0f"
+                    + " cells  min quality %.4g%n",
+                    new Date((long) number(r.get("t"))), r.get("sim"),
+                    r.get("mesh"), number(r.get("cells")),
+                    number(r.get("minCellQuality")));
+        }
+        if (args.length > 2) {
+            System.out.println(store.export(args[2], sim) + " meshes written to "
+                    + args[2]);
+        }
+    }
+
+    File file;
+}
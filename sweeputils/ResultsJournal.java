@@ -0,0 +1,225 @@
+/**
+ * Append-only journal of results rows
+ *
+ * Every finished case is appended as one JSON line (see RowJson) and synced
+ * to disk before the call returns, so once a case is journaled it survives a
+ * crash of the macro or the node. The journal is never rewritten; appending
+ * costs the same for the first case and the thousandth.
+ *
+ * After each spreadsheet snapshot a {"snapshot":n} marker line is appended.
+ * replay() puts back every row journaled after the last marker, or every row
+ * when the spreadsheet has to be rebuilt from scratch. Rows are replayed in
+ * row order, so streaming (SXSSF) sheets can be rebuilt too. A half written
+ * last line is ignored.
+ *
+ * 2017, v11.06
+ */
+package sweeputils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import org.apache.poi.ss.usermodel.*;
+
+public class ResultsJournal {
+
+    static final String SNAPSHOT = "{\"snapshot\":";
+
+    public ResultsJournal(String fileName) {
+        file = new File(fileName);
+    }
+
+    public void append(Row row) throws IOException {
+        write(RowJson.encode(row), true);
+    }
+
+    /**
+     * Appends a row of plain values, for writers without a POI workbook.
+     */
+    public void append(int rowNum, Object[] cells) throws IOException {
+        write(RowJson.encode(rowNum, cells), true);
+    }
+
+    /**
+     * Journals every data row (all but the header row) of an existing sheet
+     * with a single sync, used when a workbook written before journaling is
+     * taken over.
+     */
+    public void seed(Sheet sheet) throws IOException {
+        for (Row r : sheet) {
+            if (r.getRowNum() > 0) {
+                write(RowJson.encode(r), false);
+            }
+        }
+        markSnapshot(sheet.getLastRowNum());
+    }
+
+    /**
+     * Records that every row appended so far is in the spreadsheet file.
+     */
+    public void markSnapshot(int rows) throws IOException {
+        write(SNAPSHOT + rows + "}", true);
+    }
+
+    private void write(String line, boolean sync) throws IOException {
+        if (out == null) {
+            boolean torn = false;
+            if (file.length() > 0) {
+                RandomAccessFile raf = new RandomAccessFile(file, "r");
+                try {
+                    raf.seek(file.length() - 1);
+                    torn = raf.read() != '\n';
+                } finally {
+                    raf.close();
+                }
+            }
+            out = new FileOutputStream(file, true);
+            if (torn) {
+                // end a half written line so it does not swallow this one
+                out.write('\n');
+            }
+        }
+        out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+        if (sync) {
+            out.getChannel().force(false);
+        }
+    }
+
+    /**
+     * Writes journaled rows into the sheet, all of them if rebuild is true,
+     * otherwise only those after the last snapshot marker. Later lines for the
+     * same row replace earlier ones. Returns the number of rows written.
+     */
+    public int replay(Sheet sheet, boolean rebuild) throws IOException {
+        SortedMap<Integer, RowJson> rows = readRows(rebuild);
+        for (RowJson json : rows.values()) {
+            json.fill(sheet.createRow(json.rowNum));
+        }
+        return rows.size();
+    }
+
+    /**
+     * Appends every row of the journals to the sink in row order, e.g. the
+     * per-worker journals of a dispatched sweep into the workbook a single
+     * process would have written. Workers number rows by case position so
+     * the rows interleave back into sweep order. Returns the rows written.
+     */
+    public static int merge(String[] journals, ResultsSink sink)
+            throws IOException {
+        SortedMap<Integer, RowJson> rows = new TreeMap<Integer, RowJson>();
+        for (String journal : journals) {
+            rows.putAll(new ResultsJournal(journal).readRows(true));
+        }
+        for (RowJson json : rows.values()) {
+            json.fill(sink.createRow());
+            sink.endRow();
+        }
+        return rows.size();
+    }
+
+    /*
+     * Streams the journaled rows into a sheet that only takes rows in
+     * ascending order (SXSSF) without holding them: rows are journaled in
+     * row order, so only the row being read is kept: a later line for the
+     * same row replaces it, a line for an earlier row is dropped.
+     * Returns the last row number written, 0 if there is none. With a null
+     * sheet it only finds that row number.
+     */
+    int stream(Sheet sheet) throws IOException {
+        int last = 0;
+        if (!file.exists()) {
+            return last;
+        }
+        BufferedReader br = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), StandardCharsets.UTF_8));
+        try {
+            RowJson held = null;
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.startsWith(SNAPSHOT) || line.trim().isEmpty()) {
+                    continue;
+                }
+                RowJson json;
+                try {
+                    json = new RowJson(line);
+                } catch (IllegalArgumentException ex) {
+                    // half written line
+                    continue;
+                }
+                if (held == null || json.rowNum == held.rowNum) {
+                    held = json;
+                } else if (json.rowNum > held.rowNum) {
+                    last = fill(sheet, held);
+                    held = json;
+                }
+            }
+            if (held != null) {
+                last = fill(sheet, held);
+            }
+        } finally {
+            br.close();
+        }
+        return last;
+    }
+
+    private static int fill(Sheet sheet, RowJson json) {
+        if (sheet != null) {
+            json.fill(sheet.createRow(json.rowNum));
+        }
+        return json.rowNum;
+    }
+
+    /*
+     * Journaled rows by row number, all of them or only those after the last
+     * snapshot marker.
+     */
+    SortedMap<Integer, RowJson> readRows(boolean all) throws IOException {
+        SortedMap<Integer, RowJson> rows = new TreeMap<Integer, RowJson>();
+        if (!file.exists()) {
+            return rows;
+        }
+        List<String> lines = new ArrayList<String>();
+        int start = 0;
+        BufferedReader br = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), StandardCharsets.UTF_8));
+        try {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.startsWith(SNAPSHOT)) {
+                    start = lines.size();
+                } else if (!line.trim().isEmpty()) {
+                    lines.add(line);
+                }
+            }
+        } finally {
+            br.close();
+        }
+        for (int i = all ? 0 : start; i < lines.size(); i++) {
+            try {
+                RowJson json = new RowJson(lines.get(i));
+                rows.put(json.rowNum, json);
+            } catch (IllegalArgumentException ex) {
+                // half written line
+            }
+        }
+        return rows;
+    }
+
+    public void close() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+
+    public boolean exists() {
+        return file.exists();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    File file;
+    FileOutputStream out;
+}
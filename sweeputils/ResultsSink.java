@@ -0,0 +1,44 @@
+/**
+ * Destination for one results spreadsheet of a parametric sweep
+ *
+ * A sink is opened once per sweep and keeps its workbook in memory. Each case
+ * fills a row from createRow() with the usual Row/Cell calls, then endRow()
+ * records it. Rows are written to disk every so many rows and on close(), and
+ * rows not yet written are kept recoverable so a crash between flushes does
+ * not lose finished cases.
+ *
+ * 2017, v11.06
+ */
+package sweeputils;
+
+import java.io.IOException;
+import org.apache.poi.ss.usermodel.Row;
+
+public interface ResultsSink {
+
+    /**
+     * Starts a new row below the last row of the sheet.
+     */
+    Row createRow();
+
+    /**
+     * Starts a new row at the given index (0 is the header row).
+     */
+    Row createRow(int rowNum);
+
+    /**
+     * Records the row from the last createRow() call and flushes if the
+     * flush cadence is reached.
+     */
+    void endRow() throws IOException;
+
+    /**
+     * Writes all recorded rows to disk.
+     */
+    void flush() throws IOException;
+
+    /**
+     * Flushes and releases the sink.
+     */
+    void close() throws IOException;
+}
@@ -0,0 +1,146 @@
+/**
+ * Bounded single-writer stage for per-case post-processing
+ *
+ * Reducing monitor csv files and updating results workbooks does not need
+ * the solver, so the macro hands each finished case to this writer and goes
+ * straight on to the next mu.step(). One background thread runs the tasks in
+ * submission order, which keeps every workbook single-writer. At most
+ * capacity cases wait in the queue; submit() blocks when it is full so a slow
+ * disk can never pile up unbounded work (back-pressure). close() drains the
+ * queue before returning.
+ *
+ * A task failure is kept and rethrown from the next submit(), drain() or
+ * close(), so a broken results file still stops the sweep as it did when
+ * post-processing ran inline.
+ *
+ * Tasks must not touch the STAR-CCM+ client at all while the macro thread
+ * steps: no exports, scenes or reports, and no printing to the output window
+ * either, as MacroUtils output goes through the same client and the macro
+ * may have replaced it with a new sim's by the time the task runs. Tasks
+ * report() status lines instead, and the macro thread prints what poll()
+ * returns between steps.
+ *
+ * 2017, v11.06
+ */
+package sweeputils;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.*;
+
+public class ResultsWriter {
+
+    public interface Task {
+
+        void write() throws Exception;
+    }
+
+    public ResultsWriter(int capacity) {
+        queue = new ArrayBlockingQueue<Task>(Math.max(1, capacity));
+        thread = new Thread(new Runnable() {
+            public void run() {
+                loop();
+            }
+        }, "results-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Queues a task, blocking while the queue is full.
+     */
+    public void submit(Task task) throws IOException, InterruptedException {
+        checkFailure();
+        if (closed) {
+            throw new IllegalStateException("Results writer is closed");
+        }
+        synchronized (this) {
+            pending++;
+        }
+        queue.put(task);
+    }
+
+    /**
+     * Waits until every submitted task has finished.
+     */
+    public void drain() throws IOException, InterruptedException {
+        synchronized (this) {
+            while (pending > 0) {
+                wait();
+            }
+        }
+        checkFailure();
+    }
+
+    /**
+     * Drains the queue and stops the writer thread.
+     */
+    public void close() throws IOException, InterruptedException {
+        if (closed) {
+            checkFailure();
+            return;
+        }
+        try {
+            drain();
+        } finally {
+            closed = true;
+            thread.interrupt();
+            thread.join();
+        }
+    }
+
+    /**
+     * Queues a status line for the macro thread, called from tasks.
+     */
+    public void report(String message) {
+        messages.add(message);
+    }
+
+    /**
+     * Next status line reported by a task, null when there is none.
+     */
+    public String poll() {
+        return messages.poll();
+    }
+
+    public synchronized int getPending() {
+        return pending;
+    }
+
+    private void loop() {
+        while (true) {
+            Task task;
+            try {
+                task = queue.take();
+            } catch (InterruptedException ex) {
+                return;
+            }
+            try {
+                task.write();
+            } catch (Throwable t) {
+                if (failure == null) {
+                    failure = t;
+                }
+            } finally {
+                synchronized (this) {
+                    pending--;
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        Throwable t = failure;
+        if (t != null) {
+            throw new IOException("Results post-processing failed", t);
+        }
+    }
+
+    final BlockingQueue<Task> queue;
+    final Thread thread;
+    final Queue<String> messages = new ConcurrentLinkedQueue<String>();
+    volatile Throwable failure;
+    volatile boolean closed;
+    int pending;
+}
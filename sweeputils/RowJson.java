@@ -0,0 +1,310 @@
+/**
+ * One spreadsheet row as a line of JSON
+ *
+ * {"row":12,"cells":["v3",60.0,8.5,null,...]} where cells are numbers,
+ * strings or null for a missing cell. Non-finite numbers are written as the
+ * bare tokens NaN, Infinity and -Infinity so monitor values survive the round
+ * trip. Only the subset of JSON needed for these lines is parsed; unknown
+ * keys are skipped. parseFields() reads the flat records of the mesh quality
+ * trend store the same way.
+ *
+ * 2017, v11.06
+ */
+package sweeputils;
+
+import java.util.*;
+import org.apache.poi.ss.usermodel.*;
+
+class RowJson {
+
+    static String encode(Row row) {
+        StringBuilder sb = new StringBuilder(256);
+        sb.append("{\"row\":").append(row.getRowNum()).append(",\"cells\":[");
+        for (int c = 0; c < row.getLastCellNum(); c++) {
+            if (c > 0) {
+                sb.append(',');
+            }
+            Cell cell = row.getCell(c);
+            if (cell == null) {
+                sb.append("null");
+            } else if (cell.getCellType() == Cell.CELL_TYPE_NUMERIC) {
+                sb.append(cell.getNumericCellValue());
+            } else if (cell.getCellType() == Cell.CELL_TYPE_STRING) {
+                quote(sb, cell.getStringCellValue());
+            } else if (cell.getCellType() == Cell.CELL_TYPE_BOOLEAN) {
+                quote(sb, String.valueOf(cell.getBooleanCellValue()));
+            } else {
+                sb.append("null");
+            }
+        }
+        return sb.append("]}").toString();
+    }
+
+    /**
+     * Encodes a row from plain values (Number, String, Boolean or null), for
+     * writers that have no POI row, e.g. the stand-in worker.
+     */
+    static String encode(int rowNum, Object[] cells) {
+        StringBuilder sb = new StringBuilder(256);
+        sb.append("{\"row\":").append(rowNum).append(",\"cells\":[");
+        for (int c = 0; c < cells.length; c++) {
+            if (c > 0) {
+                sb.append(',');
+            }
+            if (cells[c] instanceof Number) {
+                sb.append(((Number) cells[c]).doubleValue());
+            } else if (cells[c] != null) {
+                quote(sb, cells[c].toString());
+            } else {
+                sb.append("null");
+            }
+        }
+        return sb.append("]}").toString();
+    }
+
+    static void quote(StringBuilder sb, String s) {
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char ch = s.charAt(i);
+            if (ch == '"' || ch == '\\') {
+                sb.append('\\').append(ch);
+            } else if (ch < 0x20) {
+                sb.append(String.format("\\u%04x", (int) ch));
+            } else {
+                sb.append(ch);
+            }
+        }
+        sb.append('"');
+    }
+
+    /**
+     * Parses a line into rowNum and cells (Double, String or null). Throws
+     * IllegalArgumentException for a malformed (e.g. half written) line.
+     */
+    RowJson(String line) {
+        this.line = line;
+        pos = 0;
+        cells = new ArrayList<Object>();
+        rowNum = -1;
+        skipSpaces();
+        expect('{');
+        skipSpaces();
+        if (peek() != '}') {
+            while (true) {
+                skipSpaces();
+                String key = parseString();
+                skipSpaces();
+                expect(':');
+                skipSpaces();
+                if ("row".equals(key)) {
+                    rowNum = (int) parseNumber();
+                } else if ("cells".equals(key)) {
+                    parseArray(cells);
+                } else {
+                    parseValue();
+                }
+                skipSpaces();
+                if (peek() == ',') {
+                    pos++;
+                } else {
+                    break;
+                }
+            }
+        }
+        expect('}');
+        if (rowNum < 0) {
+            throw new IllegalArgumentException("No row number: " + line);
+        }
+    }
+
+    /**
+     * Parses the top-level keys of a flat object line, e.g. a trend store
+     * record, into strings, numbers (Double) and nulls. Nested arrays and
+     * objects come back as null. Throws IllegalArgumentException for a
+     * malformed line.
+     */
+    static Map<String, Object> parseFields(String line) {
+        Map<String, Object> fields = new LinkedHashMap<String, Object>();
+        new RowJson(line, fields);
+        return fields;
+    }
+
+    private RowJson(String line, Map<String, Object> fields) {
+        this.line = line;
+        skipSpaces();
+        expect('{');
+        skipSpaces();
+        if (peek() != '}') {
+            while (true) {
+                skipSpaces();
+                String key = parseString();
+                skipSpaces();
+                expect(':');
+                skipSpaces();
+                fields.put(key, parseValue());
+                skipSpaces();
+                if (peek() == ',') {
+                    pos++;
+                } else {
+                    break;
+                }
+            }
+        }
+        expect('}');
+    }
+
+    /**
+     * Writes the parsed cells into a row.
+     */
+    void fill(Row row) {
+        for (int c = 0; c < cells.size(); c++) {
+            Object v = cells.get(c);
+            if (v instanceof Double) {
+                row.createCell(c).setCellValue((Double) v);
+            } else if (v instanceof String) {
+                row.createCell(c).setCellValue((String) v);
+            }
+        }
+    }
+
+    private void parseArray(List<Object> values) {
+        expect('[');
+        skipSpaces();
+        if (peek() == ']') {
+            pos++;
+            return;
+        }
+        while (true) {
+            skipSpaces();
+            values.add(parseValue());
+            skipSpaces();
+            if (peek() == ',') {
+                pos++;
+            } else {
+                break;
+            }
+        }
+        expect(']');
+    }
+
+    /*
+     * Strings and numbers are returned, nested arrays and objects (only found
+     * under unknown keys) are skipped.
+     */
+    private Object parseValue() {
+        char ch = peek();
+        if (ch == '"') {
+            return parseString();
+        } else if (ch == '[') {
+            parseArray(new ArrayList<Object>());
+            return null;
+        } else if (ch == '{') {
+            skipObject();
+            return null;
+        } else if (line.startsWith("null", pos)) {
+            pos += 4;
+            return null;
+        }
+        return parseNumber();
+    }
+
+    private void skipObject() {
+        int depth = 0;
+        do {
+            char ch = peek();
+            if (ch == '"') {
+                parseString();
+                continue;
+            }
+            if (ch == '{') {
+                depth++;
+            } else if (ch == '}') {
+                depth--;
+            }
+            pos++;
+        } while (depth > 0);
+    }
+
+    private double parseNumber() {
+        if (line.startsWith("NaN", pos)) {
+            pos += 3;
+            return Double.NaN;
+        } else if (line.startsWith("Infinity", pos)) {
+            pos += 8;
+            return Double.POSITIVE_INFINITY;
+        } else if (line.startsWith("-Infinity", pos)) {
+            pos += 9;
+            return Double.NEGATIVE_INFINITY;
+        }
+        int start = pos;
+        while (pos < line.length()
+                && "+-.eE0123456789".indexOf(line.charAt(pos)) >= 0) {
+            pos++;
+        }
+        if (pos == start) {
+            throw new IllegalArgumentException("Bad number at " + pos
+                    + ": " + line);
+        }
+        return Double.parseDouble(line.substring(start, pos));
+    }
+
+    private String parseString() {
+        expect('"');
+        StringBuilder sb = new StringBuilder();
+        while (true) {
+            char ch = peek();
+            pos++;
+            if (ch == '"') {
+                return sb.toString();
+            } else if (ch == '\\') {
+                char esc = peek();
+                pos++;
+                if (esc == 'u') {
+                    if (pos + 4 > line.length()) {
+                        throw new IllegalArgumentException("Bad escape: "
+                                + line);
+                    }
+                    sb.append((char) Integer.parseInt(
+                            line.substring(pos, pos + 4), 16));
+                    pos += 4;
+                } else if (esc == 'n') {
+                    sb.append('\n');
+                } else if (esc == 't') {
+                    sb.append('\t');
+                } else if (esc == 'r') {
+                    sb.append('\r');
+                } else {
+                    sb.append(esc);
+                }
+            } else {
+                sb.append(ch);
+            }
+        }
+    }
+
+    private char peek() {
+        if (pos >= line.length()) {
+            throw new IllegalArgumentException("Truncated line: " + line);
+        }
+        return line.charAt(pos);
+    }
+
+    private void expect(char ch) {
+        if (peek() != ch) {
+            throw new IllegalArgumentException("Expected " + ch + " at " + pos
+                    + ": " + line);
+        }
+        pos++;
+    }
+
+    private void skipSpaces() {
+        while (pos < line.length() && line.charAt(pos) == ' ') {
+            pos++;
+        }
+    }
+
+    String line;
+    int pos;
+    int rowNum;
+    List<Object> cells;
+}
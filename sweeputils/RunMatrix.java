@@ -0,0 +1,585 @@
+/**
+ * Declarative run matrix for parametric sweeps
+ *
+ * Replaces hard-coded nested for loops. A matrix is a list of axes, outermost
+ * first, each with a list of values. An axis can have its values overridden
+ * depending on the values of axes outside it, and whole cases can be
+ * excluded. Cases are produced lazily by an odometer over the axes, so the
+ * full product is never held in memory, and every case gets a stable index in
+ * matrix order that shards and slices are cut from.
+ *
+ * Matrix file format (one statement per line, # starts a comment):
+ *
+ *   axis speed = 15, 40, 60
+ *   axis yaw = 0:22.5:180              start:step:end, end included
+ *   when speed = 15 set rpm = 1600, 2000, 2800
+ *   when speed = 60 and trim = 8.5 set rpm = 3000
+ *   exclude speed = 15 and rpm = 2800
+ *   steps = 720                        solver steps per case
+ *   steps first rpm = 1440             steps for the first case of a pass
+ *                                      over the rpm axis
+ *
+ * "when" conditions may only name axes outside the axis they override, since
+ * the override has to be known when the odometer reaches that axis.
+ * Exclusions may name any axes. Reordering the axis lines reorders the loops.
+ *
+ * 2017, v11.06
+ */
+package sweeputils;
+
+import java.io.*;
+import java.util.*;
+
+public class RunMatrix implements Iterable<RunMatrix.Case> {
+
+    static final double EPS = 1e-9;
+
+    /**
+     * Reads a matrix definition file.
+     */
+    public static RunMatrix read(String fileName) throws IOException {
+        RunMatrix matrix = new RunMatrix();
+        BufferedReader br = new BufferedReader(new FileReader(fileName));
+        try {
+            String line;
+            int lineNum = 0;
+            while ((line = br.readLine()) != null) {
+                lineNum++;
+                int hash = line.indexOf('#');
+                if (hash >= 0) {
+                    line = line.substring(0, hash);
+                }
+                line = line.trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+                try {
+                    matrix.parse(line);
+                } catch (IllegalArgumentException ex) {
+                    throw new IOException(fileName + " line " + lineNum + ": "
+                            + ex.getMessage(), ex);
+                }
+            }
+        } finally {
+            br.close();
+        }
+        return matrix;
+    }
+
+    void parse(String line) {
+        if (line.startsWith("axis ")) {
+            String[] nv = splitAssign(line.substring(5));
+            addAxis(nv[0], parseValues(nv[1]));
+        } else if (line.startsWith("when ")) {
+            int set = line.indexOf(" set ");
+            if (set < 0) {
+                throw new IllegalArgumentException("missing set: " + line);
+            }
+            String[] nv = splitAssign(line.substring(set + 5));
+            addOverride(parseConditions(line.substring(5, set)), nv[0],
+                    parseValues(nv[1]));
+        } else if (line.startsWith("exclude ")) {
+            addExclusion(parseConditions(line.substring(8)));
+        } else if (line.startsWith("steps first ")) {
+            String[] nv = splitAssign(line.substring(12));
+            setFirstSteps(nv[0], Long.parseLong(nv[1].trim()));
+        } else if (line.startsWith("steps")) {
+            String[] nv = splitAssign(line);
+            setSteps(Long.parseLong(nv[1].trim()));
+        } else {
+            throw new IllegalArgumentException("unknown statement: " + line);
+        }
+    }
+
+    private static String[] splitAssign(String s) {
+        int eq = s.indexOf('=');
+        if (eq < 0) {
+            throw new IllegalArgumentException("missing =: " + s);
+        }
+        return new String[]{s.substring(0, eq).trim(), s.substring(eq + 1)};
+    }
+
+    private Condition[] parseConditions(String s) {
+        String[] terms = s.split("\\band\\b");
+        Condition[] conditions = new Condition[terms.length];
+        for (int i = 0; i < terms.length; i++) {
+            String[] nv = splitAssign(terms[i]);
+            conditions[i] = new Condition(axisIndex(nv[0]),
+                    Double.parseDouble(nv[1].trim()));
+        }
+        return conditions;
+    }
+
+    /**
+     * Parses "a, b, c" where each item is a number or start:step:end.
+     */
+    static double[] parseValues(String s) {
+        List<Double> values = new ArrayList<Double>();
+        for (String item : s.split(",")) {
+            item = item.trim();
+            if (item.isEmpty()) {
+                continue;
+            }
+            String[] range = item.split(":");
+            if (range.length == 1) {
+                values.add(Double.parseDouble(item));
+            } else if (range.length == 3) {
+                double start = Double.parseDouble(range[0].trim());
+                double step = Double.parseDouble(range[1].trim());
+                double end = Double.parseDouble(range[2].trim());
+                if (step == 0 || (end - start) / step < 0) {
+                    throw new IllegalArgumentException("bad range: " + item);
+                }
+                long n = (long) Math.floor((end - start) / step + EPS);
+                for (long i = 0; i <= n; i++) {
+                    values.add(start + i * step);
+                }
+            } else {
+                throw new IllegalArgumentException("bad value: " + item);
+            }
+        }
+        double[] array = new double[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+        return array;
+    }
+
+    public void addAxis(String name, double[] values) {
+        if (index.containsKey(name)) {
+            throw new IllegalArgumentException("duplicate axis: " + name);
+        }
+        index.put(name, axes.size());
+        axes.add(name);
+        axisValues.add(values.clone());
+        overrides.add(new ArrayList<Rule>());
+        firstSteps.add(-1L);
+    }
+
+    /**
+     * Uses values for axis whenever every condition holds. The last matching
+     * override wins.
+     */
+    public void addOverride(Condition[] when, String axis, double[] values) {
+        int a = axisIndex(axis);
+        for (Condition c : when) {
+            if (c.axis >= a) {
+                throw new IllegalArgumentException("override of " + axis
+                        + " depends on " + axes.get(c.axis)
+                        + ", which is not an outer axis");
+            }
+        }
+        overrides.get(a).add(new Rule(when, values.clone()));
+    }
+
+    public void addExclusion(Condition[] when) {
+        exclusions.add(when);
+    }
+
+    /**
+     * Solver steps of a case, used for the estimate.
+     */
+    public void setSteps(long steps) {
+        this.steps = steps;
+    }
+
+    /**
+     * Solver steps of the first case of each pass over axis (e.g. the first
+     * rpm after a remesh, which starts from a cleared solution).
+     */
+    public void setFirstSteps(String axis, long steps) {
+        firstSteps.set(axisIndex(axis), steps);
+    }
+
+    /**
+     * Keeps only cases whose index % count == shard.
+     */
+    public void setShard(int shard, int count) {
+        if (count < 1 || shard < 0 || shard >= count) {
+            throw new IllegalArgumentException("bad shard " + shard + "/"
+                    + count);
+        }
+        this.shard = shard;
+        this.shardCount = count;
+    }
+
+    /**
+     * Keeps only cases with from <= index < to.
+     */
+    public void setSlice(long from, long to) {
+        sliceFrom = from;
+        sliceTo = to;
+    }
+
+    public Condition condition(String axis, double value) {
+        return new Condition(axisIndex(axis), value);
+    }
+
+    public boolean hasAxis(String name) {
+        return index.containsKey(name);
+    }
+
+    public int axisIndex(String name) {
+        Integer i = index.get(name.trim());
+        if (i == null) {
+            throw new IllegalArgumentException("unknown axis: " + name);
+        }
+        return i;
+    }
+
+    /**
+     * Values of an axis before any override.
+     */
+    public double[] getValues(String axis) {
+        return axisValues.get(axisIndex(axis)).clone();
+    }
+
+    public String[] getAxes() {
+        return axes.toArray(new String[axes.size()]);
+    }
+
+    /**
+     * Number of cases after exclusions, shard and slice. Walks the matrix
+     * without storing it.
+     */
+    public long getCaseCount() {
+        long n = 0;
+        for (Iterator<Case> it = iterator(); it.hasNext(); it.next()) {
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * Sum of the solver steps of every case that will run.
+     */
+    public long getEstimatedSteps() {
+        long n = 0;
+        for (Case c : this) {
+            n += c.getSteps();
+        }
+        return n;
+    }
+
+    /**
+     * One line per axis plus totals, for printing before the sweep starts.
+     */
+    public String summary() {
+        StringBuilder sb = new StringBuilder();
+        for (int a = 0; a < axes.size(); a++) {
+            sb.append(axes.get(a)).append(": ")
+                    .append(Arrays.toString(axisValues.get(a)));
+            if (!overrides.get(a).isEmpty()) {
+                sb.append(" (").append(overrides.get(a).size())
+                        .append(" overrides)");
+            }
+            sb.append('\n');
+        }
+        sb.append("Cases: ").append(getCaseCount());
+        sb.append(", estimated steps: ").append(getEstimatedSteps());
+        if (shardCount > 1) {
+            sb.append(", shard ").append(shard).append('/').append(shardCount);
+        }
+        return sb.toString();
+    }
+
+    /*
+     * A case of this matrix run right after previous, used by queues that
+     * hand cases out in their own order.
+     */
+    Case caseOf(long caseIndex, double[] values, Case previous) {
+        if (values.length != axes.size()) {
+            throw new IllegalArgumentException("expected " + axes.size()
+                    + " values, got " + values.length);
+        }
+        return new Case(caseIndex, values.clone(),
+                previous == null ? null : previous.values);
+    }
+
+    public Iterator<Case> iterator() {
+        return new CaseIterator();
+    }
+
+    double[] valuesFor(int a, double[] current) {
+        double[] values = axisValues.get(a);
+        for (Rule o : overrides.get(a)) {
+            if (matches(o.when, current)) {
+                values = o.values;
+            }
+        }
+        return values;
+    }
+
+    static boolean matches(Condition[] when, double[] current) {
+        for (Condition c : when) {
+            if (Math.abs(current[c.axis] - c.value)
+                    > EPS * Math.max(1., Math.abs(c.value))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    boolean excluded(double[] current) {
+        for (Condition[] when : exclusions) {
+            if (matches(when, current)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static class Condition {
+
+        Condition(int axis, double value) {
+            this.axis = axis;
+            this.value = value;
+        }
+
+        final int axis;
+        final double value;
+    }
+
+    static class Rule {
+
+        Rule(Condition[] when, double[] values) {
+            this.when = when;
+            this.values = values;
+        }
+
+        final Condition[] when;
+        final double[] values;
+    }
+
+    /**
+     * One run of the sweep.
+     */
+    public class Case {
+
+        Case(long caseIndex, double[] values, double[] previous) {
+            this.caseIndex = caseIndex;
+            this.values = values;
+            this.previous = previous;
+            firstDiff = firstDiff(previous, values);
+        }
+
+        /*
+         * The same case run right after previous, used when cases are
+         * reordered (see MeshScheduler).
+         */
+        Case after(Case previous) {
+            return new Case(caseIndex, values,
+                    previous == null ? null : previous.values);
+        }
+
+        public double get(String axis) {
+            return values[axisIndex(axis)];
+        }
+
+        /**
+         * Stable position of the case in the full (unsharded) matrix.
+         */
+        public long getIndex() {
+            return caseIndex;
+        }
+
+        public double[] getValues() {
+            return values.clone();
+        }
+
+        /**
+         * True if any of the axes, or an axis outside them, has a different
+         * value than in the previous case, e.g. isNew("trim", "height") says
+         * the mesh must be updated.
+         */
+        public boolean isNew(String... axis) {
+            for (String name : axis) {
+                if (firstDiff <= axisIndex(name)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * True if any of the axes themselves has a different value than in
+         * the previous case (or this is the first case), whatever the outer
+         * axes did.
+         */
+        public boolean changed(String... axis) {
+            if (previous == null) {
+                return true;
+            }
+            for (String name : axis) {
+                int a = axisIndex(name);
+                if (previous[a] != values[a]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * True for the first case of a pass over the axis, i.e. an axis
+         * outside it changed (or this is the first case).
+         */
+        public boolean isFirst(String axis) {
+            return firstDiff < axisIndex(axis);
+        }
+
+        public long getSteps() {
+            long n = -1;
+            for (int a = 0; a < values.length; a++) {
+                if (firstSteps.get(a) >= 0 && firstDiff < a) {
+                    n = Math.max(n, firstSteps.get(a));
+                }
+            }
+            return n >= 0 ? n : steps;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("#" + caseIndex);
+            for (int a = 0; a < values.length; a++) {
+                sb.append(' ').append(axes.get(a)).append('=')
+                        .append(values[a]);
+            }
+            return sb.toString();
+        }
+
+        final long caseIndex;
+        final double[] values;
+        final double[] previous;
+        final int firstDiff;
+    }
+
+    /*
+     * Outermost axis that differs between two cases, -1 for the first case
+     * and the axis count if nothing differs.
+     */
+    static int firstDiff(double[] previous, double[] current) {
+        if (previous == null) {
+            return -1;
+        }
+        for (int a = 0; a < current.length; a++) {
+            if (previous[a] != current[a]) {
+                return a;
+            }
+        }
+        return current.length;
+    }
+
+    /*
+     * Odometer over the axes; the value list of each axis is looked up when
+     * the odometer enters it, so overrides see the outer values.
+     */
+    class CaseIterator implements Iterator<Case> {
+
+        CaseIterator() {
+            n = axes.size();
+            pos = new int[n];
+            levels = new double[n][];
+            current = new double[n];
+        }
+
+        public boolean hasNext() {
+            if (next == null && !done) {
+                next = advance();
+            }
+            return next != null;
+        }
+
+        public Case next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Case c = next;
+            next = null;
+            return c;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        private Case advance() {
+            while (step()) {
+                if (excluded(current)) {
+                    continue;
+                }
+                long i = caseIndex++;
+                if (i % shardCount != shard || i < sliceFrom || i >= sliceTo) {
+                    continue;
+                }
+                Case c = new Case(i, current.clone(), previous);
+                previous = c.values;
+                return c;
+            }
+            done = true;
+            return null;
+        }
+
+        private boolean step() {
+            if (n == 0) {
+                return false;
+            }
+            int a;
+            if (!started) {
+                started = true;
+                a = 0;
+            } else {
+                a = n - 1;
+                while (a >= 0 && ++pos[a] >= levels[a].length) {
+                    a--;
+                }
+                if (a < 0) {
+                    return false;
+                }
+                current[a] = levels[a][pos[a]];
+                a++;
+            }
+            // enter the inner axes, backing out of empty value lists
+            while (a < n) {
+                levels[a] = valuesFor(a, current);
+                pos[a] = 0;
+                if (levels[a].length > 0) {
+                    current[a] = levels[a][0];
+                    a++;
+                    continue;
+                }
+                a--;
+                while (a >= 0 && ++pos[a] >= levels[a].length) {
+                    a--;
+                }
+                if (a < 0) {
+                    return false;
+                }
+                current[a] = levels[a][pos[a]];
+                a++;
+            }
+            return true;
+        }
+
+        final int n;
+        final int[] pos;
+        final double[][] levels;
+        final double[] current;
+        double[] previous;
+        Case next;
+        long caseIndex;
+        boolean started;
+        boolean done;
+    }
+
+    List<String> axes = new ArrayList<String>();
+    Map<String, Integer> index = new HashMap<String, Integer>();
+    List<double[]> axisValues = new ArrayList<double[]>();
+    List<List<Rule>> overrides = new ArrayList<List<Rule>>();
+    List<Condition[]> exclusions = new ArrayList<Condition[]>();
+    List<Long> firstSteps = new ArrayList<Long>();
+    long steps;
+    int shard = 0;
+    int shardCount = 1;
+    long sliceFrom = 0;
+    long sliceTo = Long.MAX_VALUE;
+}
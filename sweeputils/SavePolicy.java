@@ -0,0 +1,229 @@
+/**
+ * Which solved cases of a sweep keep a .sim file, and where it is written
+ *
+ * Saving a multi-GB sim to the network share after every short rpm case can
+ * take as long as solving it. The policy picks the cases worth saving:
+ *
+ *   every        every case (what mu.saveSim() after each case did)
+ *   geometry     the first case solved on each new mesh
+ *   every <n>    every n-th case
+ *   last <k>     every case, older than the last k are deleted again
+ *
+ * With a local directory the sim is saved there (fast local disk) and copied
+ * to its shared path by a background ResultsWriter while the solver goes on.
+ * The copy lands under a .partial name and is renamed when complete, so
+ * SolutionIndex and SweepManifest, which skip missing files, never open a
+ * half copied sim. Deletions for "last <k>" run on the same thread after the
+ * copies they follow.
+ *
+ * 2017, v11.06
+ */
+package sweeputils;
+
+import java.io.*;
+import java.util.*;
+
+public class SavePolicy {
+
+    public enum Mode {
+
+        EVERY_CASE, GEOMETRY, EVERY_N, KEEP_LAST
+    }
+
+    /**
+     * @param mode which cases are saved
+     * @param n cases between saves for EVERY_N, sims kept for KEEP_LAST
+     * @param localDir fast disk to save to first, null or "" saves straight
+     * to the shared path
+     */
+    public SavePolicy(Mode mode, int n, String localDir) throws IOException {
+        if ((mode == Mode.EVERY_N || mode == Mode.KEEP_LAST) && n < 1) {
+            throw new IllegalArgumentException(mode + " needs a count >= 1");
+        }
+        this.mode = mode;
+        this.n = n;
+        if (localDir != null && !localDir.isEmpty()) {
+            local = new File(localDir);
+            if (!local.isDirectory() && !local.mkdirs()) {
+                throw new IOException("cannot create " + localDir);
+            }
+            copier = new ResultsWriter(copyQueue);
+        }
+    }
+
+    /**
+     * Policy from a macro input such as "every", "geometry", "every 5" or
+     * "last 3".
+     */
+    public static SavePolicy parse(String spec, String localDir)
+            throws IOException {
+        String[] f = spec.trim().toLowerCase().split("\\s+");
+        int count = f.length > 1 ? Integer.parseInt(f[1]) : 0;
+        if (f[0].equals("every")) {
+            return new SavePolicy(count > 0 ? Mode.EVERY_N : Mode.EVERY_CASE,
+                    count, localDir);
+        } else if (f[0].equals("geometry")) {
+            return new SavePolicy(Mode.GEOMETRY, 0, localDir);
+        } else if (f[0].equals("last")) {
+            return new SavePolicy(Mode.KEEP_LAST, count, localDir);
+        }
+        throw new IllegalArgumentException("unknown save policy: " + spec);
+    }
+
+    /**
+     * Call once per solved case, true if it is to be saved.
+     *
+     * @param remeshed the case is the first on a new mesh
+     */
+    public boolean isDue(boolean remeshed) {
+        cases++;
+        switch (mode) {
+            case GEOMETRY:
+                return remeshed;
+            case EVERY_N:
+                return cases % n == 0;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * File to save the sim of simFile to, local when a local directory is
+     * set. Local names are numbered so a sim saved again under the same name
+     * never overwrites one that is still being copied.
+     */
+    public File target(String simFile) {
+        File shared = new File(simFile);
+        return local == null ? shared
+                : new File(local, saves + "_" + shared.getName());
+    }
+
+    /**
+     * Records a sim saved to target(simFile): queues the copy to the shared
+     * path and deletes sims beyond the last k.
+     */
+    public void saved(final File written, String simFile)
+            throws IOException, InterruptedException {
+        saves++;
+        final File shared = new File(simFile);
+        if (!written.equals(shared)) {
+            bytes += written.length();
+            copier.submit(new ResultsWriter.Task() {
+                public void write() throws Exception {
+                    copy(written, shared);
+                }
+            });
+        }
+        if (mode == Mode.KEEP_LAST) {
+            // a sim saved again under its name is kept as the newest
+            kept.remove(shared);
+            kept.addLast(shared);
+            while (kept.size() > n) {
+                final File old = kept.removeFirst();
+                if (copier == null) {
+                    delete(old);
+                } else {
+                    copier.submit(new ResultsWriter.Task() {
+                        public void write() {
+                            delete(old);
+                        }
+                    });
+                }
+            }
+        }
+    }
+
+    void copy(File from, File to) throws IOException {
+        File partial = new File(to.getPath() + ".partial");
+        InputStream in = new FileInputStream(from);
+        try {
+            OutputStream out = new FileOutputStream(partial);
+            try {
+                byte[] buffer = new byte[1 << 20];
+                int len;
+                while ((len = in.read(buffer)) > 0) {
+                    out.write(buffer, 0, len);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+        to.delete();
+        if (!partial.renameTo(to)) {
+            throw new IOException("cannot rename " + partial);
+        }
+        from.delete();
+        synchronized (this) {
+            copied++;
+        }
+    }
+
+    void delete(File f) {
+        if (f.delete()) {
+            synchronized (this) {
+                deleted++;
+            }
+        }
+    }
+
+    /**
+     * Waits for the copies still running, e.g. before opening a sim that may
+     * not be on the shared path yet.
+     */
+    public void drain() throws IOException, InterruptedException {
+        if (copier != null) {
+            copier.drain();
+        }
+    }
+
+    /**
+     * Finishes the copies and stops the background thread.
+     */
+    public void close() throws IOException, InterruptedException {
+        if (copier != null) {
+            copier.close();
+        }
+    }
+
+    public int getSaves() {
+        return saves;
+    }
+
+    /**
+     * The policy as parse() reads it, e.g. "last 3".
+     */
+    public String getSpec() {
+        switch (mode) {
+            case GEOMETRY:
+                return "geometry";
+            case EVERY_N:
+                return "every " + n;
+            case KEEP_LAST:
+                return "last " + n;
+            default:
+                return "every";
+        }
+    }
+
+    public synchronized String summary() {
+        return "Saves (" + getSpec() + "): " + saves + " of " + cases
+                + " cases" + (local == null ? ""
+                        : ", " + copied + " copied from " + local + " ("
+                        + bytes / (1 << 20) + " MB)")
+                + (deleted > 0 ? ", " + deleted + " deleted" : "");
+    }
+
+    Mode mode;
+    int n;
+    File local;
+    ResultsWriter copier;
+    int copyQueue = 2;
+    Deque<File> kept = new ArrayDeque<File>();
+    int cases;
+    int saves;
+    int copied;
+    int deleted;
+    long bytes;
+}
@@ -0,0 +1,186 @@
+/**
+ * Index of solved cases for warm starts
+ *
+ * Every solved case is recorded with its run parameters and the .sim it was
+ * saved to, one CSV line per case ("file,speed,height,trim,rpm"), so the index
+ * survives between macro runs. nearest() returns the solved case closest to a
+ * new one by weighted distance,
+ *
+ *   d = sqrt(sum((w_i * (a_i - b_i))^2))
+ *
+ * A weight of 0 ignores an axis and an infinite weight makes it a must-match
+ * axis, e.g. trim and height when only fields on the same mesh can be reused.
+ * Weights are chosen so d = 1 is about as far as a warm start still helps;
+ * revolutions() scales the transient budget between the two.
+ *
+ * Workers of one sweep share the index. add() appends under a LockFile and
+ * first re-reads the file, so every worker also sees the cases the others
+ * solved.
+ *
+ * 2017, v11.06
+ */
+package sweeputils;
+
+import java.io.*;
+import java.util.*;
+
+public class SolutionIndex {
+
+    /**
+     * @param fileName index file, read if it exists
+     * @param axes parameter names, the CSV columns after the file
+     * @param weights inverse length scale of each axis
+     */
+    public SolutionIndex(String fileName, String[] axes, double[] weights)
+            throws IOException {
+        if (axes.length != weights.length) {
+            throw new IllegalArgumentException("one weight per axis");
+        }
+        file = new File(fileName);
+        this.axes = axes.clone();
+        this.weights = weights.clone();
+        lock = new LockFile(fileName);
+        read();
+    }
+
+    void read() throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        BufferedReader br = new BufferedReader(new FileReader(file));
+        try {
+            String line = br.readLine(); // header
+            while ((line = br.readLine()) != null) {
+                String[] f = line.split(",");
+                if (f.length != axes.length + 1) {
+                    continue; // half written line
+                }
+                try {
+                    double[] params = new double[axes.length];
+                    for (int i = 0; i < params.length; i++) {
+                        params[i] = Double.parseDouble(f[i + 1]);
+                    }
+                    put(new Neighbour(f[0], params, 0.));
+                } catch (NumberFormatException ex) {
+                    // half written line
+                }
+            }
+        } finally {
+            br.close();
+        }
+    }
+
+    /*
+     * A case solved again replaces its earlier entry.
+     */
+    private void put(Neighbour n) {
+        for (Iterator<Neighbour> it = solved.iterator(); it.hasNext();) {
+            if (Arrays.equals(it.next().params, n.params)) {
+                it.remove();
+            }
+        }
+        solved.add(n);
+    }
+
+    /**
+     * Records a solved case saved to simFile.
+     */
+    public void add(double[] params, String simFile) throws IOException {
+        lock.lock();
+        try {
+            read();
+            boolean header = !file.exists() || file.length() == 0;
+            PrintWriter pw = new PrintWriter(new FileWriter(file, true));
+            try {
+                if (header) {
+                    pw.print("file");
+                    for (String axis : axes) {
+                        pw.print("," + axis);
+                    }
+                    pw.println();
+                }
+                pw.print(simFile);
+                for (double p : params) {
+                    pw.print("," + p);
+                }
+                pw.println();
+            } finally {
+                pw.close();
+            }
+        } finally {
+            lock.unlock();
+        }
+        put(new Neighbour(simFile, params.clone(), 0.));
+    }
+
+    /**
+     * Weighted distance between two parameter sets, infinite if a must-match
+     * axis differs.
+     */
+    public double distance(double[] a, double[] b) {
+        double sum = 0.;
+        for (int i = 0; i < weights.length; i++) {
+            double diff = a[i] - b[i];
+            if (diff == 0. || weights[i] == 0.) {
+                continue;
+            }
+            if (Double.isInfinite(weights[i])) {
+                return Double.POSITIVE_INFINITY;
+            }
+            sum += (weights[i] * diff) * (weights[i] * diff);
+        }
+        return Math.sqrt(sum);
+    }
+
+    /**
+     * Closest solved case whose .sim still exists, or null if none is at a
+     * finite distance.
+     */
+    public Neighbour nearest(double[] params) {
+        Neighbour best = null;
+        for (Neighbour n : solved) {
+            double d = distance(params, n.params);
+            if (!Double.isInfinite(d) && (best == null || d < best.distance)
+                    && new File(n.file).isFile()) {
+                best = new Neighbour(n.file, n.params, d);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Transient budget for a start at the given distance: warm at 0, cold
+     * (and for no start at all, an infinite distance) from radius on.
+     */
+    public static double revolutions(double distance, double radius,
+            double warm, double cold) {
+        return warm + (cold - warm) * Math.min(1., distance / radius);
+    }
+
+    public String[] getAxes() {
+        return axes.clone();
+    }
+
+    public int size() {
+        return solved.size();
+    }
+
+    public static class Neighbour {
+
+        Neighbour(String file, double[] params, double distance) {
+            this.file = file;
+            this.params = params;
+            this.distance = distance;
+        }
+
+        public final String file;
+        public final double[] params;
+        public final double distance;
+    }
+
+    File file;
+    String[] axes;
+    double[] weights;
+    LockFile lock;
+    List<Neighbour> solved = new ArrayList<Neighbour>();
+}
@@ -0,0 +1,264 @@
+/**
+ * Wall-clock cost model of a sweep, learned from the cases it has run
+ *
+ * Three costs are learned from every finished case:
+ *
+ *   solve  core-seconds per timestep per million cells
+ *   mesh   core-seconds per remesh
+ *   post   seconds per case (exports, saves, waiting for the results writer)
+ *
+ * plus the fraction of the planned steps actually run, as convergence
+ * checks usually stop an rpm before its cap. predict() turns the steps,
+ * meshes and cases still to run into seconds for any core count, assuming
+ * solve and mesh time scale with 1/cores.
+ *
+ * The model is kept in a small properties file next to the sim, so the next
+ * sweep of the same model has an estimate before its first case. Earlier
+ * sweeps count as at most a few cases, the running sweep soon outweighs them.
+ *
+ * 2017, v11.06
+ */
+package sweeputils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+public class SweepEstimator {
+
+    /**
+     * @param fileName model file, read if it exists and rewritten on every
+     * update
+     * @param cores cores of this run
+     */
+    public SweepEstimator(String fileName, int cores) throws IOException {
+        file = new File(fileName);
+        target = new AtomicFile(fileName);
+        this.cores = Math.max(1, cores);
+        read();
+    }
+
+    void read() throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        Properties p = new Properties();
+        InputStream in = new FileInputStream(file);
+        try {
+            p.load(in);
+        } finally {
+            in.close();
+        }
+        for (int i = 0; i < sums.length; i++) {
+            sums[i] = Double.parseDouble(p.getProperty(NAMES[i], "0"));
+        }
+        // an earlier sweep counts as at most priorCases cases
+        double cases = Math.max(sums[SOLVE_N], sums[POST_N]);
+        if (cases > priorCases) {
+            double f = priorCases / cases;
+            for (int i = 0; i < sums.length; i++) {
+                sums[i] *= f;
+            }
+        }
+    }
+
+    synchronized void write() throws IOException {
+        StringBuilder sb = new StringBuilder("# sweep cost model\n");
+        for (int i = 0; i < sums.length; i++) {
+            sb.append(NAMES[i]).append('=').append(sums[i]).append('\n');
+        }
+        FileOutputStream out = target.startWrite();
+        try {
+            out.write(sb.toString().getBytes(StandardCharsets.ISO_8859_1));
+        } catch (IOException ex) {
+            target.failWrite(out);
+            throw ex;
+        }
+        target.finishWrite(out);
+    }
+
+    /**
+     * Records a remesh that took the given wall-clock seconds.
+     */
+    public synchronized void addMesh(double seconds, double cells)
+            throws IOException {
+        sums[MESH_S] += seconds * cores;
+        sums[MESH_N]++;
+        sums[CELLS] += cells;
+        sums[CELLS_N]++;
+        write();
+    }
+
+    /**
+     * Records a solve.
+     *
+     * @param seconds wall-clock time of the solve
+     * @param steps timesteps run
+     * @param planned timesteps the case was planned with (its cap)
+     * @param cells cells of the mesh
+     */
+    public synchronized void addSolve(double seconds, long steps,
+            long planned, double cells) throws IOException {
+        if (steps <= 0 || !(cells > 0)) {
+            return;
+        }
+        sums[SOLVE_S] += seconds * cores;
+        sums[SOLVE_WORK] += steps * cells / 1e6;
+        sums[STEPS] += steps;
+        sums[PLANNED] += Math.max(steps, planned);
+        sums[SOLVE_N]++;
+        write();
+    }
+
+    /**
+     * Records the post-processing of a case.
+     */
+    public synchronized void addPost(double seconds) throws IOException {
+        sums[POST_S] += seconds;
+        sums[POST_N]++;
+        write();
+    }
+
+    /**
+     * Core-seconds per timestep per million cells, NaN before any solve.
+     */
+    public synchronized double getSolveRate() {
+        return sums[SOLVE_WORK] > 0 ? sums[SOLVE_S] / sums[SOLVE_WORK]
+                : Double.NaN;
+    }
+
+    /**
+     * Mean cells of the meshes seen, NaN before any.
+     */
+    public synchronized double getCells() {
+        return sums[CELLS_N] > 0 ? sums[CELLS] / sums[CELLS_N] : Double.NaN;
+    }
+
+    /**
+     * Fraction of the planned steps that were run, 1 before any solve.
+     */
+    public synchronized double getStepFraction() {
+        return sums[PLANNED] > 0 ? sums[STEPS] / sums[PLANNED] : 1.;
+    }
+
+    /**
+     * Seconds of each phase, {solve, mesh, post}, for the work left. A phase
+     * that has not been seen yet is NaN.
+     *
+     * @param steps planned timesteps left
+     * @param meshes remeshes left
+     * @param cases cases left
+     * @param cells cells per mesh, NaN uses the mean seen so far
+     * @param cores cores to predict for
+     */
+    public synchronized double[] predict(long steps, int meshes, int cases,
+            double cells, int cores) {
+        if (Double.isNaN(cells)) {
+            cells = getCells();
+        }
+        double solve = getSolveRate() * steps * getStepFraction() * cells
+                / 1e6 / cores;
+        double mesh = meshes == 0 ? 0. : sums[MESH_N] > 0
+                ? sums[MESH_S] / sums[MESH_N] * meshes / cores : Double.NaN;
+        double post = cases == 0 ? 0. : sums[POST_N] > 0
+                ? sums[POST_S] / sums[POST_N] * cases : Double.NaN;
+        return new double[]{solve, mesh, post};
+    }
+
+    /**
+     * Total seconds for the work left on this run's cores, NaN phases
+     * counted as 0.
+     */
+    public double remaining(long steps, int meshes, int cases, double cells) {
+        double total = 0.;
+        for (double s : predict(steps, meshes, cases, cells, cores)) {
+            if (!Double.isNaN(s)) {
+                total += s;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * One line for the output window, e.g.
+     * "ETA Tue 14:05, 3h20m left for 41 cases (7 meshes, 98400 steps)".
+     */
+    public String eta(long steps, int meshes, int cases, double cells) {
+        double left = remaining(steps, meshes, cases, cells);
+        if (sums[SOLVE_N] == 0) {
+            return "ETA unknown until the first case is solved, " + cases
+                    + " cases left";
+        }
+        Date end = new Date(System.currentTimeMillis() + (long) (left * 1e3));
+        return String.format("ETA %ta %tR, %s left for %d cases"
+                + " (%d meshes, %d steps)", end, end, hours(left), cases,
+                meshes, steps);
+    }
+
+    static String hours(double seconds) {
+        long m = Math.round(seconds / 60);
+        return m / 60 + "h" + String.format("%02d", m % 60) + "m";
+    }
+
+    /**
+     * Writes the predicted hours of the work left for several core counts,
+     * for choosing cores and batch queue lengths.
+     */
+    public void export(String fileName, long steps, int meshes, int cases,
+            double cells, int... coreCounts) throws IOException {
+        PrintWriter pw = new PrintWriter(new FileWriter(fileName));
+        try {
+            pw.println("cores,solve (h),mesh (h),post (h),total (h),"
+                    + "core-hours");
+            for (int n : coreCounts) {
+                double[] s = predict(steps, meshes, cases, cells, n);
+                double total = 0.;
+                for (double x : s) {
+                    total += Double.isNaN(x) ? 0. : x;
+                }
+                pw.printf(Locale.ROOT, "%d,%.3f,%.3f,%.3f,%.3f,%.1f%n", n,
+                        s[0] / 3600, s[1] / 3600, s[2] / 3600, total / 3600,
+                        (s[0] + (Double.isNaN(s[1]) ? 0. : s[1])) * n / 3600);
+            }
+            pw.printf(Locale.ROOT, "# %.4g core-s per step per Mcell,"
+                    + " %.0f cells, %.2f of planned steps run%n",
+                    getSolveRate(), getCells(), getStepFraction());
+        } finally {
+            pw.close();
+        }
+    }
+
+    public int getCores() {
+        return cores;
+    }
+
+    public synchronized String summary() {
+        return String.format("Cost model: %.4g core-s per step per Mcell,"
+                + " %.0f core-s per mesh, %.0f s post per case,"
+                + " %.0f%% of planned steps (%d cases)", getSolveRate(),
+                sums[MESH_N] > 0 ? sums[MESH_S] / sums[MESH_N] : Double.NaN,
+                sums[POST_N] > 0 ? sums[POST_S] / sums[POST_N] : Double.NaN,
+                100 * getStepFraction(), (int) Math.round(sums[SOLVE_N]));
+    }
+
+    static final String[] NAMES = {"solveCoreSeconds", "solveStepMcells",
+        "solves", "stepsRun", "stepsPlanned", "meshCoreSeconds", "meshes",
+        "cells", "cellCounts", "postSeconds", "posts"};
+    static final int SOLVE_S = 0;
+    static final int SOLVE_WORK = 1;
+    static final int SOLVE_N = 2;
+    static final int STEPS = 3;
+    static final int PLANNED = 4;
+    static final int MESH_S = 5;
+    static final int MESH_N = 6;
+    static final int CELLS = 7;
+    static final int CELLS_N = 8;
+    static final int POST_S = 9;
+    static final int POST_N = 10;
+
+    File file;
+    AtomicFile target;
+    int cores;
+    double priorCases = 3;
+    double[] sums = new double[NAMES.length];
+}
@@ -0,0 +1,285 @@
+/**
+ * Checkpoint manifest of a sweep
+ *
+ * Records for every case the stage it reached (pending, meshing, solving,
+ * post, done), the last .sim it was saved to and the checksums of its output
+ * files. The whole manifest is rewritten through AtomicFile on every change,
+ * so after a crash it shows exactly where each case stopped, and a re-run can
+ * skip the finished cases and restart the rest from their last saved sim
+ * instead of hand-editing the run arrays.
+ *
+ * A case only counts as done while its outputs still match their checksums,
+ * a deleted or truncated output sends it back through post-processing.
+ * Methods are synchronized so a background writer can mark cases done.
+ *
+ * Cases that are not part of the run matrix, e.g. rpms added by adaptive
+ * refinement, are recorded with their run parameters by addCase() before
+ * they are solved, so a re-run knows about them and can finish them.
+ *
+ * File format, one tab separated line per case, @values only for added
+ * cases:
+ *
+ *   name  state  sim  [@v1,v2,...]  output|crc32  output|crc32 ...
+ *
+ * 2017, v11.06
+ */
+package sweeputils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.CRC32;
+
+public class SweepManifest {
+
+    public enum State {
+
+        PENDING, MESHING, SOLVING, POST, DONE
+    }
+
+    public SweepManifest(String fileName) throws IOException {
+        file = new File(fileName);
+        target = new AtomicFile(fileName);
+        read();
+    }
+
+    void read() throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        BufferedReader br = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), StandardCharsets.UTF_8));
+        try {
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] f = line.split("\t", -1);
+                if (line.startsWith("#") || f.length < 3) {
+                    continue;
+                }
+                Entry e = new Entry();
+                try {
+                    e.state = State.valueOf(f[1]);
+                } catch (IllegalArgumentException ex) {
+                    continue;
+                }
+                e.sim = f[2].isEmpty() ? null : f[2];
+                for (int i = 3; i < f.length; i++) {
+                    if (f[i].startsWith("@")) {
+                        String[] v = f[i].substring(1).split(",");
+                        e.point = new double[v.length];
+                        for (int j = 0; j < v.length; j++) {
+                            e.point[j] = Double.parseDouble(v[j]);
+                        }
+                        continue;
+                    }
+                    int bar = f[i].lastIndexOf('|');
+                    if (bar > 0) {
+                        e.outputs.put(f[i].substring(0, bar),
+                                Long.parseLong(f[i].substring(bar + 1), 16));
+                    }
+                }
+                entries.put(f[0], e);
+            }
+        } finally {
+            br.close();
+        }
+    }
+
+    void write() throws IOException {
+        StringBuilder sb = new StringBuilder("# sweep manifest: name, state,"
+                + " sim, [@values], output|crc32...\n");
+        for (Map.Entry<String, Entry> me : entries.entrySet()) {
+            Entry e = me.getValue();
+            sb.append(me.getKey()).append('\t').append(e.state.name())
+                    .append('\t').append(e.sim == null ? "" : e.sim);
+            if (e.point != null) {
+                sb.append("\t@");
+                for (int i = 0; i < e.point.length; i++) {
+                    sb.append(i > 0 ? "," : "").append(e.point[i]);
+                }
+            }
+            for (Map.Entry<String, Long> out : e.outputs.entrySet()) {
+                sb.append('\t').append(out.getKey()).append('|')
+                        .append(Long.toHexString(out.getValue()));
+            }
+            sb.append('\n');
+        }
+        FileOutputStream out = target.startWrite();
+        try {
+            out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException ex) {
+            target.failWrite(out);
+            throw ex;
+        }
+        target.finishWrite(out);
+    }
+
+    private Entry entry(String name) {
+        Entry e = entries.get(name);
+        if (e == null) {
+            e = new Entry();
+            entries.put(name, e);
+        }
+        return e;
+    }
+
+    public synchronized State getState(String name) {
+        Entry e = entries.get(name);
+        return e == null ? State.PENDING : e.state;
+    }
+
+    /**
+     * Moves a case to a new stage. Starting a case over (meshing) forgets
+     * the outputs of an earlier attempt.
+     */
+    public synchronized void setState(String name, State state)
+            throws IOException {
+        Entry e = entry(name);
+        if (state == State.MESHING || state == State.PENDING) {
+            e.outputs.clear();
+        }
+        e.state = state;
+        write();
+    }
+
+    /**
+     * True if the case finished and every output still has its checksum.
+     */
+    public synchronized boolean isDone(String name) {
+        Entry e = entries.get(name);
+        if (e == null || e.state != State.DONE) {
+            return false;
+        }
+        for (Map.Entry<String, Long> out : e.outputs.entrySet()) {
+            try {
+                if (checksum(new File(out.getKey())) != out.getValue()) {
+                    return false;
+                }
+            } catch (IOException ex) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Records a case that is not in the run matrix with its run parameters,
+     * before it is solved.
+     */
+    public synchronized void addCase(String name, double... point)
+            throws IOException {
+        entry(name).point = point.clone();
+        write();
+    }
+
+    /**
+     * Run parameters of the added cases by name, in the order added.
+     */
+    public synchronized Map<String, double[]> getAdded() {
+        Map<String, double[]> added = new LinkedHashMap<String, double[]>();
+        for (Map.Entry<String, Entry> me : entries.entrySet()) {
+            if (me.getValue().point != null) {
+                added.put(me.getKey(), me.getValue().point.clone());
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Records the .sim the case was last saved to.
+     */
+    public synchronized void setSim(String name, String simFile)
+            throws IOException {
+        entry(name).sim = simFile;
+        write();
+    }
+
+    /**
+     * Last saved .sim of the case, null if none was recorded or it is gone.
+     */
+    public synchronized String getSim(String name) {
+        Entry e = entries.get(name);
+        if (e == null || e.sim == null || !new File(e.sim).isFile()) {
+            return null;
+        }
+        return e.sim;
+    }
+
+    /**
+     * Records the checksums of output files of the case. Missing files are
+     * skipped, not every case writes every optional output.
+     */
+    public synchronized void addOutputs(String name, String... files)
+            throws IOException {
+        Entry e = entry(name);
+        for (String f : files) {
+            File out = new File(f);
+            if (out.isFile()) {
+                e.outputs.put(f, checksum(out));
+            }
+        }
+        write();
+    }
+
+    /**
+     * Records the outputs and marks the case done in one update.
+     */
+    public synchronized void done(String name, String... files)
+            throws IOException {
+        Entry e = entry(name);
+        for (String f : files) {
+            File out = new File(f);
+            if (out.isFile()) {
+                e.outputs.put(f, checksum(out));
+            }
+        }
+        e.state = State.DONE;
+        write();
+    }
+
+    public static long checksum(File f) throws IOException {
+        CRC32 crc = new CRC32();
+        InputStream in = new FileInputStream(f);
+        try {
+            byte[] buffer = new byte[1 << 16];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                crc.update(buffer, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Number of cases in each state, e.g. "12 done, 1 solving".
+     */
+    public synchronized String summary() {
+        int[] counts = new int[State.values().length];
+        for (Entry e : entries.values()) {
+            counts[e.state.ordinal()]++;
+        }
+        StringBuilder sb = new StringBuilder("Manifest " + file.getName()
+                + ": " + entries.size() + " cases");
+        for (State s : State.values()) {
+            if (counts[s.ordinal()] > 0) {
+                sb.append(", ").append(counts[s.ordinal()]).append(' ')
+                        .append(s.name().toLowerCase());
+            }
+        }
+        return sb.toString();
+    }
+
+    static class Entry {
+
+        State state = State.PENDING;
+        String sim;
+        double[] point;
+        Map<String, Long> outputs = new LinkedHashMap<String, Long>();
+    }
+
+    File file;
+    AtomicFile target;
+    Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+}
@@ -0,0 +1,135 @@
+/**
+ * Reads only the last rows of a monitor plot csv export
+ *
+ * MonitorPlot.export() writes the whole time history, but the parametric
+ * macros only average the final revolution. The file is memory mapped and
+ * scanned backward from EOF so the cost depends on the number of rows kept,
+ * not on the length of the run.
+ *
+ * 2017, v11.06
+ */
+package sweeputils;
+
+import com.opencsv.CSVParser;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+public class TailReader {
+
+    // initial guess at bytes per exported row, window doubles if too small
+    static final int BYTES_PER_ROW = 256;
+
+    /**
+     * Returns the last numRows data rows of a csv file in file order (oldest
+     * first), so data.get(data.size() - 1) is the final time step. The header
+     * line is never returned. If the file holds fewer data rows than
+     * requested, all of them are returned.
+     */
+    public static List<String[]> readLast(String fileName, int numRows)
+            throws IOException {
+        List<String> lines = readLastLines(fileName, numRows);
+        List<String[]> rows = new ArrayList<String[]>(lines.size());
+        CSVParser parser = new CSVParser();
+        for (String line : lines) {
+            rows.add(parser.parseLine(line));
+        }
+        return rows;
+    }
+
+    /**
+     * Returns the raw text of the last numRows data lines, oldest first.
+     */
+    public static List<String> readLastLines(String fileName, int numRows)
+            throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(fileName, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long offset = tailOffset(channel, numRows);
+            return lines(channel.map(FileChannel.MapMode.READ_ONLY,
+                    offset, channel.size() - offset));
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Returns the byte offset where the last numRows data lines begin. If the
+     * file holds fewer data lines, the offset just past the header line is
+     * returned. Blank lines are not counted.
+     */
+    public static long tailOffset(FileChannel channel, int numRows)
+            throws IOException {
+        long size = channel.size();
+        if (numRows <= 0) {
+            return size;
+        }
+        long window = Math.max((long) numRows * BYTES_PER_ROW, 4096);
+        while (true) {
+            long start = Math.max(0, size - Math.min(window, size));
+            MappedByteBuffer buf = channel.map(
+                    FileChannel.MapMode.READ_ONLY, start, size - start);
+            int lineEnd = buf.limit();
+            int found = 0;
+            for (int pos = lineEnd - 1; pos >= 0; pos--) {
+                if (buf.get(pos) == '\n') {
+                    if (hasContent(buf, pos + 1, lineEnd)) {
+                        found++;
+                        if (found == numRows) {
+                            return start + pos + 1;
+                        }
+                    }
+                    lineEnd = pos;
+                }
+            }
+            if (start == 0) {
+                // everything after the header line
+                for (int pos = 0; pos < buf.limit(); pos++) {
+                    if (buf.get(pos) == '\n') {
+                        return pos + 1;
+                    }
+                }
+                return size;
+            }
+            // ran out of mapped bytes before finding enough lines
+            window *= 2;
+        }
+    }
+
+    /**
+     * Splits a buffer of csv text into its non-blank lines.
+     */
+    static List<String> lines(ByteBuffer buf) {
+        List<String> lines = new ArrayList<String>();
+        int from = 0;
+        for (int pos = 0; pos <= buf.limit(); pos++) {
+            if (pos == buf.limit() || buf.get(pos) == '\n') {
+                int to = pos;
+                while (to > from && buf.get(to - 1) == '\r') {
+                    to--;
+                }
+                if (to > from) {
+                    byte[] bytes = new byte[to - from];
+                    for (int i = 0; i < bytes.length; i++) {
+                        bytes[i] = buf.get(from + i);
+                    }
+                    lines.add(new String(bytes, StandardCharsets.UTF_8));
+                }
+                from = pos + 1;
+            }
+        }
+        return lines;
+    }
+
+    private static boolean hasContent(ByteBuffer buf, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buf.get(i) != '\r') {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,143 @@
+/**
+ * Journaled, atomically snapshotted workbook shared by the results sinks
+ *
+ * Subclasses open or build the workbook and sheet; this class handles the
+ * rest of the sink contract. Each row is appended to the <fileName>.journal
+ * ResultsJournal and synced as soon as endRow() is called, and the workbook
+ * is written every flushEvery rows and on close() through AtomicFile, so the
+ * file on disk is always complete and no finished case is ever lost.
+ *
+ * 2017, v11.06
+ */
+package sweeputils;
+
+import java.io.*;
+import org.apache.poi.ss.usermodel.*;
+
+public abstract class WorkbookSink implements ResultsSink {
+
+    protected WorkbookSink(String fileName, int flushEvery) {
+        this.fileName = fileName;
+        this.flushEvery = Math.max(1, flushEvery);
+        target = new AtomicFile(fileName);
+        journal = new ResultsJournal(fileName + ".journal");
+    }
+
+    /*
+     * Creates the sheet with its header row.
+     */
+    void createSheet(String sheetName, String[] headers) {
+        sheet = wb.createSheet(sheetName);
+        Row header = sheet.createRow(0);
+        for (int c = 0; c < headers.length; c++) {
+            header.createCell(c).setCellValue(headers[c]);
+        }
+        dirty = true;
+    }
+
+    /*
+     * Moves an unreadable workbook out of the way so it can be rebuilt from
+     * the journal without destroying what is left of it.
+     */
+    void setAside(File file) {
+        File damaged = new File(fileName + ".damaged");
+        damaged.delete();
+        file.renameTo(damaged);
+    }
+
+    public Row createRow() {
+        return createRow(sheet.getLastRowNum() + 1);
+    }
+
+    public Row createRow(int rowNum) {
+        row = sheet.createRow(rowNum);
+        return row;
+    }
+
+    public void endRow() throws IOException {
+        if (row == null) {
+            return;
+        }
+        journal.append(row);
+        row = null;
+        dirty = true;
+        if (++pendingRows >= flushEvery) {
+            flush();
+        }
+    }
+
+    public void flush() throws IOException {
+        if (!dirty) {
+            return;
+        }
+        FileOutputStream out = target.startWrite();
+        try {
+            writeSnapshot(out);
+        } catch (IOException ex) {
+            target.failWrite(out);
+            throw ex;
+        }
+        target.finishWrite(out);
+        journal.markSnapshot(lastRowNum());
+        pendingRows = 0;
+        dirty = false;
+    }
+
+    /*
+     * Writes the workbook file, the live workbook unless the backend cannot
+     * be written more than once.
+     */
+    void writeSnapshot(OutputStream out) throws IOException {
+        wb.write(out);
+    }
+
+    /*
+     * Index of the last row recorded.
+     */
+    int lastRowNum() {
+        return sheet.getLastRowNum();
+    }
+
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            journal.close();
+            release();
+        }
+    }
+
+    /**
+     * Frees backend resources after the final flush.
+     */
+    protected void release() {
+    }
+
+    /**
+     * Deletes a workbook and its journal, for a run that starts over rather
+     * than resuming: rows of an earlier, longer run would otherwise survive
+     * in the file or be replayed from the journal.
+     */
+    public static void discard(String fileName) {
+        new File(fileName).delete();
+        new File(fileName + ".journal").delete();
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public Sheet getSheet() {
+        return sheet;
+    }
+
+    String fileName;
+    AtomicFile target;
+    ResultsJournal journal;
+    int flushEvery;
+    int pendingRows;
+    boolean dirty;
+    Workbook wb;
+    Sheet sheet;
+    Row row;
+}
@@ -0,0 +1,63 @@
+/**
+ * Results sink backed by an in-memory HSSF (.xls) workbook
+ *
+ * The workbook is read (or created with its header row) once when the sink
+ * is opened and only written back every flushEvery rows and on close(),
+ * instead of re-reading and rewriting the whole file for every case.
+ * Journaling and atomic snapshots are done by WorkbookSink. When a sink is
+ * opened the rows journaled since the last snapshot are put back; if the
+ * .xls is missing or unreadable it is rebuilt from the whole journal.
+ *
+ * HSSF keeps the whole workbook on heap and caps a sheet at 65,536 rows; use
+ * XlsxResultsSink for large sweeps.
+ *
+ * 2017, v11.06
+ */
+package sweeputils;
+
+import java.io.*;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.usermodel.*;
+
+public class XlsResultsSink extends WorkbookSink {
+
+    /**
+     * @param fileName workbook file, created if it does not exist
+     * @param sheetName sheet receiving the rows
+     * @param headers header row written to a new sheet
+     * @param flushEvery rows between writes of the workbook, 1 writes every
+     * case
+     */
+    public XlsResultsSink(String fileName, String sheetName, String[] headers,
+            int flushEvery) throws IOException {
+        super(fileName, flushEvery);
+        File file = new File(fileName);
+        boolean rebuild = !file.exists();
+        if (!rebuild) {
+            try {
+                InputStream in = new FileInputStream(file);
+                try {
+                    wb = WorkbookFactory.create(in);
+                } finally {
+                    in.close();
+                }
+            } catch (Exception ex) {
+                setAside(file);
+                rebuild = true;
+            }
+        }
+        if (wb == null) {
+            wb = new HSSFWorkbook();
+        }
+        sheet = wb.getSheet(sheetName);
+        if (sheet == null) {
+            createSheet(sheetName, headers);
+        }
+        if (journal.replay(sheet, rebuild) > 0) {
+            dirty = true;
+        }
+        if (dirty) {
+            flush();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/**
+ * Streaming results sink writing .xlsx through POI's SXSSF
+ *
+ * Only the last rowWindow rows are kept on heap, older rows are flushed to a
+ * compressed temp file by SXSSF, so memory stays flat however many cases the
+ * sweep adds and the sheet is not limited to the 65,536 rows of .xls.
+ *
+ * An SXSSF workbook can only be written once, and rows streamed out of its
+ * window cannot be read back, so the journal is the source of truth: the
+ * live workbook only creates the rows, and the file is streamed line by line
+ * from the journal into a fresh workbook. Rebuilding it costs a pass over
+ * every row, so it is only written when the sink is opened and closed; in
+ * between each finished row is safe in the journal, and a sweep that dies
+ * gets its workbook rebuilt the next time the sink is opened. The next row
+ * index is kept here, as the live sheet does not hold the rows of earlier
+ * runs. A workbook
+ * written before it had a journal is taken over once: the rows of its sheet
+ * are journaled and new rows are appended after them (other sheets of it
+ * are not carried over).
+ *
+ * 2017, v11.06
+ */
+package sweeputils;
+
+import java.io.*;
+import org.apache.poi.ss.usermodel.*;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+public class XlsxResultsSink extends WorkbookSink {
+
+    /**
+     * @param fileName workbook file, created if it does not exist
+     * @param sheetName sheet receiving the rows
+     * @param headers header row written to a new sheet
+     * @param rowWindow rows kept in memory before SXSSF streams them to disk
+     */
+    public XlsxResultsSink(String fileName, String sheetName, String[] headers,
+            int rowWindow) throws IOException {
+        // rows are only journaled until close()
+        super(fileName, Integer.MAX_VALUE);
+        this.sheetName = sheetName;
+        this.headers = headers.clone();
+        this.rowWindow = rowWindow;
+        File file = new File(fileName);
+        if (file.exists() && !journal.exists()) {
+            try {
+                InputStream in = new FileInputStream(file);
+                try {
+                    Sheet existing = new XSSFWorkbook(in).getSheet(sheetName);
+                    if (existing != null) {
+                        journal.seed(existing);
+                    }
+                } finally {
+                    in.close();
+                }
+            } catch (Exception ex) {
+                setAside(file);
+            }
+        }
+        nextRow = journal.stream(null) + 1;
+        streaming = new SXSSFWorkbook(rowWindow);
+        streaming.setCompressTempFiles(true);
+        wb = streaming;
+        createSheet(sheetName, headers);
+        flush();
+    }
+
+    @Override
+    public Row createRow() {
+        return createRow(nextRow);
+    }
+
+    @Override
+    public Row createRow(int rowNum) {
+        nextRow = Math.max(nextRow, rowNum + 1);
+        return super.createRow(rowNum);
+    }
+
+    /*
+     * Streams a fresh workbook from the journal, the live one is never
+     * written.
+     */
+    @Override
+    void writeSnapshot(OutputStream out) throws IOException {
+        SXSSFWorkbook snapshot = new SXSSFWorkbook(rowWindow);
+        try {
+            snapshot.setCompressTempFiles(true);
+            Sheet s = snapshot.createSheet(sheetName);
+            Row header = s.createRow(0);
+            for (int c = 0; c < headers.length; c++) {
+                header.createCell(c).setCellValue(headers[c]);
+            }
+            journal.stream(s);
+            snapshot.write(out);
+        } finally {
+            snapshot.dispose();
+        }
+    }
+
+    @Override
+    int lastRowNum() {
+        return nextRow - 1;
+    }
+
+    /**
+     * Deletes the SXSSF temp files.
+     */
+    @Override
+    protected void release() {
+        streaming.dispose();
+    }
+
+    String sheetName;
+    String[] headers;
+    int rowWindow;
+    int nextRow;
+    SXSSFWorkbook streaming;
+}
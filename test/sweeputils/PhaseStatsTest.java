@@ -0,0 +1,89 @@
+/**
+ * Checks PhaseStats.addTable() against a table with a known phase signal
+ *
+ * There is no test framework in the macro environment, so this runs as a
+ * plain program and exits non-zero on the first failed check:
+ *
+ *   javac -d out sweeputils/*.java test/sweeputils/PhaseStatsTest.java
+ *   java -cp out sweeputils.PhaseStatsTest
+ *
+ * 2017, v11.06
+ */
+package sweeputils;
+
+public class PhaseStatsTest {
+
+    public static void main(String[] args) {
+        degreeSteps();
+        iterationColumnIgnored();
+        System.out.println("PhaseStatsTest passed");
+    }
+
+    /*
+     * Four revolutions at 1 degree per step of a load that is the phase
+     * itself: every one of 36 bins gets 10 samples per revolution and its
+     * mean is the mean phase of the bin. The first revolution and the one
+     * still open at the end do not count as complete.
+     */
+    static void degreeSteps() {
+        double stepSize = 1.;
+        int rows = 4 * 360;
+        MonitorTable table = new MonitorTable(
+                new String[]{"Iteration", "Thrust", "Torque"}, rows);
+        for (int r = 0; r < rows; r++) {
+            double phase = (r * stepSize) % 360.;
+            table.set(r, 0, 1000 + r);
+            table.set(r, 1, phase);
+            table.set(r, 2, 2 * phase);
+        }
+        PhaseStats stats = new PhaseStats(2, 36);
+        stats.addTable(table, new int[]{1, 2}, stepSize);
+        for (int b = 0; b < 36; b++) {
+            check(stats.getN(0, b) == 40, "bin " + b + " has "
+                    + stats.getN(0, b) + " samples, expected 40");
+            double expected = b * 10 + 4.5;
+            close(stats.getPhaseMean(0, b), expected, "thrust bin " + b);
+            close(stats.getPhaseMean(1, b), 2 * expected, "torque bin " + b);
+            close(stats.getPhaseStandardDeviation(0, b),
+                    Math.sqrt(40 * 8.25 / 39), "thrust scatter bin " + b);
+        }
+        check(stats.getCompletedRevolutions() == 2,
+                "completed revolutions " + stats.getCompletedRevolutions());
+        close(stats.getRevolutionDrift(0), 0., "revolution drift");
+    }
+
+    /*
+     * Column 0 holds large iteration numbers; the angle must come from the
+     * row index, so a 2 degree step over half a revolution fills only the
+     * first half of the bins.
+     */
+    static void iterationColumnIgnored() {
+        double stepSize = 2.;
+        int rows = 90;
+        MonitorTable table = new MonitorTable(
+                new String[]{"Iteration", "Thrust"}, rows);
+        for (int r = 0; r < rows; r++) {
+            table.set(r, 0, 123457 + r);
+            table.set(r, 1, 1.);
+        }
+        PhaseStats stats = new PhaseStats(1, 36);
+        stats.addTable(table, new int[]{1}, stepSize);
+        for (int b = 0; b < 36; b++) {
+            long expected = b < 18 ? 5 : 0;
+            check(stats.getN(0, b) == expected, "bin " + b + " has "
+                    + stats.getN(0, b) + " samples, expected " + expected);
+        }
+    }
+
+    static void close(double actual, double expected, String what) {
+        check(Math.abs(actual - expected) < 1e-9, what + ": " + actual
+                + ", expected " + expected);
+    }
+
+    static void check(boolean ok, String message) {
+        if (!ok) {
+            System.err.println("FAILED " + message);
+            System.exit(1);
+        }
+    }
+}